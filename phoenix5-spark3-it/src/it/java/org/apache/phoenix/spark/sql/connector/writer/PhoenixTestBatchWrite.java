@@ -19,8 +19,11 @@ package org.apache.phoenix.spark.sql.connector.writer;
 
 import org.apache.spark.sql.connector.write.DataWriterFactory;
 import org.apache.spark.sql.connector.write.LogicalWriteInfo;
+import org.apache.spark.sql.connector.write.LogicalWriteInfoImpl;
 import org.apache.spark.sql.connector.write.PhysicalWriteInfo;
 import org.apache.spark.sql.connector.write.WriterCommitMessage;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
 
 import java.util.Map;
 
@@ -31,6 +34,15 @@ public class PhoenixTestBatchWrite extends PhoenixBatchWrite {
         super(writeInfo, options);
     }
 
+    /**
+     * @return mode a write of the schema with the options runs in, UPSERT when the requested mode
+     * does not support the table
+     */
+    public static String getWriteMode(StructType schema, Map<String, String> options) {
+        LogicalWriteInfo info = new LogicalWriteInfoImpl("", schema, new CaseInsensitiveStringMap(options));
+        return new PhoenixBatchWrite(info, options).getOptions().getWriteMode();
+    }
+
     // Override to return a test DataWriterFactory
     @Override
     public DataWriterFactory createBatchWriterFactory(PhysicalWriteInfo physicalWriteInfo) {
@@ -43,6 +55,7 @@ public class PhoenixTestBatchWrite extends PhoenixBatchWrite {
         for (WriterCommitMessage message : messages) {
             TOTAL_BATCHES_COMMITTED_COUNT += Integer.parseInt(message.toString());
         }
+        super.commit(messages);
     }
 
 }
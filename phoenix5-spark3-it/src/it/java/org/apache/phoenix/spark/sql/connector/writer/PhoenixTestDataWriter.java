@@ -17,21 +17,42 @@
  */
 package org.apache.phoenix.spark.sql.connector.writer;
 
+import org.apache.phoenix.util.PhoenixRuntime;
 import org.apache.spark.sql.connector.write.WriterCommitMessage;
 import org.apache.spark.sql.types.StructType;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 
 public class PhoenixTestDataWriter extends PhoenixDataWriter {
+
+    public static final String FAIL_BATCH_COMMIT_AFTER = "fail.batch.commit.after";
+    // Whether the WAL of the table was disabled when a writer last committed its first batch
+    public static volatile boolean WAL_DISABLED_AT_FIRST_BATCH = false;
+
     private long numBatchesCommitted = 0;
+    // Number of batches committed before the next batch commit fails, negative to never fail
+    private final long failBatchCommitAfter;
+    private final String tableName;
+
     PhoenixTestDataWriter(StructType schema, PhoenixDataSourceWriteOptions options) {
         super(schema, options);
+        failBatchCommitAfter = Long.parseLong(options.getEffectiveProps()
+                .getProperty(FAIL_BATCH_COMMIT_AFTER, "-1"));
+        tableName = options.getTableName();
     }
 
-    // Override to also count the number of times we call this method to test upsert batch commits
+    // Override to also count the number of times we call this method to test upsert batch commits,
+    // and to fail a batch commit based on a property passed to the executor
     @Override
-    public void commitBatchUpdates() throws SQLException {
-        super.commitBatchUpdates();
+    public void commitBatchUpdates(Connection batchConn) throws SQLException {
+        if (numBatchesCommitted == 0) {
+            WAL_DISABLED_AT_FIRST_BATCH = PhoenixRuntime.getTableNoCache(batchConn, tableName).isWALDisabled();
+        }
+        if (failBatchCommitAfter >= 0 && numBatchesCommitted >= failBatchCommitAfter) {
+            throw new SQLException("Failing the commit of batch " + (numBatchesCommitted + 1));
+        }
+        super.commitBatchUpdates(batchConn);
         numBatchesCommitted++;
     }
 
@@ -103,14 +103,17 @@ class AbstractPhoenixSparkIT extends FunSuite with Matchers with BeforeAndAfter
     // We pass in a TenantId to allow the DDL to create tenant-specific tables/views
     setupTables("tenantSetup.sql", Some(TenantId))
 
-    spark = SparkSession
+    spark = configureSession(SparkSession
       .builder()
       .appName("PhoenixSparkIT")
       .master("local[2]") // 2 threads, some parallelism
-      .config("spark.ui.showConsoleProgress", "false")
+      .config("spark.ui.showConsoleProgress", "false"))
       .getOrCreate()
   }
 
+  // Lets suites add their own session configuration, such as extensions
+  def configureSession(builder: SparkSession.Builder): SparkSession.Builder = builder
+
   override def afterAll() {
     conn.close()
     spark.stop()
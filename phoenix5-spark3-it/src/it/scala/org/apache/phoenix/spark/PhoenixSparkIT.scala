@@ -13,21 +13,28 @@
  */
 package org.apache.phoenix.spark
 
+import org.apache.hadoop.hbase.{CellUtil, TableName}
+import org.apache.hadoop.hbase.client.Scan
+import org.apache.hadoop.hbase.util.Bytes
 import org.apache.omid.tso.client.AbortException
 
 import java.sql.DriverManager
 import java.util.Date
+import org.apache.phoenix.jdbc.PhoenixConnection
 import org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil
 import org.apache.phoenix.query.QueryServices
-import org.apache.phoenix.schema.types.{PSmallintArray, PUnsignedSmallintArray, PVarchar}
-import org.apache.phoenix.spark.sql.connector.{PhoenixDataSource, PhoenixTestingDataSource}
-import org.apache.phoenix.spark.sql.connector.reader.PhoenixTestPartitionReader
-import org.apache.phoenix.spark.sql.connector.writer.PhoenixTestBatchWrite
-import org.apache.phoenix.util.{ColumnInfo, SchemaUtil}
+import org.apache.phoenix.schema.PIndexState
+import org.apache.phoenix.schema.types.{PLong, PSmallintArray, PUnsignedSmallintArray, PVarchar}
+import org.apache.phoenix.spark.sql.connector.{PhoenixCatalog, PhoenixDataSource, PhoenixTableDiff, PhoenixTestingDataSource}
+import org.apache.phoenix.spark.sql.connector.reader.{PhoenixPlanningCache, PhoenixPlanningReport, PhoenixTestPartitionReader}
+import org.apache.phoenix.spark.sql.connector.writer.{PhoenixTestBatchWrite, PhoenixTestDataWriter}
+import org.apache.phoenix.util.{ColumnInfo, PhoenixRuntime, SchemaUtil}
 import org.apache.spark.SparkException
-import org.apache.spark.sql.types.{ArrayType, BinaryType, ByteType, DateType, IntegerType, LongType, ShortType, StringType, StructField, StructType}
+import org.apache.spark.sql.types.{ArrayType, BinaryType, ByteType, DateType, DecimalType, IntegerType, LongType, ShortType, StringType, StructField, StructType}
 import org.apache.spark.sql.{Row, SaveMode}
+import org.apache.spark.sql.functions.col
 
+import scala.collection.JavaConverters._
 import scala.collection.mutable
 import scala.collection.mutable.ListBuffer
 
@@ -471,6 +478,137 @@ class PhoenixSparkIT extends AbstractPhoenixSparkIT {
     PhoenixTestBatchWrite.TOTAL_BATCHES_COMMITTED_COUNT shouldEqual totalRecords/upsertBatchSize
   }
 
+  test("Can commit batches in the background with asyncCommit") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE ASYNC_COMMIT_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    val totalRecords = 103
+    val upsertBatchSize = 5
+    val schema = StructType(Seq(StructField("ID", LongType, nullable = false), StructField("COL1", StringType)))
+    // A single partition, so every full batch is committed in the background by the same writer
+    val df = spark.sqlContext.createDataFrame(
+      spark.sparkContext.parallelize((1 to totalRecords).map(x => Row(x.toLong, x.toString)), 1), schema)
+
+    val batchesBefore = PhoenixTestBatchWrite.TOTAL_BATCHES_COMMITTED_COUNT
+    df.write
+      .format(PhoenixTestingDataSource.TEST_SOURCE)
+      .options(Map("table" -> "ASYNC_COMMIT_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.ASYNC_COMMIT -> "true",
+        PhoenixDataSource.PHOENIX_CONFIGS -> s"${PhoenixConfigurationUtil.UPSERT_BATCH_SIZE}=$upsertBatchSize"))
+      .mode(SaveMode.Append)
+      .save()
+
+    // The rows of the last, partial batch are committed with the task
+    PhoenixTestBatchWrite.TOTAL_BATCHES_COMMITTED_COUNT - batchesBefore shouldEqual totalRecords / upsertBatchSize
+    val rs = conn.createStatement.executeQuery("SELECT ID, COL1 FROM ASYNC_COMMIT_TABLE ORDER BY ID")
+    val rows = new ListBuffer[(Long, String)]
+    while (rs.next()) {
+      rows += ((rs.getLong(1), rs.getString(2)))
+    }
+    rows shouldEqual (1 to totalRecords).map(x => (x.toLong, x.toString))
+  }
+
+  test("Can commit batches once their mutations reach batchSizeBytes") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE BATCH_BYTES_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    val totalRecords = 20
+    val schema = StructType(Seq(StructField("ID", LongType, nullable = false), StructField("COL1", StringType)))
+    // A single partition, so every batch is committed by the same writer
+    val df = spark.sqlContext.createDataFrame(
+      spark.sparkContext.parallelize((1 to totalRecords).map(x => Row(x.toLong, x.toString)), 1), schema)
+
+    def batchesCommitted(batchSizeBytes: Long): Int = {
+      val batchesBefore = PhoenixTestBatchWrite.TOTAL_BATCHES_COMMITTED_COUNT
+      df.write
+        .format(PhoenixTestingDataSource.TEST_SOURCE)
+        .options(Map("table" -> "BATCH_BYTES_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+          PhoenixDataSource.BATCH_SIZE_BYTES -> batchSizeBytes.toString))
+        .mode(SaveMode.Append)
+        .save()
+      PhoenixTestBatchWrite.TOTAL_BATCHES_COMMITTED_COUNT - batchesBefore
+    }
+
+    // Every row fills a batch of a byte, while all the rows fit in a batch of a megabyte committed with the task
+    batchesCommitted(1) shouldEqual totalRecords
+    batchesCommitted(1 << 20) shouldEqual 0
+
+    val rs = conn.createStatement.executeQuery("SELECT COUNT(*) FROM BATCH_BYTES_TABLE")
+    rs.next()
+    rs.getLong(1) shouldEqual totalRecords.toLong
+  }
+
+  test("Fails the task when a batch committed in the background fails") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE ASYNC_COMMIT_FAILURE_TABLE (ID BIGINT NOT NULL PRIMARY KEY, " +
+      "COL1 VARCHAR)")
+    val schema = StructType(Seq(StructField("ID", LongType, nullable = false), StructField("COL1", StringType)))
+    val df = spark.sqlContext.createDataFrame(
+      spark.sparkContext.parallelize((1 to 100).map(x => Row(x.toLong, x.toString)), 1), schema)
+
+    // The third batch fails while the fourth one is upserted
+    val error = intercept[SparkException] {
+      df.write
+        .format(PhoenixTestingDataSource.TEST_SOURCE)
+        .options(Map("table" -> "ASYNC_COMMIT_FAILURE_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+          PhoenixDataSource.ASYNC_COMMIT -> "true",
+          PhoenixDataSource.PHOENIX_CONFIGS -> (s"${PhoenixConfigurationUtil.UPSERT_BATCH_SIZE}=5," +
+            s"${PhoenixTestDataWriter.FAIL_BATCH_COMMIT_AFTER}=2")))
+        .mode(SaveMode.Append)
+        .save()
+    }
+    var cause: Throwable = error
+    while (cause.getCause != null && !cause.getMessage.contains("Failing the commit of batch 3")) {
+      cause = cause.getCause
+    }
+    cause.getMessage should include ("Failing the commit of batch 3")
+
+    // Only the batches committed before the failure were written
+    val rs = conn.createStatement.executeQuery("SELECT COUNT(*) FROM ASYNC_COMMIT_FAILURE_TABLE")
+    rs.next()
+    rs.getLong(1) shouldEqual 10L
+  }
+
+  test("Can disable the WAL while writing and enable it again when the write commits or aborts") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE WAL_TOGGLE_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    val schema = StructType(Seq(StructField("ID", LongType, nullable = false), StructField("COL1", StringType)))
+    val df = spark.sqlContext.createDataFrame(
+      spark.sparkContext.parallelize((1 to 10).map(x => Row(x.toLong, x.toString)), 1), schema)
+
+    def write(phoenixConfigs: String): Unit = df.write
+      .format(PhoenixTestingDataSource.TEST_SOURCE)
+      .options(Map("table" -> "WAL_TOGGLE_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.DISABLE_WAL -> "true", PhoenixDataSource.PHOENIX_CONFIGS -> phoenixConfigs))
+      .mode(SaveMode.Append)
+      .save()
+
+    def walDisabled: Boolean = PhoenixRuntime.getTableNoCache(conn, "WAL_TOGGLE_TABLE").isWALDisabled
+
+    // The rows are flushed before the WAL is enabled again
+    PhoenixTestDataWriter.WAL_DISABLED_AT_FIRST_BATCH = false
+    write(s"${PhoenixConfigurationUtil.UPSERT_BATCH_SIZE}=5")
+    PhoenixTestDataWriter.WAL_DISABLED_AT_FIRST_BATCH shouldEqual true
+    walDisabled shouldEqual false
+    val rs = conn.createStatement.executeQuery("SELECT COUNT(*) FROM WAL_TOGGLE_TABLE")
+    rs.next()
+    rs.getLong(1) shouldEqual 10L
+
+    PhoenixTestDataWriter.WAL_DISABLED_AT_FIRST_BATCH = false
+    intercept[SparkException] {
+      write(s"${PhoenixConfigurationUtil.UPSERT_BATCH_SIZE}=5,${PhoenixTestDataWriter.FAIL_BATCH_COMMIT_AFTER}=0")
+    }
+    PhoenixTestDataWriter.WAL_DISABLED_AT_FIRST_BATCH shouldEqual true
+    walDisabled shouldEqual false
+
+    // A WAL disabled before the write is left disabled
+    conn.createStatement.execute("ALTER TABLE WAL_TOGGLE_TABLE SET DISABLE_WAL=true")
+    write(s"${PhoenixConfigurationUtil.UPSERT_BATCH_SIZE}=5")
+    walDisabled shouldEqual true
+  }
+
   test("Can save dates to Phoenix using java.sql.Date") {
     val date = java.sql.Date.valueOf("2016-09-30")
 
@@ -950,4 +1088,378 @@ class PhoenixSparkIT extends AbstractPhoenixSparkIT {
     df.count() shouldEqual 1
   }
 
+  test("Can save to a salted table with direct mutations") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.createStatement.execute("CREATE TABLE DIRECT_WRITE_TABLE (ID BIGINT NOT NULL PRIMARY KEY, " +
+      "COL1 VARCHAR(10), COL2 INTEGER) SALT_BUCKETS = 4")
+    val dataSet = List(Row(1L, "1", 1), Row(2L, null, 2), Row(3L, "3", null))
+    val schema = StructType(
+      Seq(StructField("ID", LongType, nullable = false),
+        StructField("COL1", StringType),
+        StructField("COL2", IntegerType)))
+    val df = spark.sqlContext.createDataFrame(spark.sparkContext.parallelize(dataSet), schema)
+
+    df.write
+      .format("phoenix")
+      .options(Map("table" -> "DIRECT_WRITE_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.WRITE_MODE -> PhoenixDataSource.WRITE_MODE_DIRECT))
+      .mode(SaveMode.Append)
+      .save()
+
+    val rs = conn.createStatement.executeQuery("SELECT ID, COL1, COL2 FROM DIRECT_WRITE_TABLE ORDER BY ID")
+    val results = ListBuffer[Row]()
+    while (rs.next()) {
+      results.append(Row(rs.getLong(1), rs.getString(2), rs.getObject(3)))
+    }
+    results.toList shouldEqual dataSet
+  }
+
+  // Cells of a physical table without their timestamps, in row key order
+  private def cellsOf(conn: java.sql.Connection, physicalTable: String): List[(String, String, String, String)] = {
+    val table = conn.unwrap(classOf[PhoenixConnection]).getQueryServices.getTable(Bytes.toBytes(physicalTable))
+    try {
+      val scanner = table.getScanner(new Scan())
+      try {
+        scanner.asScala.flatMap(_.rawCells()).map(cell => (Bytes.toStringBinary(CellUtil.cloneRow(cell)),
+          Bytes.toStringBinary(CellUtil.cloneFamily(cell)), Bytes.toStringBinary(CellUtil.cloneQualifier(cell)),
+          Bytes.toStringBinary(CellUtil.cloneValue(cell)))).toList
+      } finally {
+        scanner.close()
+      }
+    } finally {
+      table.close()
+    }
+  }
+
+  // The rows of a read of the table, through an index if given
+  private def selectAll(conn: java.sql.Connection, table: String, index: Option[String]): List[Row] = {
+    val hint = index.map(i => s"/*+ INDEX($table $i) */ ").getOrElse("")
+    val rs = conn.createStatement.executeQuery(s"SELECT ${hint}K1, K2, K3, V1, V2 FROM $table ORDER BY K1, K2, K3")
+    val results = ListBuffer[Row]()
+    while (rs.next()) {
+      results.append(Row(rs.getString(1), rs.getString(2), rs.getInt(3), rs.getString(4), rs.getBigDecimal(5)))
+    }
+    results.toList
+  }
+
+  test("Can write the same cells with direct mutations as with UPSERTs") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    val schema = StructType(Seq(StructField("K1", StringType, nullable = false),
+      StructField("K2", StringType, nullable = false), StructField("K3", IntegerType, nullable = false),
+      StructField("V1", StringType), StructField("V2", DecimalType(10, 2))))
+    // CHAR keys shorter than their length are padded, DESC keys are inverted
+    val rows = List(Row("a", "x", 1, "one", new java.math.BigDecimal("1.50")),
+      Row("ab", "z", 2, null, new java.math.BigDecimal("-2.00")),
+      Row("abc", "yy", -3, "three", null))
+    // Updates move the index rows of their new values
+    val updates = List(Row("a", "x", 1, "uno", new java.math.BigDecimal("1.50")),
+      Row("ab", "z", 2, "two", null))
+
+    // Column encoded qualifiers, the default, and column names as qualifiers
+    for ((suffix, tableOptions) <- Seq(("ENCODED", ""), ("UNENCODED", " COLUMN_ENCODED_BYTES = NONE"))) {
+      val tables = Seq(PhoenixDataSource.WRITE_MODE_UPSERT, PhoenixDataSource.WRITE_MODE_DIRECT)
+        .map(mode => mode -> s"DIRECT_${suffix}_${mode.toUpperCase}").toMap
+      for (table <- tables.values) {
+        conn.createStatement.execute(s"CREATE TABLE $table (K1 CHAR(5) NOT NULL, K2 VARCHAR NOT NULL, " +
+          s"K3 INTEGER NOT NULL, V1 VARCHAR, V2 DECIMAL(10, 2) CONSTRAINT PK PRIMARY KEY (K1, K2 DESC, K3 DESC))" +
+          tableOptions)
+        conn.createStatement.execute(s"CREATE INDEX ${table}_GLOBAL ON $table (V1) INCLUDE (V2)")
+        conn.createStatement.execute(s"CREATE LOCAL INDEX ${table}_LOCAL ON $table (V2)")
+      }
+      for (dataSet <- Seq(rows, updates); (mode, table) <- tables) {
+        val options = Map("table" -> table, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+          PhoenixDataSource.WRITE_MODE -> mode)
+        // Direct writes must not fall back to UPSERT for the comparison to mean anything
+        PhoenixTestBatchWrite.getWriteMode(schema, options.asJava) shouldEqual mode
+        spark.sqlContext.createDataFrame(spark.sparkContext.parallelize(dataSet), schema)
+          .write
+          .format("phoenix")
+          .options(options)
+          .mode(SaveMode.Append)
+          .save()
+      }
+
+      val upsertTable = tables(PhoenixDataSource.WRITE_MODE_UPSERT)
+      val directTable = tables(PhoenixDataSource.WRITE_MODE_DIRECT)
+      // The data table holds the local index, its index rows are compared with the data
+      cellsOf(conn, directTable) shouldEqual cellsOf(conn, upsertTable)
+      cellsOf(conn, directTable + "_GLOBAL") shouldEqual cellsOf(conn, upsertTable + "_GLOBAL")
+      for (index <- Seq(None, Some("_GLOBAL"), Some("_LOCAL"))) {
+        selectAll(conn, directTable, index.map(directTable + _)) shouldEqual
+          selectAll(conn, upsertTable, index.map(upsertTable + _))
+      }
+      selectAll(conn, directTable, None).map(_.getString(3)) shouldEqual List("uno", "two", "three")
+    }
+  }
+
+  test("Can bulk load a table and its index") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.createStatement.execute("CREATE TABLE BULK_LOAD_TABLE (ID BIGINT NOT NULL PRIMARY KEY, " +
+      "COL1 VARCHAR(10), COL2 INTEGER) SALT_BUCKETS = 4, IMMUTABLE_ROWS = true")
+    conn.createStatement.execute("CREATE INDEX BULK_LOAD_INDEX ON BULK_LOAD_TABLE (COL2) INCLUDE (COL1)")
+    val dataSet = List(Row(1L, "1", 1), Row(2L, null, 2), Row(3L, "3", 3))
+    val schema = StructType(
+      Seq(StructField("ID", LongType, nullable = false),
+        StructField("COL1", StringType),
+        StructField("COL2", IntegerType)))
+    val df = spark.sqlContext.createDataFrame(spark.sparkContext.parallelize(dataSet), schema)
+
+    df.write
+      .format("phoenix")
+      .options(Map("table" -> "BULK_LOAD_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.WRITE_MODE -> PhoenixDataSource.WRITE_MODE_BULKLOAD))
+      .mode(SaveMode.Append)
+      .save()
+
+    val rs = conn.createStatement.executeQuery("SELECT ID, COL1, COL2 FROM BULK_LOAD_TABLE ORDER BY ID")
+    val results = ListBuffer[Row]()
+    while (rs.next()) {
+      results.append(Row(rs.getLong(1), rs.getString(2), rs.getObject(3)))
+    }
+    results.toList shouldEqual dataSet
+
+    val indexRs = conn.createStatement.executeQuery("SELECT \"0:COL1\", \":ID\" FROM BULK_LOAD_INDEX WHERE \"0:COL2\" = 3")
+    indexRs.next() shouldEqual true
+    indexRs.getString(1) shouldEqual "3"
+    indexRs.getLong(2) shouldEqual 3L
+    // The index is used again once loaded, and the HFiles are deleted
+    val state = conn.createStatement.executeQuery("SELECT INDEX_STATE FROM SYSTEM.CATALOG " +
+      "WHERE TABLE_NAME = 'BULK_LOAD_INDEX' AND INDEX_STATE IS NOT NULL")
+    state.next() shouldEqual true
+    state.getString(1) shouldEqual PIndexState.ACTIVE.getSerializedValue
+  }
+
+  test("Bulk loads the later of the cells written by several flushes of a task") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.createStatement.execute("CREATE TABLE BULK_LOAD_FLUSHES_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    val schema = StructType(Seq(StructField("ID", LongType, nullable = false), StructField("COL1", StringType)))
+    val df = spark.sqlContext.createDataFrame(spark.sparkContext.parallelize(
+      Seq(Row(1L, "a"), Row(2L, "b"), Row(1L, null), Row(2L, "c")), 1), schema)
+
+    // Every row is flushed to HFiles of its own
+    df.write
+      .format("phoenix")
+      .options(Map("table" -> "BULK_LOAD_FLUSHES_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.WRITE_MODE -> PhoenixDataSource.WRITE_MODE_BULKLOAD,
+        PhoenixDataSource.BULK_LOAD_BUFFER_MB -> "0",
+        PhoenixDataSource.PHOENIX_CONFIGS -> s"${PhoenixConfigurationUtil.UPSERT_BATCH_SIZE}=1"))
+      .mode(SaveMode.Append)
+      .save()
+
+    val rs = conn.createStatement.executeQuery("SELECT ID, COL1 FROM BULK_LOAD_FLUSHES_TABLE ORDER BY ID")
+    val results = ListBuffer[Row]()
+    while (rs.next()) {
+      results.append(Row(rs.getLong(1), rs.getString(2)))
+    }
+    results.toList shouldEqual List(Row(1L, null), Row(2L, "c"))
+  }
+
+  test("Writes mutable tables with global indexes with UPSERTs instead of a bulk load") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.createStatement.execute("CREATE TABLE BULK_LOAD_MUTABLE_TABLE (ID BIGINT NOT NULL PRIMARY KEY, " +
+      "COL1 VARCHAR, COL2 INTEGER)")
+    conn.createStatement.execute("CREATE INDEX BULK_LOAD_MUTABLE_INDEX ON BULK_LOAD_MUTABLE_TABLE (COL2)")
+    val schema = StructType(Seq(StructField("ID", LongType, nullable = false), StructField("COL1", StringType),
+      StructField("COL2", IntegerType)))
+    val options = Map("table" -> "BULK_LOAD_MUTABLE_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+      PhoenixDataSource.WRITE_MODE -> PhoenixDataSource.WRITE_MODE_BULKLOAD)
+    PhoenixTestBatchWrite.getWriteMode(schema, options.asJava) shouldEqual PhoenixDataSource.WRITE_MODE_UPSERT
+  }
+
+  test("Can overwrite a table, deleting its rows on the server") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE OVERWRITE_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    conn.createStatement.execute("UPSERT INTO OVERWRITE_TABLE VALUES (1, 'old')")
+    conn.createStatement.execute("UPSERT INTO OVERWRITE_TABLE VALUES (2, 'old')")
+    val dataSet = List(Row(3L, "new"))
+    val schema = StructType(
+      Seq(StructField("ID", LongType, nullable = false),
+        StructField("COL1", StringType)))
+    val df = spark.sqlContext.createDataFrame(spark.sparkContext.parallelize(dataSet), schema)
+
+    // Deleting every row needs the truncate option
+    val error = intercept[IllegalArgumentException] {
+      df.write
+        .format("phoenix")
+        .options(Map("table" -> "OVERWRITE_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress))
+        .mode(SaveMode.Overwrite)
+        .save()
+    }
+    error.getMessage should include (PhoenixDataSource.TRUNCATE)
+    val count = conn.createStatement.executeQuery("SELECT COUNT(*) FROM OVERWRITE_TABLE")
+    count.next()
+    count.getLong(1) shouldEqual 2L
+
+    df.write
+      .format("phoenix")
+      .options(Map("table" -> "OVERWRITE_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.TRUNCATE -> "true"))
+      .mode(SaveMode.Overwrite)
+      .save()
+
+    val rs = conn.createStatement.executeQuery("SELECT ID, COL1 FROM OVERWRITE_TABLE ORDER BY ID")
+    val results = ListBuffer[Row]()
+    while (rs.next()) {
+      results.append(Row(rs.getLong(1), rs.getString(2)))
+    }
+    results.toList shouldEqual dataSet
+  }
+
+  test("Can delete and overwrite the rows matching a condition through the Phoenix catalog") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE CATALOG_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    for (id <- 1 to 6) {
+      conn.createStatement.execute(s"UPSERT INTO CATALOG_TABLE VALUES ($id, 'old')")
+    }
+    spark.conf.set("spark.sql.catalog.phoenix", classOf[PhoenixCatalog].getName)
+    spark.conf.set("spark.sql.catalog.phoenix." + PhoenixDataSource.ZOOKEEPER_URL, quorumAddress)
+
+    def rows(): List[Row] = {
+      val rs = conn.createStatement.executeQuery("SELECT ID, COL1 FROM CATALOG_TABLE ORDER BY ID")
+      val results = ListBuffer[Row]()
+      while (rs.next()) {
+        results.append(Row(rs.getLong(1), rs.getString(2)))
+      }
+      results.toList
+    }
+
+    spark.sql("DELETE FROM phoenix.CATALOG_TABLE WHERE ID <= 2")
+    rows() shouldEqual (3L to 6L).map(Row(_, "old")).toList
+    spark.table("phoenix.CATALOG_TABLE").count() shouldEqual 4L
+
+    // Rows 5 and 6 are deleted, row 3 is upserted and row 4 is left alone
+    val schema = StructType(
+      Seq(StructField("ID", LongType, nullable = false),
+        StructField("COL1", StringType)))
+    spark.sqlContext.createDataFrame(spark.sparkContext.parallelize(Seq(Row(3L, "new"))), schema)
+      .writeTo("phoenix.CATALOG_TABLE")
+      .overwrite(col("ID") =!= 4L)
+    rows() shouldEqual List(Row(3L, "new"), Row(4L, "old"))
+
+    // Conditions Phoenix cannot run are rejected before anything is deleted
+    intercept[IllegalArgumentException] {
+      spark.sql("DELETE FROM phoenix.CATALOG_TABLE WHERE COL1 <=> 'old'")
+    }
+    rows().size shouldEqual 2
+  }
+
+  test("Can diff two Phoenix tables") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    for (table <- Seq("DIFF_SOURCE", "DIFF_TARGET")) {
+      // The nullable last primary key column checks that NULL keys are matched
+      conn.createStatement.execute(s"CREATE TABLE $table (K1 INTEGER NOT NULL, K2 VARCHAR, V VARCHAR " +
+        "CONSTRAINT PK PRIMARY KEY (K1, K2))")
+      conn.createStatement.execute(s"UPSERT INTO $table VALUES (1, 'a', 'x')")
+      conn.createStatement.execute(s"UPSERT INTO $table VALUES (2, NULL, 'y')")
+    }
+    def options(table: String) = Map("table" -> table, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress).asJava
+    def diffRows() = {
+      val tableDiff = new PhoenixTableDiff(spark, options("DIFF_SOURCE"), options("DIFF_TARGET"), 4)
+      (tableDiff.getMismatchedBuckets.size, tableDiff.diff().collect().map(row =>
+        (row.getAs[String](PhoenixTableDiff.DIFF_SIDE_COLUMN), row.getAs[Int]("K1"), row.getAs[String]("K2"),
+          row.getAs[String]("V"))).toSet)
+    }
+
+    diffRows() shouldEqual ((0, Set()))
+
+    conn.createStatement.execute("UPSERT INTO DIFF_TARGET VALUES (1, 'a', 'z')")
+    conn.createStatement.execute("UPSERT INTO DIFF_SOURCE VALUES (3, 'b', 'w')")
+    conn.createStatement.execute("UPSERT INTO DIFF_TARGET VALUES (4, NULL, 'v')")
+    val (mismatchedBuckets, rows) = diffRows()
+    mismatchedBuckets should be > 0
+    rows shouldEqual Set(
+      (PhoenixTableDiff.SOURCE, 1, "a", "x"),
+      (PhoenixTableDiff.TARGET, 1, "a", "z"),
+      (PhoenixTableDiff.SOURCE, 3, "b", "w"),
+      (PhoenixTableDiff.TARGET, 4, null, "v"))
+  }
+
+  test("Can diff rows whose NULLs are in different columns") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    for (table <- Seq("DIFF_NULL_SOURCE", "DIFF_NULL_TARGET")) {
+      conn.createStatement.execute(s"CREATE TABLE $table (K INTEGER PRIMARY KEY, A INTEGER, B INTEGER)")
+    }
+    // Both rows hold a single 5, which would hash the same if NULLs were skipped
+    conn.createStatement.execute("UPSERT INTO DIFF_NULL_SOURCE VALUES (1, 5, NULL)")
+    conn.createStatement.execute("UPSERT INTO DIFF_NULL_TARGET VALUES (1, NULL, 5)")
+    def options(table: String) = Map("table" -> table, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress).asJava
+    val tableDiff = new PhoenixTableDiff(spark, options("DIFF_NULL_SOURCE"), options("DIFF_NULL_TARGET"), 4)
+
+    tableDiff.getMismatchedBuckets.size shouldEqual 1
+    tableDiff.diff().collect().map(row => row.getAs[String](PhoenixTableDiff.DIFF_SIDE_COLUMN)).toSet shouldEqual
+      Set(PhoenixTableDiff.SOURCE, PhoenixTableDiff.TARGET)
+  }
+
+  test("Can reuse planned partitions until the table changes") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE PLANNING_CACHE_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    conn.createStatement.execute("UPSERT INTO PLANNING_CACHE_TABLE VALUES (1, 'a')")
+    conn.createStatement.execute("UPSERT INTO PLANNING_CACHE_TABLE VALUES (10, 'b')")
+    PhoenixPlanningCache.clear(spark)
+    def readFromCache(): (Long, Boolean) = {
+      val count = spark.read.format("phoenix")
+        .options(Map("table" -> "PLANNING_CACHE_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+          PhoenixDataSource.PLANNING_CACHE -> "true", PhoenixDataSource.PLANNING_REPORT -> "true"))
+        .load.select("ID", "COL1").collect().length.toLong
+      (count, PhoenixPlanningReport.getLatest.isFromCache)
+    }
+
+    readFromCache() shouldEqual ((2L, false))
+    // Rows written since the partitions were planned are still read
+    conn.createStatement.execute("UPSERT INTO PLANNING_CACHE_TABLE VALUES (5, 'c')")
+    readFromCache() shouldEqual ((3L, true))
+
+    conn.createStatement.execute("ALTER TABLE PLANNING_CACHE_TABLE ADD COL2 INTEGER")
+    readFromCache() shouldEqual ((3L, false))
+    readFromCache() shouldEqual ((3L, true))
+
+    val admin = conn.unwrap(classOf[PhoenixConnection]).getQueryServices.getAdmin
+    try {
+      val tableName = TableName.valueOf("PLANNING_CACHE_TABLE")
+      admin.split(tableName, PLong.INSTANCE.toBytes(5L))
+      while (admin.getRegions(tableName).size() < 2) {
+        Thread.sleep(100)
+      }
+    } finally {
+      admin.close()
+    }
+    readFromCache() shouldEqual ((3L, false))
+  }
+
+  test("Can read queries that cannot be split in a single partition") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE QUERY_SPLIT_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 INTEGER) " +
+      "SALT_BUCKETS = 4")
+    for (id <- 1 to 8) {
+      conn.createStatement.execute(s"UPSERT INTO QUERY_SPLIT_TABLE VALUES ($id, ${id % 2})")
+    }
+    def read(query: String) = spark.read.format("phoenix")
+      .options(Map(PhoenixDataSource.QUERY -> query, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress))
+      .load
+
+    // Rows of a plain SELECT are the union of the rows of its scans
+    val scan = read("SELECT ID, COL1 FROM QUERY_SPLIT_TABLE WHERE COL1 = 1")
+    scan.rdd.getNumPartitions should be > 1
+    scan.collect().map(_.getLong(0)).sorted shouldEqual Array(1L, 3L, 5L, 7L)
+
+    val limited = read("SELECT ID FROM QUERY_SPLIT_TABLE LIMIT 3")
+    limited.rdd.getNumPartitions shouldEqual 1
+    limited.count() shouldEqual 3
+
+    val ordered = read("SELECT ID FROM QUERY_SPLIT_TABLE ORDER BY ID DESC")
+    ordered.rdd.getNumPartitions shouldEqual 1
+    ordered.collect().map(_.getLong(0)) shouldEqual (8L to 1L by -1).toArray
+
+    val aggregated = read("SELECT COL1, COUNT(*) AS C FROM QUERY_SPLIT_TABLE GROUP BY COL1")
+    aggregated.rdd.getNumPartitions shouldEqual 1
+    aggregated.collect().map(row => (row.getInt(0), row.getLong(1))).sorted shouldEqual Array((0, 4L), (1, 4L))
+  }
+
 }
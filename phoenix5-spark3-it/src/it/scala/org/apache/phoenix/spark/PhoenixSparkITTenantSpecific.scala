@@ -13,6 +13,7 @@
  */
 package org.apache.phoenix.spark
 
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource
 import org.apache.phoenix.util.PhoenixRuntime
 import org.apache.spark.sql.SQLContext
 
@@ -91,6 +92,28 @@ class PhoenixSparkITTenantSpecific extends AbstractPhoenixSparkIT {
     count shouldEqual 1L
   }
 
+  test("Can read a list of tenants from a tenant-specific view as one DataFrame") {
+    val df = spark.sqlContext.read.format("phoenix")
+      .options(Map("table" -> TenantTable, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.TENANT_IDS -> TenantId))
+      .load
+
+    df.columns.last shouldEqual PhoenixDataSource.DEFAULT_TENANT_ID_COLUMN
+    // There should only be 1 row upserted in tenantSetup.sql, all of it belonging to TenantId
+    val rows = df.select(OrgIdCol, PhoenixDataSource.DEFAULT_TENANT_ID_COLUMN).collect()
+    rows.map(row => (row.getString(0), row.getString(1))) shouldEqual Array(("defaultOrg", TenantId))
+  }
+
+  test("Cannot read a list of tenants when a column has the name of the tenant id column") {
+    val e = intercept[IllegalArgumentException] {
+      spark.sqlContext.read.format("phoenix")
+        .options(Map("table" -> TenantTable, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+          PhoenixDataSource.TENANT_IDS -> TenantId, PhoenixDataSource.TENANT_ID_COLUMN -> OrgIdCol))
+        .load
+    }
+    e.getMessage should include(OrgIdCol)
+  }
+
   /*****************/
   /** Write tests **/
   /*****************/
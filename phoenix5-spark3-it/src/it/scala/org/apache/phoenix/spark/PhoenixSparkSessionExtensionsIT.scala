@@ -0,0 +1,356 @@
+/*
+   Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import java.sql.DriverManager
+
+import java.util.concurrent.ConcurrentLinkedQueue
+
+import scala.collection.JavaConverters._
+
+import org.apache.hadoop.hbase.TableName
+import org.apache.hadoop.hbase.util.Bytes
+import org.apache.phoenix.jdbc.PhoenixConnection
+import org.apache.phoenix.spark.sql.connector.{PhoenixApproximateCount, PhoenixDataSource, PhoenixTable}
+import org.apache.spark.sql.{AnalysisException, DataFrame, SaveMode, SparkSession}
+import org.apache.spark.sql.catalyst.expressions.SortOrder
+import org.apache.spark.sql.catalyst.plans.logical.{Filter, RepartitionByExpression}
+import org.apache.spark.sql.catalyst.plans.physical.RangePartitioning
+import org.apache.spark.sql.execution.{QueryExecution, SortExec, SparkPlan}
+import org.apache.spark.sql.execution.datasources.v2.{BatchScanExec, DataSourceV2ScanRelation}
+import org.apache.spark.sql.execution.exchange.ShuffleExchangeExec
+import org.apache.spark.sql.expressions.Window
+import org.apache.spark.sql.functions.{col, sum}
+import org.apache.spark.sql.util.QueryExecutionListener
+import org.scalatest.concurrent.Eventually._
+import org.scalatest.time.SpanSugar._
+
+/**
+  * Tests of the optimizer rules and strategies of [[PhoenixSparkSessionExtensions]]
+  */
+class PhoenixSparkSessionExtensionsIT extends AbstractPhoenixSparkIT {
+
+  override def configureSession(builder: SparkSession.Builder): SparkSession.Builder =
+    builder.config("spark.sql.extensions", classOf[PhoenixSparkSessionExtensions].getName)
+
+  private def read(table: String): DataFrame = spark.read.format("phoenix")
+    .options(Map("table" -> table, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress))
+    .load
+
+  // Phoenix queries of the reads of the optimized plan
+  private def phoenixQueries(df: DataFrame): Seq[String] = df.queryExecution.optimizedPlan.collect {
+    case DataSourceV2ScanRelation(table: PhoenixTable, _, _) => table.getOptions.get(PhoenixDataSource.QUERY)
+  }
+
+  test("Can answer counts from statistics or with an exact count") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    // A guidepost per row makes the estimate exact
+    conn.createStatement.execute("CREATE TABLE COUNT_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR) " +
+      "GUIDE_POSTS_WIDTH = 1")
+    for (id <- 1 to 10) {
+      conn.createStatement.execute(s"UPSERT INTO COUNT_TABLE VALUES ($id, '${if (id % 2 == 0) "even" else "odd"}')")
+    }
+    conn.createStatement.execute("UPDATE STATISTICS COUNT_TABLE")
+    val options = Map("table" -> "COUNT_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress)
+
+    // Conditions on the primary key are estimated from the guideposts, others are counted
+    val estimated = PhoenixApproximateCount.count(options.asJava, null)
+    estimated.isExact shouldEqual false
+    estimated.getCount shouldEqual 10L
+    PhoenixApproximateCount.count(options.asJava, "COL1 = 'even'").isExact shouldEqual true
+    val outdated = options + (PhoenixDataSource.APPROXIMATE_COUNT_MAX_STATS_AGE_MS -> "-1")
+    PhoenixApproximateCount.count(outdated.asJava, null).isExact shouldEqual true
+
+    // The count is computed on the driver and returned as a single row
+    val df = spark.read.format("phoenix")
+      .options(options + (PhoenixDataSource.APPROXIMATE_COUNT -> "true"))
+      .load
+    val total = df.groupBy().count()
+    total.collect().map(_.getLong(0)) shouldEqual Array(10L)
+    val countExec = total.queryExecution.executedPlan.collect { case e: PhoenixCountExec => e }
+    countExec.size shouldEqual 1
+    countExec.head.metrics("exactCounts").value shouldEqual 0L
+
+    val filtered = df.filter("COL1 = 'even'").groupBy().count()
+    filtered.collect().map(_.getLong(0)) shouldEqual Array(5L)
+    filtered.queryExecution.executedPlan.collect { case e: PhoenixCountExec => e }
+      .map(_.metrics("exactCounts").value) shouldEqual Seq(1L)
+  }
+
+  test("Can run a join of two Phoenix tables in Phoenix") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE JOIN_ORDERS (ID BIGINT NOT NULL PRIMARY KEY, CUSTOMER_ID BIGINT, " +
+      "AMOUNT INTEGER)")
+    conn.createStatement.execute("CREATE TABLE JOIN_CUSTOMERS (ID BIGINT NOT NULL PRIMARY KEY, NAME VARCHAR)")
+    conn.createStatement.execute("UPSERT INTO JOIN_CUSTOMERS VALUES (1, 'alice')")
+    conn.createStatement.execute("UPSERT INTO JOIN_CUSTOMERS VALUES (2, 'bob')")
+    conn.createStatement.execute("UPSERT INTO JOIN_ORDERS VALUES (10, 1, 5)")
+    conn.createStatement.execute("UPSERT INTO JOIN_ORDERS VALUES (11, 1, 50)")
+    conn.createStatement.execute("UPSERT INTO JOIN_ORDERS VALUES (12, 2, 20)")
+    conn.createStatement.execute("UPSERT INTO JOIN_ORDERS VALUES (13, 3, 30)")
+    // The customers are the side Phoenix hashes, their size is estimated from the statistics
+    conn.createStatement.execute("UPDATE STATISTICS JOIN_CUSTOMERS")
+
+    def joined(extraOptions: Map[String, String]): DataFrame = {
+      def readTable(table: String) = spark.read.format("phoenix")
+        .options(Map("table" -> table, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress) ++ extraOptions)
+        .load
+      val orders = readTable("JOIN_ORDERS")
+      val customers = readTable("JOIN_CUSTOMERS")
+      orders.filter(orders("AMOUNT") > 10)
+        .join(customers, orders("CUSTOMER_ID") === customers("ID"))
+        .select(customers("NAME"), orders("AMOUNT"))
+    }
+    def scanCount(df: DataFrame): Int = df.queryExecution.executedPlan.collect { case s: BatchScanExec => s }.size
+
+    // Both tables are read by the single scan of the Phoenix join
+    val pushedDown = joined(Map(PhoenixDataSource.PUSH_DOWN_JOINS -> "true"))
+    scanCount(pushedDown) shouldEqual 1
+    pushedDown.queryExecution.executedPlan.find(_.nodeName.contains("Join")) shouldEqual None
+    pushedDown.collect().map(row => (row.getString(0), row.getInt(1))).sorted shouldEqual
+      Array(("alice", 50), ("bob", 20))
+
+    // Joins stay in Spark unless enabled, or when the hashed side may not fit the server cache
+    scanCount(joined(Map())) shouldEqual 2
+    val tooLarge = joined(Map(PhoenixDataSource.PUSH_DOWN_JOINS -> "true", PhoenixDataSource.JOIN_MAX_BUILD_BYTES -> "1"))
+    scanCount(tooLarge) shouldEqual 2
+    tooLarge.collect().map(row => (row.getString(0), row.getInt(1))).sorted shouldEqual
+      Array(("alice", 50), ("bob", 20))
+  }
+
+  test("Can evaluate Phoenix functions in the Phoenix query of the scan") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE FUNCTION_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    conn.createStatement.execute("UPSERT INTO FUNCTION_TABLE VALUES (1, 'abcdef')")
+    conn.createStatement.execute("UPSERT INTO FUNCTION_TABLE VALUES (2, 'abxyz')")
+    conn.createStatement.execute("UPSERT INTO FUNCTION_TABLE VALUES (3, 'zzz')")
+
+    val df = read("FUNCTION_TABLE")
+      .filter("phoenix_substr(COL1, 1, 3) = 'abc'")
+      .selectExpr("ID", "phoenix_upper(COL1) AS UPPER_COL1")
+
+    // The filter and the projection are both part of the single Phoenix query read
+    val queries = phoenixQueries(df)
+    queries.size shouldEqual 1
+    queries.head should include ("SUBSTR(")
+    queries.head should include ("UPPER(")
+    df.queryExecution.optimizedPlan.find(_.isInstanceOf[Filter]) shouldEqual None
+    df.collect().map(row => (row.getLong(0), row.getString(1))) shouldEqual Array((1L, "ABCDEF"))
+  }
+
+  test("Can evaluate phoenix_to_char in Spark like Phoenix does") {
+    val previousTimeZone = spark.conf.get("spark.sql.session.timeZone")
+    spark.conf.set("spark.sql.session.timeZone", "America/Los_Angeles")
+    try {
+      // Dates are formatted in GMT whatever the session time zone, numbers with a number format
+      spark.sql("SELECT phoenix_to_char(CAST(0 AS TIMESTAMP)), phoenix_to_char(CAST(1234.5 AS DOUBLE)), " +
+        "phoenix_to_char(12, '000')").collect().map(row => (row.getString(0), row.getString(1), row.getString(2))) shouldEqual
+        Array(("1970-01-01 00:00:00.000", "1,234.5", "012"))
+      intercept[AnalysisException] {
+        spark.sql("SELECT phoenix_to_char('abc')").collect()
+      }
+    } finally {
+      spark.conf.set("spark.sql.session.timeZone", previousTimeZone)
+    }
+  }
+
+  private def sorts(plan: SparkPlan): Int = plan.collect { case sort: SortExec => sort }.size
+
+  test("Can skip sorts on the primary key of reads reporting their ordering") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE ORDERED_TABLE (K1 VARCHAR NOT NULL, K2 INTEGER NOT NULL, " +
+      "V INTEGER CONSTRAINT PK PRIMARY KEY (K1, K2))")
+    // Nulls of a descending key column are not sorted like their Spark values
+    conn.createStatement.execute("CREATE TABLE DESC_NULLABLE_TABLE (K1 VARCHAR NOT NULL, K2 INTEGER, " +
+      "V INTEGER CONSTRAINT PK PRIMARY KEY (K1, K2 DESC))")
+    conn.createStatement.execute("CREATE TABLE ORDERED_SALTED_TABLE (K1 VARCHAR NOT NULL, K2 INTEGER NOT NULL, " +
+      "V INTEGER CONSTRAINT PK PRIMARY KEY (K1, K2)) SALT_BUCKETS = 4")
+
+    // Merge the regions of the first two salt buckets, so a partition spans both buckets
+    val services = conn.unwrap(classOf[PhoenixConnection]).getQueryServices
+    val saltedTable = TableName.valueOf("ORDERED_SALTED_TABLE")
+    val admin = services.getAdmin
+    try {
+      val regions = admin.getRegions(saltedTable).asScala.sortWith((a, b) => Bytes.compareTo(a.getStartKey,
+        b.getStartKey) < 0)
+      admin.mergeRegionsAsync(regions.head.getEncodedNameAsBytes, regions(1).getEncodedNameAsBytes, false).get()
+      while (admin.getRegions(saltedTable).size() != regions.size - 1) {
+        Thread.sleep(100)
+      }
+    } finally {
+      admin.close()
+    }
+    services.clearTableRegionCache(saltedTable)
+
+    for (table <- Seq("ORDERED_TABLE", "DESC_NULLABLE_TABLE", "ORDERED_SALTED_TABLE")) {
+      for ((k1, k2, v) <- Seq(("a", 1, 10), ("a", 2, 20), ("b", 1, 30), ("c", 1, 40), ("d", 1, 50))) {
+        conn.createStatement.execute(s"UPSERT INTO $table VALUES ('$k1', $k2, $v)")
+      }
+    }
+
+    def windowOver(table: String): DataFrame = spark.read.format("phoenix")
+      .options(Map("table" -> table, PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.REPORT_ORDERING -> "true"))
+      .load
+      .withColumn("TOTAL", sum("V").over(Window.partitionBy("K1", "K2")))
+
+    // Partitions of an unsalted table are sorted on the key, and never split a key
+    val ordered = windowOver("ORDERED_TABLE")
+    val orderedPlan = ordered.queryExecution.executedPlan
+    orderedPlan.collect { case scan: PhoenixBatchScanExec => scan }.size shouldEqual 1
+    orderedPlan.collect { case exchange: ShuffleExchangeExec => exchange }.size shouldEqual 0
+    sorts(orderedPlan) shouldEqual 0
+    ordered.select("K1", "K2", "TOTAL").collect().map(row => (row.getString(0), row.getInt(1), row.getLong(2)))
+      .sorted shouldEqual Array(("a", 1, 10L), ("a", 2, 20L), ("b", 1, 30L), ("c", 1, 40L), ("d", 1, 50L))
+    val sortedWithinPartitions = spark.read.format("phoenix")
+      .options(Map("table" -> "ORDERED_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+        PhoenixDataSource.REPORT_ORDERING -> "true"))
+      .load
+      .sortWithinPartitions("K1")
+    sorts(sortedWithinPartitions.queryExecution.executedPlan) shouldEqual 0
+
+    // Only the leading key column of the nullable descending key is reported
+    val descNullable = windowOver("DESC_NULLABLE_TABLE")
+    sorts(descNullable.queryExecution.executedPlan) shouldEqual 1
+    descNullable.collect().length shouldEqual 5
+
+    // A partition spanning two salt buckets is not sorted on the key
+    val salted = windowOver("ORDERED_SALTED_TABLE")
+    sorts(salted.queryExecution.executedPlan) shouldEqual 1
+    salted.select("K1", "K2", "TOTAL").collect().map(row => (row.getString(0), row.getInt(1), row.getLong(2)))
+      .sorted shouldEqual Array(("a", 1, 10L), ("a", 2, 20L), ("b", 1, 30L), ("c", 1, 40L), ("d", 1, 50L))
+  }
+
+  // Query executions of the writes run by write, reported asynchronously by the listener bus
+  private def writeExecutions(write: => Unit): Seq[QueryExecution] = {
+    val executions = new ConcurrentLinkedQueue[QueryExecution]()
+    val listener = new QueryExecutionListener {
+      override def onSuccess(funcName: String, qe: QueryExecution, durationNs: Long): Unit = executions.add(qe)
+
+      override def onFailure(funcName: String, qe: QueryExecution, exception: Exception): Unit = {}
+    }
+    spark.listenerManager.register(listener)
+    try {
+      write
+      eventually(timeout(10.seconds)) {
+        executions.isEmpty shouldEqual false
+      }
+    } finally {
+      spark.listenerManager.unregister(listener)
+    }
+    executions.asScala.toSeq
+  }
+
+  test("Can cluster the rows written by the region of the table they go to") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE DISTRIBUTED_TABLE (ID VARCHAR NOT NULL PRIMARY KEY, V INTEGER) " +
+      "SPLIT ON ('c', 'f')")
+
+    def append(id: String, options: Map[String, String]): Seq[QueryExecution] = writeExecutions {
+      spark.createDataFrame(Seq((id + "1", 1), (id + "2", 2))).toDF("ID", "V").write
+        .format("phoenix")
+        .options(Map("table" -> "DISTRIBUTED_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress) ++ options)
+        .mode(SaveMode.Append)
+        .save()
+    }
+
+    def regionShuffles(executions: Seq[QueryExecution]): Seq[RepartitionByExpression] =
+      executions.flatMap(_.optimizedPlan.collect {
+        case repartition @ RepartitionByExpression(Seq(SortOrder(_: PhoenixRegionIndex, _, _, _)), _, _) =>
+          repartition
+      })
+
+    // Distributed by default, with a single shuffle however often the optimizer runs the rule
+    val distributed = regionShuffles(append("a", Map.empty))
+    distributed.size shouldEqual 1
+    distributed.head.numPartitions shouldEqual 3
+    // Range partitioned on the region index, so each region goes to a single task of its own
+    distributed.head.partitioning shouldBe a[RangePartitioning]
+    regionShuffles(append("d", Map(PhoenixDataSource.SORT_WRITES -> "true"))).size shouldEqual 1
+    regionShuffles(append("g", Map(PhoenixDataSource.DISTRIBUTE_WRITES -> "false"))) shouldEqual Nil
+
+    val rs = conn.createStatement.executeQuery("SELECT ID, V FROM DISTRIBUTED_TABLE")
+    val rows = Iterator.continually(rs).takeWhile(_.next()).map(r => (r.getString(1), r.getInt(2))).toList
+    rows shouldEqual List(("a1", 1), ("a2", 2), ("d1", 1), ("d2", 2), ("g1", 1), ("g2", 2))
+  }
+
+  test("Can run an append reading Phoenix tables as an UPSERT SELECT in Phoenix") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE UPSERT_SELECT_TABLE (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR, " +
+      "COL2 VARCHAR)")
+    for (id <- 1 to 5) {
+      conn.createStatement.execute(s"UPSERT INTO UPSERT_SELECT_TABLE VALUES ($id, 'old', 'v$id')")
+    }
+
+    // Copying a column within a table runs on the RegionServers
+    val executions = writeExecutions {
+      read("UPSERT_SELECT_TABLE").filter("ID > 2").select(col("ID"), col("COL2").as("COL1"), col("COL2")).write
+        .format("phoenix")
+        .options(Map("table" -> "UPSERT_SELECT_TABLE", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+          PhoenixDataSource.UPSERT_SELECT -> "true"))
+        .mode(SaveMode.Append)
+        .save()
+    }
+
+    // The rows are upserted by Phoenix, without a scan by the executors
+    val upsertSelects = executions.flatMap(_.executedPlan.collect { case exec: PhoenixUpsertSelectExec => exec })
+    upsertSelects.size shouldEqual 1
+    upsertSelects.head.sql should include ("UPSERT INTO UPSERT_SELECT_TABLE")
+    upsertSelects.head.metrics("numOutputRows").value shouldEqual 3L
+    executions.flatMap(_.executedPlan.collect { case scan: BatchScanExec => scan }) shouldEqual Nil
+
+    val rs = conn.createStatement.executeQuery("SELECT ID, COL1 FROM UPSERT_SELECT_TABLE")
+    val rows = Iterator.continually(rs).takeWhile(_.next()).map(r => (r.getLong(1), r.getString(2))).toList
+    rows shouldEqual List((1L, "old"), (2L, "old"), (3L, "v3"), (4L, "v4"), (5L, "v5"))
+  }
+
+  test("Leaves to the executors the appends Phoenix would run from the driver") {
+    val conn = DriverManager.getConnection(PhoenixSparkITHelper.getUrl)
+    conn.setAutoCommit(true)
+    conn.createStatement.execute("CREATE TABLE UPSERT_SELECT_LEFT (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR)")
+    conn.createStatement.execute("CREATE TABLE UPSERT_SELECT_RIGHT (ID BIGINT NOT NULL PRIMARY KEY, COL2 VARCHAR)")
+    conn.createStatement.execute("CREATE TABLE UPSERT_SELECT_JOINED (ID BIGINT NOT NULL PRIMARY KEY, COL1 VARCHAR, " +
+      "COL2 VARCHAR)")
+    for (id <- 1 to 3) {
+      conn.createStatement.execute(s"UPSERT INTO UPSERT_SELECT_LEFT VALUES ($id, 'l$id')")
+      conn.createStatement.execute(s"UPSERT INTO UPSERT_SELECT_RIGHT VALUES ($id, 'r$id')")
+    }
+
+    // Phoenix runs the UPSERT SELECT of a join on the client, scanning the tables from the driver
+    val left = read("UPSERT_SELECT_LEFT")
+    val right = read("UPSERT_SELECT_RIGHT")
+    val executions = writeExecutions {
+      left.join(right, left("ID") === right("ID")).select(left("ID"), left("COL1"), right("COL2")).write
+        .format("phoenix")
+        .options(Map("table" -> "UPSERT_SELECT_JOINED", PhoenixDataSource.ZOOKEEPER_URL -> quorumAddress,
+          PhoenixDataSource.UPSERT_SELECT -> "true"))
+        .mode(SaveMode.Append)
+        .save()
+    }
+
+    executions.flatMap(_.executedPlan.collect { case exec: PhoenixUpsertSelectExec => exec }) shouldEqual Nil
+    executions.flatMap(_.executedPlan.collect { case scan: BatchScanExec => scan }) should not be empty
+
+    val rs = conn.createStatement.executeQuery("SELECT ID, COL1, COL2 FROM UPSERT_SELECT_JOINED")
+    val rows = Iterator.continually(rs).takeWhile(_.next())
+      .map(r => (r.getLong(1), r.getString(2), r.getString(3))).toList
+    rows shouldEqual List((1L, "l1", "r1"), (2L, "l2", "r2"), (3L, "l3", "r3"))
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector;
+
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.FirstKeyOnlyFilter;
+import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.filter.SkipScanFilter;
+import org.apache.phoenix.iterate.MapReduceParallelScanGrouper;
+import org.apache.phoenix.jdbc.PhoenixStatement;
+import org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil;
+import org.apache.phoenix.query.KeyRange;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.apache.phoenix.util.PhoenixRuntime;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.extractPhoenixHBaseConfFromOptions;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Row count of a Phoenix table answered from the guidepost statistics in SYSTEM.STATS when
+ * possible, without scanning the table. The estimate is only used when the WHERE clause is
+ * entirely turned into primary key ranges and the statistics are recent enough, otherwise an
+ * exact COUNT(*) is run server-side.
+ */
+public class PhoenixApproximateCount {
+
+    public static final long DEFAULT_MAX_STATS_AGE_MS = 24 * 60 * 60 * 1000L;
+
+    private final long count;
+    private final long errorBound;
+    private final boolean exact;
+    private final Long statsTimestamp;
+
+    PhoenixApproximateCount(long count, long errorBound, boolean exact, Long statsTimestamp) {
+        this.count = count;
+        this.errorBound = errorBound;
+        this.exact = exact;
+        this.statsTimestamp = statsTimestamp;
+    }
+
+    /**
+     * @return estimated or exact number of rows
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return maximum number of rows the estimate can be off by as of the statistics collection,
+     * because of guideposts only partly covered by the key ranges. 0 for exact counts.
+     */
+    public long getErrorBound() {
+        return errorBound;
+    }
+
+    /**
+     * @return whether the count comes from a server-side COUNT(*) rather than from statistics
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return time the statistics used for the estimate were collected, null for exact counts
+     */
+    public Long getStatsTimestamp() {
+        return statsTimestamp;
+    }
+
+    @Override
+    public String toString() {
+        return exact ? "exact count " + count
+                : "estimated count " + count + " +/- " + errorBound + " from statistics collected at " + statsTimestamp;
+    }
+
+    /**
+     * Counts the rows of the table given by the read options.
+     * @param options read options, as given to the phoenix data source
+     * @param whereClause optional condition, only conditions on leading primary key columns can
+     *                    be answered from statistics
+     * @return the count
+     */
+    public static PhoenixApproximateCount count(Map<String, String> options, String whereClause) {
+        String tableName = options.get("table");
+        String zkUrl = options.get(PhoenixDataSource.ZOOKEEPER_URL);
+        Properties props = extractPhoenixHBaseConfFromOptions(options);
+        String scn = options.get(PhoenixConfigurationUtil.CURRENT_SCN_VALUE);
+        String tenantId = options.get(PhoenixRuntime.TENANT_ID_ATTRIB) != null
+                ? options.get(PhoenixRuntime.TENANT_ID_ATTRIB)
+                : options.get(PhoenixConfigurationUtil.MAPREDUCE_TENANT_ID);
+        if (scn != null) {
+            props.put(PhoenixRuntime.CURRENT_SCN_ATTRIB, scn);
+        }
+        if (tenantId != null) {
+            props.put(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
+        }
+        long maxStatsAge = options.containsKey(PhoenixDataSource.APPROXIMATE_COUNT_MAX_STATS_AGE_MS)
+                ? Long.parseLong(options.get(PhoenixDataSource.APPROXIMATE_COUNT_MAX_STATS_AGE_MS))
+                : DEFAULT_MAX_STATS_AGE_MS;
+        boolean hasCondition = whereClause != null && !whereClause.trim().isEmpty();
+        String countQuery = "SELECT COUNT(*) FROM " + tableName + (hasCondition ? " WHERE " + whereClause : "");
+
+        try (Connection conn = DriverManager.getConnection(
+                JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, props);
+             Statement statement = conn.createStatement()) {
+            QueryPlan queryPlan = statement.unwrap(PhoenixStatement.class).optimizeQuery(countQuery);
+            // Sets up the parallel scans and the estimates without running them
+            queryPlan.iterator(MapReduceParallelScanGrouper.getInstance());
+            Long estimatedRows = queryPlan.getEstimatedRowsToScan();
+            Long statsTimestamp = queryPlan.getEstimateInfoTimestamp();
+            if (estimatedRows != null && statsTimestamp != null
+                    && EnvironmentEdgeManager.currentTimeMillis() - statsTimestamp <= maxStatsAge
+                    && isKeyRangeOnly(queryPlan.getContext().getScan().getFilter())) {
+                long errorBound = 0;
+                if (hasCondition) {
+                    // Only the guideposts at the edges of each key range can be partly covered
+                    int scanCount = 0;
+                    for (List<org.apache.hadoop.hbase.client.Scan> scans : queryPlan.getScans()) {
+                        scanCount += scans.size();
+                    }
+                    long rowsPerScan = estimatedRows / Math.max(1, scanCount);
+                    long edges = 2L * Math.max(1, Math.min(scanCount, getKeyRangeCount(queryPlan)));
+                    errorBound = Math.min(estimatedRows, edges * rowsPerScan);
+                }
+                return new PhoenixApproximateCount(estimatedRows, errorBound, false, statsTimestamp);
+            }
+            try (ResultSet rs = statement.executeQuery(countQuery)) {
+                rs.next();
+                return new PhoenixApproximateCount(rs.getLong(1), 0, true, null);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static long getKeyRangeCount(QueryPlan queryPlan) {
+        long count = 1;
+        for (List<KeyRange> slot : queryPlan.getContext().getScanRanges().getRanges()) {
+            count *= Math.max(1, slot.size());
+            if (count > Integer.MAX_VALUE) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return whether the filter only restricts rows by key, so guidepost counts apply
+     */
+    private static boolean isKeyRangeOnly(Filter filter) {
+        if (filter == null || filter instanceof SkipScanFilter || filter instanceof FirstKeyOnlyFilter) {
+            return true;
+        }
+        if (filter instanceof FilterList) {
+            for (Filter child : ((FilterList) filter).getFilters()) {
+                if (!isKeyRangeOnly(child)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
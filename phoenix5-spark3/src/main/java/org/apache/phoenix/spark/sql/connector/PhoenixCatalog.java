@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector;
+
+import org.apache.phoenix.schema.TableNotFoundException;
+import org.apache.spark.sql.catalyst.analysis.NoSuchTableException;
+import org.apache.spark.sql.connector.catalog.Identifier;
+import org.apache.spark.sql.connector.catalog.Table;
+import org.apache.spark.sql.connector.catalog.TableCatalog;
+import org.apache.spark.sql.connector.catalog.TableChange;
+import org.apache.spark.sql.connector.expressions.Transform;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.extractPhoenixHBaseConfFromOptions;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Catalog of the Phoenix tables of a cluster, so they can be named in Spark SQL statements such as
+ * DELETE FROM and in DataFrameWriterV2 writes such as writeTo(...).overwrite(condition), which need
+ * a catalog. Registered with spark.sql.catalog.&lt;name&gt; set to this class and
+ * spark.sql.catalog.&lt;name&gt;.zkUrl, the other spark.sql.catalog.&lt;name&gt;.* settings being the
+ * options of every table read or written. The namespace of a table is its Phoenix schema. Tables
+ * are created, altered and dropped with Phoenix DDL.
+ */
+public class PhoenixCatalog implements TableCatalog {
+
+    private String name;
+    private Map<String, String> options;
+
+    @Override
+    public void initialize(String name, CaseInsensitiveStringMap options) {
+        if (options.get(PhoenixDataSource.ZOOKEEPER_URL) == null) {
+            throw new IllegalArgumentException("No Phoenix option " + PhoenixDataSource.ZOOKEEPER_URL
+                    + " defined for catalog " + name);
+        }
+        this.name = name;
+        this.options = options.asCaseSensitiveMap();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public Identifier[] listTables(String[] namespace) {
+        List<Identifier> tables = new ArrayList<>();
+        String schemaName = namespace.length == 0 ? "" : String.join(".", namespace);
+        try (Connection conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR
+                + options.get(PhoenixDataSource.ZOOKEEPER_URL), extractPhoenixHBaseConfFromOptions(options));
+             ResultSet rs = conn.getMetaData().getTables(null, schemaName, null, new String[] { "TABLE", "VIEW" })) {
+            while (rs.next()) {
+                tables.add(Identifier.of(namespace, rs.getString("TABLE_NAME")));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return tables.toArray(new Identifier[0]);
+    }
+
+    @Override
+    public Table loadTable(Identifier ident) throws NoSuchTableException {
+        Map<String, String> tableOptions = new HashMap<>(options);
+        List<String> parts = new ArrayList<>();
+        for (String namespace : ident.namespace()) {
+            parts.add(namespace);
+        }
+        parts.add(ident.name());
+        tableOptions.put("table", String.join(".", parts));
+        try {
+            StructType schema = new PhoenixDataSource().inferSchema(new CaseInsensitiveStringMap(tableOptions));
+            return new PhoenixTable(schema, tableOptions);
+        } catch (RuntimeException e) {
+            if (e.getCause() instanceof TableNotFoundException) {
+                throw new NoSuchTableException(ident);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Table createTable(Identifier ident, StructType schema, Transform[] partitions,
+                             Map<String, String> properties) {
+        throw new UnsupportedOperationException("Phoenix tables are created with Phoenix DDL");
+    }
+
+    @Override
+    public Table alterTable(Identifier ident, TableChange... changes) {
+        throw new UnsupportedOperationException("Phoenix tables are altered with Phoenix DDL");
+    }
+
+    @Override
+    public boolean dropTable(Identifier ident) {
+        throw new UnsupportedOperationException("Phoenix tables are dropped with Phoenix DDL");
+    }
+
+    @Override
+    public void renameTable(Identifier oldIdent, Identifier newIdent) {
+        throw new UnsupportedOperationException("Phoenix tables cannot be renamed");
+    }
+}
@@ -17,6 +17,10 @@
  */
 package org.apache.phoenix.spark.sql.connector;
 
+import org.apache.phoenix.compile.ColumnProjector;
+import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.expression.Expression;
+import org.apache.phoenix.jdbc.PhoenixStatement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.phoenix.spark.SparkSchemaUtil;
@@ -26,6 +30,7 @@ import org.apache.spark.sql.connector.catalog.Table;
 import org.apache.spark.sql.connector.catalog.TableProvider;
 import org.apache.spark.sql.connector.expressions.Transform;
 import org.apache.spark.sql.sources.DataSourceRegister;
+import org.apache.spark.sql.types.DataTypes;
 import org.apache.spark.sql.types.StructType;
 import org.apache.spark.sql.util.CaseInsensitiveStringMap;
 import scala.collection.JavaConverters;
@@ -34,6 +39,9 @@ import scala.collection.Seq;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -50,13 +58,154 @@ public class PhoenixDataSource implements TableProvider, DataSourceRegister {
     public static final String SKIP_NORMALIZING_IDENTIFIER = "skipNormalizingIdentifier";
     public static final String ZOOKEEPER_URL = "zkUrl";
     public static final String PHOENIX_CONFIGS = "phoenixconfigs";
+    /**
+     * Phoenix SELECT statement to read instead of a whole table
+     */
+    public static final String QUERY = "query";
+    /**
+     * Comma-separated list of tenant ids to read in a single scan, or {@link #ALL_TENANTS}
+     * to read every tenant of the multi-tenant table or view named by the "table" option
+     */
+    public static final String TENANT_IDS = "tenantIds";
+    public static final String ALL_TENANTS = "*";
+    /**
+     * Name of the column holding the tenant id of each row when reading with {@link #TENANT_IDS}
+     */
+    public static final String TENANT_ID_COLUMN = "tenantIdColumn";
+    public static final String DEFAULT_TENANT_ID_COLUMN = "TENANT_ID";
+    /**
+     * Number of tenants whose partitions are planned concurrently when reading with {@link #TENANT_IDS}
+     */
+    public static final String TENANT_PLANNING_THREADS = "tenantPlanningThreads";
+    public static final int DEFAULT_TENANT_PLANNING_THREADS = 8;
+    /**
+     * Whether PhoenixSparkSessionExtensions may run joins of this read with other Phoenix reads
+     * in Phoenix, see PhoenixJoinPushDown
+     */
+    public static final String PUSH_DOWN_JOINS = "pushDownJoins";
+    /**
+     * Largest estimated size of the side of a join Phoenix hashes for the join to run in Phoenix,
+     * phoenix.query.maxServerCacheBytes by default
+     */
+    public static final String JOIN_MAX_BUILD_BYTES = "joinMaxBuildBytes";
+    /**
+     * Whether scanner caching and max result size of each scan are derived from the estimated width
+     * of the projected rows, so that every scanner RPC returns about {@link #SCAN_TARGET_RPC_BYTES}.
+     * False by default.
+     */
+    public static final String SCAN_AUTO_TUNE = "scanAutoTune";
+    public static final String SCAN_TARGET_RPC_BYTES = "scanTargetRpcBytes";
+    public static final long DEFAULT_SCAN_TARGET_RPC_BYTES = 2 * 1024 * 1024;
+    /**
+     * Explicit scanner caching and max result size, these take precedence over {@link #SCAN_AUTO_TUNE}
+     */
+    public static final String SCAN_CACHING = "scanCaching";
+    public static final String SCAN_MAX_RESULT_SIZE = "scanMaxResultSize";
+    /**
+     * Whether planned partitions are cached on the driver and reused by later reads with the same
+     * options, columns and filters as long as the table and its region boundaries are unchanged
+     */
+    public static final String PLANNING_CACHE = "planningCache";
+    /**
+     * Whether reads that project no columns, such as df.count(), are answered by
+     * {@link PhoenixApproximateCount} instead of scanning the table
+     */
+    public static final String APPROXIMATE_COUNT = "approximateCount";
+    public static final String APPROXIMATE_COUNT_MAX_STATS_AGE_MS = "approximateCountMaxStatsAgeMs";
+    /**
+     * Bytes a partition reader may hold for the rows it reads. Caps the size of scanner RPCs,
+     * reads the scans of a partition one at a time and fails on rows larger than the limit.
+     */
+    public static final String PARTITION_MEMORY_LIMIT_BYTES = "partitionMemoryLimitBytes";
+    /**
+     * Number of times a partition reader reopens its scanners after the last row it returned
+     * when they fail, instead of failing the task
+     */
+    public static final String SCAN_RETRIES = "scanRetries";
+    /**
+     * Maximum number of partitions of a read scanning the same RegionServer at once
+     */
+    public static final String MAX_CONCURRENT_PARTITIONS_PER_SERVER = "maxConcurrentPartitionsPerServer";
+    /**
+     * Whether to log how the partitions of a read were planned, see PhoenixPlanningReport
+     */
+    public static final String PLANNING_REPORT = "planningReport";
+    /**
+     * Driver-local file the planning reports are appended to as JSON lines
+     */
+    public static final String PLANNING_REPORT_PATH = "planningReportPath";
+    /**
+     * Whether to tell Spark the primary key order of the rows within each partition, so sorts
+     * on the key can be skipped. Needs PhoenixSparkSessionExtensions.
+     */
+    public static final String REPORT_ORDERING = "reportOrdering";
+    /**
+     * How rows are written: "upsert" (default) executes an UPSERT per row, "direct" encodes the
+     * rows into HBase mutations with the table metadata, for the tables it supports, "bulkload"
+     * writes HFiles of the table and its indexes loaded when the write commits
+     */
+    public static final String WRITE_MODE = "writeMode";
+    public static final String WRITE_MODE_UPSERT = "upsert";
+    public static final String WRITE_MODE_DIRECT = "direct";
+    public static final String WRITE_MODE_BULKLOAD = "bulkload";
+    /**
+     * Whether UPSERT writers commit each batch in the background while upserting the next one
+     * with a second connection
+     */
+    public static final String ASYNC_COMMIT = "asyncCommit";
+    /**
+     * Whether writes cluster the rows by the region they go to before writing them, true by
+     * default when PhoenixSparkSessionExtensions is enabled
+     */
+    public static final String DISTRIBUTE_WRITES = "distributeWrites";
+    /**
+     * Whether distributed writes also sort the rows of each task by row key
+     */
+    public static final String SORT_WRITES = "sortWrites";
+    /**
+     * Whether writers slow down when the RegionServers push back or their latency rises
+     */
+    public static final String THROTTLE_WRITES = "throttleWrites";
+    /**
+     * Maximum delay in milliseconds throttled writers wait before a batch, 10000 by default
+     */
+    public static final String MAX_THROTTLE_DELAY_MS = "maxThrottleDelayMs";
+    /**
+     * Directory the HFiles of bulk loads are written to, hbase.fs.tmp.dir by default
+     */
+    public static final String BULK_LOAD_DIR = "bulkLoadDir";
+    /**
+     * Size in megabytes of the cells a bulk load task sorts in memory before writing HFiles, 256 by default
+     */
+    public static final String BULK_LOAD_BUFFER_MB = "bulkLoadBufferMb";
+    /**
+     * Whether appends reading only Phoenix tables of the same cluster run as an UPSERT SELECT in
+     * Phoenix, when PhoenixSparkSessionExtensions is enabled and Phoenix runs it on the RegionServers
+     */
+    public static final String UPSERT_SELECT = "upsertSelect";
+    /**
+     * Whether the WAL of the table is disabled while the write runs, its memstores are flushed
+     * when the write commits
+     */
+    public static final String DISABLE_WAL = "disableWal";
+    /**
+     * Estimated size in bytes of the mutations of a batch that makes writers commit it. The row
+     * count of phoenix.upsert.batch.size then only applies when set explicitly.
+     */
+    public static final String BATCH_SIZE_BYTES = "batchSizeBytes";
+    /**
+     * Whether writes overwriting every row, such as SaveMode.Overwrite, delete all the rows of the
+     * table before writing, false by default, in which case they are rejected. Use SaveMode.Append
+     * to upsert the rows into the existing ones.
+     */
+    public static final String TRUNCATE = "truncate";
     protected StructType schema;
     private CaseInsensitiveStringMap options;
 
     @Override
     public StructType inferSchema(CaseInsensitiveStringMap options){
-        if (options.get("table") == null) {
-            throw new RuntimeException("No Phoenix option " + "Table" + " defined");
+        if (options.get("table") == null && options.get(QUERY) == null) {
+            throw new RuntimeException("No Phoenix option " + "Table" + " or " + QUERY + " defined");
         }
         if (options.get(ZOOKEEPER_URL) == null) {
             throw new RuntimeException("No Phoenix option " + ZOOKEEPER_URL + " defined");
@@ -64,10 +213,24 @@ public class PhoenixDataSource implements TableProvider, DataSourceRegister {
 
         this.options = options;
         String tableName = options.get("table");
+        String query = options.get(QUERY);
         String zkUrl = options.get(ZOOKEEPER_URL);
         String tenant = options.get(PhoenixRuntime.TENANT_ID_ATTRIB);
+        String tenantIds = options.get(TENANT_IDS);
+        if (query != null && (tableName != null || tenantIds != null)) {
+            throw new RuntimeException("Phoenix option " + QUERY + " cannot be used together with Table or "
+                    + TENANT_IDS);
+        }
         boolean dateAsTimestamp = Boolean.parseBoolean(options.getOrDefault("dateAsTimestamp", Boolean.toString(false)));
         Properties overriddenProps = extractPhoenixHBaseConfFromOptions(options);
+        if (tenant != null && tenantIds != null) {
+            throw new RuntimeException("Phoenix options " + PhoenixRuntime.TENANT_ID_ATTRIB + " and "
+                    + TENANT_IDS + " cannot be used together");
+        }
+        if (tenantIds != null) {
+            // All tenants share the columns of the first one, the tenant id becomes an extra column
+            tenant = TenantUtil.getSchemaTenantId(zkUrl, tableName, tenantIds, overriddenProps);
+        }
         if (tenant != null) {
             overriddenProps.put(PhoenixRuntime.TENANT_ID_ATTRIB, tenant);
         }
@@ -77,9 +240,21 @@ public class PhoenixDataSource implements TableProvider, DataSourceRegister {
          */
         try (Connection conn = DriverManager.getConnection(
                 JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, overriddenProps)) {
-            List<ColumnInfo> columnInfos = PhoenixRuntime.generateColumnInfo(conn, tableName, null);
+            List<ColumnInfo> columnInfos = query != null ? getQueryColumnInfos(conn, query)
+                    : PhoenixRuntime.generateColumnInfo(conn, tableName, null);
             Seq<ColumnInfo> columnInfoSeq = JavaConverters.asScalaIteratorConverter(columnInfos.iterator()).asScala().toSeq();
             schema = SparkSchemaUtil.phoenixSchemaToCatalystSchema(columnInfoSeq, dateAsTimestamp);
+            if (tenantIds != null) {
+                // The tenant id is filled in from the partition rather than read, and always comes last
+                String tenantIdColumn = options.getOrDefault(TENANT_ID_COLUMN, DEFAULT_TENANT_ID_COLUMN);
+                // Tenant connections hide the tenant column, so a visible one is a different column
+                if (Arrays.asList(schema.fieldNames()).contains(tenantIdColumn)) {
+                    throw new IllegalArgumentException("Column " + tenantIdColumn + " of " + tableName
+                            + " clashes with the tenant id column, choose another name with the "
+                            + TENANT_ID_COLUMN + " option");
+                }
+                schema = schema.add(tenantIdColumn, DataTypes.StringType, false);
+            }
         }
         catch (SQLException e) {
             throw new RuntimeException(e);
@@ -93,6 +268,30 @@ public class PhoenixDataSource implements TableProvider, DataSourceRegister {
         return new PhoenixTable(schema, properties);
     }
 
+    /**
+     * Derives the columns returned by a Phoenix query from the row projector of its compiled plan
+     * @param conn Phoenix connection
+     * @param query SELECT statement
+     * @return one column per projected expression, named after the expression or its alias
+     */
+    public static List<ColumnInfo> getQueryColumnInfos(Connection conn, String query) throws SQLException {
+        QueryPlan queryPlan;
+        try (Statement statement = conn.createStatement()) {
+            queryPlan = statement.unwrap(PhoenixStatement.class).optimizeQuery(query);
+        }
+        List<ColumnInfo> columnInfos = new ArrayList<>();
+        for (ColumnProjector projector : queryPlan.getProjector().getColumnProjectors()) {
+            Expression expression = projector.getExpression();
+            if (expression.getDataType() == null) {
+                throw new RuntimeException("Cannot derive the type of column " + projector.getName()
+                        + " of query " + query);
+            }
+            columnInfos.add(new ColumnInfo(projector.getName(), expression.getDataType().getSqlType(),
+                    expression.getMaxLength(), expression.getScale()));
+        }
+        return columnInfos;
+    }
+
     /**
      * Extract HBase and Phoenix properties that need to be set in both the driver and workers.
      * We expect these properties to be passed against the key
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector;
+
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.plugin.DriverPlugin;
+import org.apache.spark.api.plugin.ExecutorPlugin;
+import org.apache.spark.api.plugin.PluginContext;
+import org.apache.spark.api.plugin.SparkPlugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.extractPhoenixHBaseConfFromOptions;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Spark plugin warming up Phoenix on every executor as it starts, so the first tasks do not
+ * pay for the HBase connection, ZooKeeper session and SYSTEM.CATALOG lookups. Enable with
+ * spark.plugins=org.apache.phoenix.spark.sql.connector.PhoenixSparkPlugin and configure with:
+ * <ul>
+ *     <li>{@link #ZOOKEEPER_URL_CONF}: cluster to connect to, nothing is warmed up without it</li>
+ *     <li>{@link #TABLES_CONF}: comma-separated tables whose metadata and region locations
+ *     are loaded</li>
+ *     <li>{@link #PHOENIX_CONFIGS_CONF}: Phoenix and HBase properties, in the format of the
+ *     phoenixconfigs read option</li>
+ * </ul>
+ * The connection stays open until the executor shuts down, which keeps the Phoenix query
+ * services, and with them the metadata and region location caches, alive for the tasks.
+ */
+public class PhoenixSparkPlugin implements SparkPlugin {
+
+    public static final String ZOOKEEPER_URL_CONF = "spark.phoenix.warmup.zkUrl";
+    public static final String TABLES_CONF = "spark.phoenix.warmup.tables";
+    public static final String PHOENIX_CONFIGS_CONF = "spark.phoenix.warmup.phoenixConfigs";
+
+    @Override
+    public DriverPlugin driverPlugin() {
+        return null;
+    }
+
+    @Override
+    public ExecutorPlugin executorPlugin() {
+        return new PhoenixExecutorPlugin();
+    }
+
+    static class PhoenixExecutorPlugin implements ExecutorPlugin {
+
+        private static final Logger logger = LoggerFactory.getLogger(PhoenixExecutorPlugin.class);
+        private Connection conn;
+
+        @Override
+        public void init(PluginContext ctx, Map<String, String> extraConf) {
+            SparkConf conf = ctx.conf();
+            if (!conf.contains(ZOOKEEPER_URL_CONF)) {
+                logger.warn(ZOOKEEPER_URL_CONF + " is not set, not warming up Phoenix");
+                return;
+            }
+            String zkUrl = conf.get(ZOOKEEPER_URL_CONF);
+            long start = System.currentTimeMillis();
+            try {
+                Properties props = extractPhoenixHBaseConfFromOptions(Collections.singletonMap(
+                        PhoenixDataSource.PHOENIX_CONFIGS, conf.get(PHOENIX_CONFIGS_CONF, null)));
+                conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, props);
+                for (String tableName : conf.get(TABLES_CONF, "").split(",")) {
+                    if (!tableName.trim().isEmpty()) {
+                        warmUp(tableName.trim());
+                    }
+                }
+                logger.info("Warmed up Phoenix connection to " + zkUrl + " in "
+                        + (System.currentTimeMillis() - start) + " ms");
+            } catch (Exception e) {
+                // The tasks connect on their own anyway, never fail the executor because of the warm up,
+                // whether the configs are malformed or HBase fails with an unchecked exception
+                logger.warn("Unable to warm up Phoenix connection to " + zkUrl, e);
+            }
+        }
+
+        private void warmUp(String tableName) {
+            try {
+                // Caches the table metadata in the query services shared by the executor's connections
+                PTable table = PhoenixRuntime.getTable(conn, SchemaUtil.normalizeFullTableName(tableName));
+                ConnectionQueryServices services = conn.unwrap(PhoenixConnection.class).getQueryServices();
+                // Looks up every region, which fills the HBase connection's location cache
+                int regions = services.getAllTableRegions(table.getPhysicalName().getBytes()).size();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Loaded metadata and " + regions + " region locations of " + tableName);
+                }
+            } catch (Exception e) {
+                logger.warn("Unable to warm up Phoenix table " + tableName, e);
+            }
+        }
+
+        @Override
+        public void shutdown() {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (Exception e) {
+                    logger.warn("Unable to close the Phoenix warm up connection", e);
+                }
+            }
+        }
+    }
+}
@@ -19,30 +19,35 @@ package org.apache.phoenix.spark.sql.connector;
 
 import org.apache.phoenix.thirdparty.com.google.common.collect.ImmutableSet;
 import org.apache.phoenix.spark.sql.connector.reader.PhoenixScanBuilder;
+import org.apache.phoenix.spark.sql.connector.writer.PhoenixServerDelete;
 import org.apache.phoenix.spark.sql.connector.writer.PhoenixWriteBuilder;
+import org.apache.spark.sql.connector.catalog.SupportsDelete;
 import org.apache.spark.sql.connector.catalog.SupportsRead;
 import org.apache.spark.sql.connector.catalog.SupportsWrite;
 import org.apache.spark.sql.connector.catalog.TableCapability;
 import org.apache.spark.sql.connector.read.ScanBuilder;
 import org.apache.spark.sql.connector.write.LogicalWriteInfo;
 import org.apache.spark.sql.connector.write.WriteBuilder;
+import org.apache.spark.sql.sources.Filter;
 import org.apache.spark.sql.types.StructType;
 import org.apache.spark.sql.util.CaseInsensitiveStringMap;
 
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
 
-public class PhoenixTable implements SupportsRead, SupportsWrite{
+public class PhoenixTable implements SupportsRead, SupportsWrite, SupportsDelete {
 
     private final Map<String,String> options;
     private final String tableName;
     private final StructType schema;
-    private static final Set<TableCapability> capabilities = ImmutableSet.of(TableCapability.BATCH_READ, TableCapability.BATCH_WRITE);
+    private static final Set<TableCapability> capabilities = ImmutableSet.of(TableCapability.BATCH_READ, TableCapability.BATCH_WRITE,
+            TableCapability.TRUNCATE, TableCapability.OVERWRITE_BY_FILTER);
 
     public PhoenixTable(StructType schema, Map<String,String> options) {
         this.options = options;
-        this.tableName = options.get("table");
+        this.tableName = options.get("table") != null ? options.get("table") : options.get(PhoenixDataSource.QUERY);
         this.schema = schema;
     }
 
@@ -70,9 +75,19 @@ public class PhoenixTable implements SupportsRead, SupportsWrite{
         return options;
     }
 
+    /**
+     * The options of the write, such as those of DataFrameWriterV2, override the options of the table
+     */
     @Override
     public WriteBuilder newWriteBuilder(LogicalWriteInfo info) {
-        return new PhoenixWriteBuilder(info, options);
+        Map<String, String> writeOptions = new HashMap<>(options);
+        writeOptions.putAll(info.options().asCaseSensitiveMap());
+        return new PhoenixWriteBuilder(info, writeOptions);
+    }
+
+    @Override
+    public void deleteWhere(Filter[] filters) {
+        PhoenixServerDelete.delete(options, filters);
     }
 
 }
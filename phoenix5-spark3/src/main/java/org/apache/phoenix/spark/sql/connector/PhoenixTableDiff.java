@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector;
+
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.ZOOKEEPER_URL;
+import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.extractPhoenixHBaseConfFromOptions;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+import static org.apache.spark.sql.functions.coalesce;
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.count;
+import static org.apache.spark.sql.functions.hash;
+import static org.apache.spark.sql.functions.isnull;
+import static org.apache.spark.sql.functions.lit;
+import static org.apache.spark.sql.functions.not;
+import static org.apache.spark.sql.functions.pmod;
+import static org.apache.spark.sql.functions.sum;
+import static org.apache.spark.sql.functions.xxhash64;
+
+/**
+ * Compares two Phoenix tables, possibly on different clusters, in the spirit of HBase's
+ * HashTable/SyncTable. Rows of both sides are assigned to buckets by their primary key and
+ * each bucket is reduced to a row count and an order-independent digest of the row hashes,
+ * so verifying two identical tables costs one scan of each and a shuffle of the digests.
+ * Only the rows of buckets whose digests differ are compared row by row.
+ *
+ * The tables are read with the phoenix data source, the option maps of each side take the
+ * same options as a regular read. Both sides must have the same primary key and the target
+ * must contain all the columns of the source.
+ */
+public class PhoenixTableDiff {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixTableDiff.class);
+    public static final String DIFF_SIDE_COLUMN = "DIFF_SIDE";
+    public static final String SOURCE = "source";
+    public static final String TARGET = "target";
+    public static final int DEFAULT_NUM_BUCKETS = 1024;
+    private static final String BUCKET = "__PHOENIX_DIFF_BUCKET";
+    private static final String HASH = "__PHOENIX_DIFF_HASH";
+    private static final String ROW_COUNT = "__PHOENIX_DIFF_COUNT";
+    private static final String DIGEST = "__PHOENIX_DIFF_DIGEST";
+    private static final String TARGET_PREFIX = "__TARGET";
+
+    private final SparkSession spark;
+    private final Map<String, String> sourceOptions;
+    private final Map<String, String> targetOptions;
+    private final int numBuckets;
+    private List<String> columns;
+    private List<String> pkColumns;
+    private List<Integer> mismatchedBuckets;
+
+    public PhoenixTableDiff(SparkSession spark, Map<String, String> sourceOptions,
+                            Map<String, String> targetOptions, int numBuckets) {
+        if (numBuckets <= 0) {
+            throw new IllegalArgumentException("Number of buckets must be positive: " + numBuckets);
+        }
+        this.spark = spark;
+        this.sourceOptions = sourceOptions;
+        this.targetOptions = targetOptions;
+        this.numBuckets = numBuckets;
+    }
+
+    /**
+     * Compares the bucket digests of both tables. Runs a single scan of each table.
+     * @return buckets whose row counts or digests differ, empty if the tables are identical
+     */
+    public List<Integer> getMismatchedBuckets() {
+        if (mismatchedBuckets == null) {
+            Dataset<Row> source = digest(hashed(read(sourceOptions)));
+            Dataset<Row> target = digest(hashed(read(targetOptions)));
+            for (String name : Arrays.asList(BUCKET, ROW_COUNT, DIGEST)) {
+                target = target.withColumnRenamed(name, TARGET_PREFIX + name);
+            }
+            Column sameRowCount = source.col(ROW_COUNT).eqNullSafe(target.col(TARGET_PREFIX + ROW_COUNT));
+            Column sameDigest = source.col(DIGEST).eqNullSafe(target.col(TARGET_PREFIX + DIGEST));
+            List<Row> rows = source
+                    .join(target, source.col(BUCKET).equalTo(target.col(TARGET_PREFIX + BUCKET)), "full_outer")
+                    .filter(not(sameRowCount.and(sameDigest)))
+                    .select(coalesce(source.col(BUCKET), target.col(TARGET_PREFIX + BUCKET)))
+                    .collectAsList();
+            mismatchedBuckets = new ArrayList<>(rows.size());
+            for (Row row : rows) {
+                mismatchedBuckets.add(row.getInt(0));
+            }
+            logger.info(mismatchedBuckets.size() + " of " + numBuckets + " buckets differ between "
+                    + sourceOptions.get("table") + " and " + targetOptions.get("table"));
+        }
+        return mismatchedBuckets;
+    }
+
+    /**
+     * Returns the rows that differ between the two tables: rows only present on one side and
+     * both versions of rows whose column values differ, tagged with {@link #DIFF_SIDE_COLUMN}.
+     * The tables are scanned again but only the rows of mismatched buckets are shuffled.
+     */
+    public Dataset<Row> diff() {
+        List<Integer> buckets = getMismatchedBuckets();
+        Dataset<Row> source = hashed(read(sourceOptions));
+        Dataset<Row> target = hashed(read(targetOptions));
+        if (buckets.isEmpty()) {
+            return source.limit(0).drop(BUCKET, HASH).withColumn(DIFF_SIDE_COLUMN, lit(SOURCE));
+        }
+        Object[] bucketValues = buckets.toArray();
+        source = source.filter(col(BUCKET).isin(bucketValues));
+        target = target.filter(col(BUCKET).isin(bucketValues));
+
+        Dataset<Row> sourceOnly = notIn(source, target).withColumn(DIFF_SIDE_COLUMN, lit(SOURCE));
+        Dataset<Row> targetOnly = notIn(target, source).withColumn(DIFF_SIDE_COLUMN, lit(TARGET));
+        return sourceOnly.unionByName(targetOnly).drop(BUCKET, HASH);
+    }
+
+    /**
+     * @return rows for which no row with the same primary key and the same hash exists in other
+     */
+    private Dataset<Row> notIn(Dataset<Row> rows, Dataset<Row> other) {
+        List<String> keys = new ArrayList<>(pkColumns);
+        keys.add(HASH);
+        Dataset<Row> otherKeys = other.select(toColumns(keys));
+        for (String key : keys) {
+            otherKeys = otherKeys.withColumnRenamed(key, TARGET_PREFIX + key);
+        }
+        // The last primary key column may be nullable, NULL keys must match too
+        Column sameKey = null;
+        for (String key : keys) {
+            Column sameValue = rows.col("`" + key + "`").eqNullSafe(otherKeys.col("`" + TARGET_PREFIX + key + "`"));
+            sameKey = sameKey == null ? sameValue : sameKey.and(sameValue);
+        }
+        return rows.join(otherKeys, sameKey, "left_anti");
+    }
+
+    private Dataset<Row> read(Map<String, String> options) {
+        if (columns == null) {
+            initColumns();
+        }
+        return spark.read().format("phoenix").options(options).load().select(toColumns(columns));
+    }
+
+    private Dataset<Row> hashed(Dataset<Row> rows) {
+        Column bucket = pmod(hash(toColumns(pkColumns)), lit(numBuckets));
+        return rows.withColumn(BUCKET, bucket).withColumn(HASH, xxhash64(withNullMarkers(columns)));
+    }
+
+    /**
+     * xxhash64 skips NULL inputs, so (5, NULL) and (NULL, 5) would hash the same. Hashing whether
+     * each column is NULL along with its value keeps the position of the NULLs.
+     */
+    private static Column[] withNullMarkers(List<String> names) {
+        Column[] values = toColumns(names);
+        Column[] result = new Column[values.length * 2];
+        for (int i = 0; i < values.length; i++) {
+            result[2 * i] = isnull(values[i]);
+            result[2 * i + 1] = values[i];
+        }
+        return result;
+    }
+
+    private Dataset<Row> digest(Dataset<Row> hashed) {
+        // The sum of the row hashes does not depend on the order rows are read in, decimal avoids overflows
+        return hashed.groupBy(col(BUCKET)).agg(count(lit(1)).as(ROW_COUNT),
+                sum(col(HASH).cast("decimal(38,0)")).as(DIGEST));
+    }
+
+    private void initColumns() {
+        columns = Arrays.asList(spark.read().format("phoenix").options(sourceOptions).load().columns());
+        pkColumns = new ArrayList<>();
+        String tableName = sourceOptions.get("table");
+        Properties props = extractPhoenixHBaseConfFromOptions(sourceOptions);
+        String tenantId = sourceOptions.get(PhoenixRuntime.TENANT_ID_ATTRIB);
+        if (tenantId != null) {
+            props.put(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
+        }
+        try (Connection conn = DriverManager.getConnection(
+                JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + sourceOptions.get(ZOOKEEPER_URL), props)) {
+            PTable table = PhoenixRuntime.getTable(conn, tableName);
+            List<PColumn> pk = table.getPKColumns();
+            // Skip the salt byte, it is not part of the data
+            for (int i = table.getBucketNum() == null ? 0 : 1; i < pk.size(); i++) {
+                pkColumns.add(pk.get(i).getName().getString());
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Column[] toColumns(List<String> names) {
+        Column[] result = new Column[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            // Quote the names, column family qualified names contain a dot
+            result[i] = col("`" + names.get(i) + "`");
+        }
+        return result;
+    }
+
+    /**
+     * Runs the diff as a Spark job.
+     * Arguments: sourceTable sourceZkUrl targetTable targetZkUrl [numBuckets] [outputPath]
+     * The differing rows are written as Parquet to outputPath if given.
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            logger.error("Usage: " + PhoenixTableDiff.class.getName()
+                    + " <sourceTable> <sourceZkUrl> <targetTable> <targetZkUrl> [numBuckets] [outputPath]");
+            System.exit(1);
+        }
+        Map<String, String> sourceOptions = new HashMap<>();
+        sourceOptions.put("table", args[0]);
+        sourceOptions.put(ZOOKEEPER_URL, args[1]);
+        Map<String, String> targetOptions = new HashMap<>();
+        targetOptions.put("table", args[2]);
+        targetOptions.put(ZOOKEEPER_URL, args[3]);
+        int numBuckets = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_NUM_BUCKETS;
+
+        SparkSession spark = SparkSession.builder().appName("PhoenixTableDiff").getOrCreate();
+        try {
+            PhoenixTableDiff tableDiff = new PhoenixTableDiff(spark, sourceOptions, targetOptions, numBuckets);
+            // getMismatchedBuckets logs how many buckets differ
+            List<Integer> buckets = tableDiff.getMismatchedBuckets();
+            if (!buckets.isEmpty() && args.length > 5) {
+                tableDiff.diff().write().parquet(args[5]);
+                logger.info("Wrote the differing rows to " + args[5]);
+            }
+        } finally {
+            spark.stop();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector;
+
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableType;
+import org.apache.phoenix.schema.TableNotFoundException;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.SchemaUtil;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.apache.phoenix.jdbc.PhoenixDatabaseMetaData.SYSTEM_CATALOG_NAME;
+import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.ALL_TENANTS;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Resolves the tenants to read when the {@link PhoenixDataSource#TENANT_IDS} option is used
+ */
+public class TenantUtil {
+
+    private TenantUtil() {
+        // Not to be instantiated
+    }
+
+    /**
+     * Returns the tenant ids to read, in the order they were given. When all tenants are
+     * requested they are discovered through the global connection: the distinct leading PK
+     * values for a multi-tenant base table (a cheap distinct prefix scan), or the owners of a
+     * tenant-specific view with the given name otherwise.
+     * @param globalConn connection without a tenant id
+     * @param tableName table or view to read
+     * @param tenantIds value of the {@link PhoenixDataSource#TENANT_IDS} option
+     * @return non-empty list of tenant ids
+     */
+    public static List<String> resolveTenantIds(Connection globalConn, String tableName,
+                                                String tenantIds) throws SQLException {
+        Set<String> tenants = new LinkedHashSet<>();
+        if (ALL_TENANTS.equals(tenantIds.trim())) {
+            String query;
+            PTable table = null;
+            try {
+                table = PhoenixRuntime.getTable(globalConn, tableName);
+            } catch (TableNotFoundException e) {
+                // Not visible globally, so it must be a tenant-specific view
+            }
+            if (table != null) {
+                if (!table.isMultiTenant() || table.getType() != PTableType.TABLE) {
+                    throw new RuntimeException("Table " + tableName
+                            + " is not a multi-tenant base table, tenants cannot be discovered");
+                }
+                PColumn tenantColumn = table.getPKColumns().get(table.getBucketNum() == null ? 0 : 1);
+                query = "SELECT DISTINCT "
+                        + SchemaUtil.getEscapedFullColumnName(tenantColumn.getName().getString())
+                        + " FROM " + tableName;
+                try (PreparedStatement stmt = globalConn.prepareStatement(query);
+                     ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        tenants.add(rs.getString(1));
+                    }
+                }
+            } else {
+                String fullName = SchemaUtil.normalizeFullTableName(tableName);
+                String schemaName = SchemaUtil.getSchemaNameFromFullName(fullName);
+                query = "SELECT DISTINCT TENANT_ID FROM " + SYSTEM_CATALOG_NAME
+                        + " WHERE TENANT_ID IS NOT NULL AND TABLE_NAME = ?"
+                        + " AND COLUMN_NAME IS NULL AND COLUMN_FAMILY IS NULL AND TABLE_SCHEM "
+                        + (schemaName.isEmpty() ? "IS NULL" : "= ?");
+                try (PreparedStatement stmt = globalConn.prepareStatement(query)) {
+                    stmt.setString(1, SchemaUtil.getTableNameFromFullName(fullName));
+                    if (!schemaName.isEmpty()) {
+                        stmt.setString(2, schemaName);
+                    }
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            tenants.add(rs.getString(1));
+                        }
+                    }
+                }
+            }
+        } else {
+            for (String tenantId : tenantIds.split(",")) {
+                if (!tenantId.trim().isEmpty()) {
+                    tenants.add(tenantId.trim());
+                }
+            }
+        }
+        if (tenants.isEmpty()) {
+            throw new RuntimeException("No tenants found for " + tableName);
+        }
+        return new ArrayList<>(tenants);
+    }
+
+    /**
+     * Returns the tenant whose view of the table is used to derive the schema of a multi-tenant
+     * read. Only opens a connection when the tenants have to be discovered.
+     */
+    static String getSchemaTenantId(String zkUrl, String tableName, String tenantIds,
+                                    Properties overriddenProps) {
+        Properties globalProps = new Properties();
+        globalProps.putAll(overriddenProps);
+        globalProps.remove(PhoenixRuntime.TENANT_ID_ATTRIB);
+        try {
+            if (!ALL_TENANTS.equals(tenantIds.trim())) {
+                return resolveTenantIds(null, tableName, tenantIds).get(0);
+            }
+            try (Connection conn = DriverManager.getConnection(
+                    JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, globalProps)) {
+                return resolveTenantIds(conn, tableName, tenantIds).get(0);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
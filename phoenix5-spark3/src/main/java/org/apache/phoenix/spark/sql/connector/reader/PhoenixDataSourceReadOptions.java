@@ -30,10 +30,29 @@ class PhoenixDataSourceReadOptions implements Serializable {
     private final String selectStatement;
     private final Properties overriddenProps;
     private final byte[] pTableCacheBytes;
+    private final String tenantIdColumn;
+    private final long partitionMemoryLimitBytes;
+    private final int scanRetries;
+    private final int serverPermits;
+    private final boolean preserveOrder;
 
     PhoenixDataSourceReadOptions(String zkUrl, String scn, String tenantId,
                                  String selectStatement, Properties overriddenProps,
         byte[] pTableCacheBytes) {
+        this(zkUrl, scn, tenantId, selectStatement, overriddenProps, pTableCacheBytes, null);
+    }
+
+    PhoenixDataSourceReadOptions(String zkUrl, String scn, String tenantId,
+                                 String selectStatement, Properties overriddenProps,
+                                 byte[] pTableCacheBytes, String tenantIdColumn) {
+        this(zkUrl, scn, tenantId, selectStatement, overriddenProps, pTableCacheBytes, tenantIdColumn, 0, 0, 0, false);
+    }
+
+    PhoenixDataSourceReadOptions(String zkUrl, String scn, String tenantId,
+                                 String selectStatement, Properties overriddenProps,
+                                 byte[] pTableCacheBytes, String tenantIdColumn,
+                                 long partitionMemoryLimitBytes, int scanRetries, int serverPermits,
+                                 boolean preserveOrder) {
         if(overriddenProps == null){
             throw new NullPointerException();
         }
@@ -43,6 +62,11 @@ class PhoenixDataSourceReadOptions implements Serializable {
         this.selectStatement = selectStatement;
         this.overriddenProps = overriddenProps;
         this.pTableCacheBytes = pTableCacheBytes;
+        this.tenantIdColumn = tenantIdColumn;
+        this.partitionMemoryLimitBytes = partitionMemoryLimitBytes;
+        this.scanRetries = scanRetries;
+        this.serverPermits = serverPermits;
+        this.preserveOrder = preserveOrder;
     }
 
     String getSelectStatement() {
@@ -76,4 +100,41 @@ class PhoenixDataSourceReadOptions implements Serializable {
     byte[] getPTableCacheBytes() {
         return pTableCacheBytes;
     }
+
+    /**
+     * @return name of the projected tenant id column appended to each row, or null if the
+     * tenant id is not part of the read schema
+     */
+    String getTenantIdColumn() {
+        return tenantIdColumn;
+    }
+
+    /**
+     * @return bytes a partition reader may hold for the rows it reads, 0 if unbounded
+     */
+    long getPartitionMemoryLimitBytes() {
+        return partitionMemoryLimitBytes;
+    }
+
+    /**
+     * @return number of times a partition reader may reopen its scanners after a failure
+     */
+    int getScanRetries() {
+        return scanRetries;
+    }
+
+    /**
+     * @return number of partitions of this read each executor may run against the same
+     * RegionServer at once, 0 if unlimited
+     */
+    int getServerPermits() {
+        return serverPermits;
+    }
+
+    /**
+     * @return whether partition readers must return the rows of their scans in key order
+     */
+    boolean isPreserveOrder() {
+        return preserveOrder;
+    }
 }
@@ -24,12 +24,50 @@ import org.apache.spark.sql.connector.read.InputPartition;
 public class PhoenixInputPartition implements InputPartition {
 
     private final SerializableWritable<PhoenixInputSplit> phoenixInputSplit;
+    // Only set when the scan fans out over several tenants, see PhoenixDataSource.TENANT_IDS
+    private final String tenantId;
+    private final byte[] pTableCacheBytes;
+    private final PhoenixReadMetrics metrics;
 
     PhoenixInputPartition(PhoenixInputSplit phoenixInputSplit) {
-        this.phoenixInputSplit = new SerializableWritable<>(phoenixInputSplit);
+        this(phoenixInputSplit, null, null);
+    }
+
+    PhoenixInputPartition(PhoenixInputSplit phoenixInputSplit, String tenantId, byte[] pTableCacheBytes) {
+        this(new SerializableWritable<>(phoenixInputSplit), tenantId, pTableCacheBytes, null);
+    }
+
+    private PhoenixInputPartition(SerializableWritable<PhoenixInputSplit> phoenixInputSplit, String tenantId,
+                                  byte[] pTableCacheBytes, PhoenixReadMetrics metrics) {
+        this.phoenixInputSplit = phoenixInputSplit;
+        this.tenantId = tenantId;
+        this.pTableCacheBytes = pTableCacheBytes;
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return a copy of the partition whose reader reports to the given metrics
+     */
+    PhoenixInputPartition withMetrics(PhoenixReadMetrics metrics) {
+        return new PhoenixInputPartition(phoenixInputSplit, tenantId, pTableCacheBytes, metrics);
     }
 
     SerializableWritable<PhoenixInputSplit> getPhoenixInputSplit() {
         return phoenixInputSplit;
     }
+
+    String getTenantId() {
+        return tenantId;
+    }
+
+    byte[] getPTableCacheBytes() {
+        return pTableCacheBytes;
+    }
+
+    /**
+     * @return metrics of the read, null for partitions not planned by a Spark read
+     */
+    PhoenixReadMetrics getMetrics() {
+        return metrics;
+    }
 }
\ No newline at end of file
@@ -46,6 +46,12 @@ public class PhoenixPartitionReadFactory implements PartitionReaderFactory {
 
     @Override
     public PartitionReader<InternalRow> createReader(InputPartition partition) {
+        if (partition instanceof PhoenixRowCountInputPartition) {
+            return new PhoenixRowCountInputPartition.Reader((PhoenixRowCountInputPartition) partition);
+        }
+        if (partition instanceof PhoenixQueryInputPartition) {
+            return new PhoenixQueryInputPartition.Reader(options, schema);
+        }
         return new PhoenixPartitionReader(options, schema, (PhoenixInputPartition) partition);
     }
 }
\ No newline at end of file
@@ -24,13 +24,15 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
 
+import org.apache.hadoop.hbase.KeyValueUtil;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 
-import org.apache.phoenix.compat.CompatUtil;
 import org.apache.phoenix.compile.QueryPlan;
 import org.apache.phoenix.compile.StatementContext;
 import org.apache.phoenix.coprocessor.BaseScannerRegionObserver;
@@ -50,11 +52,19 @@ import org.apache.phoenix.monitoring.ReadMetricQueue;
 import org.apache.phoenix.monitoring.ScanMetricsHolder;
 import org.apache.phoenix.query.ConnectionQueryServices;
 import org.apache.phoenix.schema.PTableImpl;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.phoenix.util.PhoenixRuntime;
 import org.apache.spark.executor.InputMetrics;
 import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.expressions.JoinedRow;
 import org.apache.spark.sql.connector.read.PartitionReader;
 import org.apache.spark.sql.execution.datasources.SparkJdbcUtil;
 import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import scala.collection.Iterator;
 
 import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
@@ -62,18 +72,59 @@ import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
 
 public class PhoenixPartitionReader implements PartitionReader<InternalRow> {
 
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixPartitionReader.class);
     private final PhoenixInputPartition inputPartition;
     private final PhoenixDataSourceReadOptions options;
     private final StructType schema;
     private PhoenixResultSet resultSet;
     private InternalRow currentRow;
     private Iterator<InternalRow> iterator;
+    // Appends the partition's tenant id to each row of a multi-tenant read
+    private InternalRow tenantIdRow;
+    private JoinedRow joinedRow;
+    private final long memoryLimitBytes;
+    private long maxRowBytes;
+    private final ImmutableBytesWritable rowKey = new ImmutableBytesWritable();
+    private ConnectionQueryServices services;
+    private byte[] physicalTableName;
+    private QueryPlan queryPlan;
+    private List<Scan> scans;
+    private StructType phoenixSchema;
+    // Resuming after scanner failures
+    private static final long RETRY_BACKOFF_MS = 1000;
+    private static final long MAX_RETRY_BACKOFF_MS = 10000;
+    private int maxRetries;
+    private int retries;
+    private byte[] lastRowKey;
+    // Host whose permit this reader holds
+    private String permitHost;
 
     PhoenixPartitionReader(PhoenixDataSourceReadOptions options, StructType schema, PhoenixInputPartition inputPartition){
         this.inputPartition = inputPartition;
         this.options = options;
         this.schema = schema;
-        initialize();
+        this.memoryLimitBytes = options.getPartitionMemoryLimitBytes();
+        acquireServerPermit();
+        try {
+            initialize();
+        } catch (RuntimeException e) {
+            releaseServerPermit();
+            throw e;
+        }
+    }
+
+    /**
+     * Reader of the given scans that opens no query plan, for tests overriding {@link #openScans}
+     */
+    PhoenixPartitionReader(PhoenixDataSourceReadOptions options, StructType schema,
+                           PhoenixInputPartition inputPartition, List<Scan> scans) {
+        this.inputPartition = inputPartition;
+        this.options = options;
+        this.schema = schema;
+        this.memoryLimitBytes = options.getPartitionMemoryLimitBytes();
+        this.scans = scans;
+        this.phoenixSchema = schema;
+        this.maxRetries = options.getScanRetries();
     }
 
     Properties getOverriddenPropsFromOptions() {
@@ -84,11 +135,18 @@ public class PhoenixPartitionReader implements PartitionReader<InternalRow> {
         String zkUrl = options.getZkUrl();
         Properties overridingProps = getOverriddenPropsFromOptions();
         overridingProps.put("phoenix.skip.system.tables.existence.check", Boolean.valueOf("true"));
+        byte[] pTableCacheBytes = options.getPTableCacheBytes();
+        if (inputPartition.getTenantId() != null) {
+            overridingProps = new Properties();
+            overridingProps.putAll(getOverriddenPropsFromOptions());
+            overridingProps.put(PhoenixRuntime.TENANT_ID_ATTRIB, inputPartition.getTenantId());
+            pTableCacheBytes = inputPartition.getPTableCacheBytes();
+        }
         try (Connection conn = DriverManager.getConnection(
                 JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, overridingProps)) {
             PTable pTable = null;
             try {
-                pTable = PTable.parseFrom(options.getPTableCacheBytes());
+                pTable = PTable.parseFrom(pTableCacheBytes);
             } catch (InvalidProtocolBufferException e) {
                 throw new RuntimeException("Parsing the PTable Cache Bytes is failing ", e);
             }
@@ -109,75 +167,286 @@ public class PhoenixPartitionReader implements PartitionReader<InternalRow> {
 
     private void initialize() {
         try {
-            final QueryPlan queryPlan = getQueryPlan();
-            final List<Scan> scans = inputPartition.getPhoenixInputSplit().value().getScans();
-            List<PeekingResultIterator> iterators = new ArrayList<>(scans.size());
-            StatementContext ctx = queryPlan.getContext();
-            ReadMetricQueue readMetrics = ctx.getReadMetricsQueue();
-            String tableName = queryPlan.getTableRef().getTable().getPhysicalName().getString();
-
-            // Clear the table region boundary cache to make sure long running jobs stay up to date
-            byte[] tableNameBytes = queryPlan.getTableRef().getTable().getPhysicalName().getBytes();
-            ConnectionQueryServices services = queryPlan.getContext().getConnection().getQueryServices();
-            services.clearTableRegionCache(CompatUtil.getTableName(tableNameBytes));
-
-            long renewScannerLeaseThreshold = queryPlan.getContext().getConnection()
-                    .getQueryServices().getRenewLeaseThresholdMilliSeconds();
+            queryPlan = getQueryPlan();
+            scans = inputPartition.getPhoenixInputSplit().value().getScans();
+
+            // Keep the cached region locations unless the driver planned the region on another host
+            physicalTableName = queryPlan.getTableRef().getTable().getPhysicalName().getBytes();
+            services = queryPlan.getContext().getConnection().getQueryServices();
+            if (!scans.isEmpty()) {
+                RegionLocationCachePolicy.checkPlannedLocation(services, physicalTableName,
+                        scans.get(0).getStartRow(), getPlannedHost());
+            }
             for (Scan scan : scans) {
                 // For MR, skip the region boundary check exception if we encounter a split. ref: PHOENIX-2599
                 scan.setAttribute(BaseScannerRegionObserver.SKIP_REGION_BOUNDARY_CHECK, Bytes.toBytes(true));
-
-                PeekingResultIterator peekingResultIterator;
-                ScanMetricsHolder scanMetricsHolder =
-                        ScanMetricsHolder.getInstance(readMetrics, tableName, scan,
-                                queryPlan.getContext().getConnection().getLogLevel());
-                final TableResultIterator tableResultIterator =
-                        new TableResultIterator(
-                                queryPlan.getContext().getConnection().getMutationState(), scan,
-                                scanMetricsHolder, renewScannerLeaseThreshold, queryPlan,
-                                MapReduceParallelScanGrouper.getInstance());
-                peekingResultIterator = LookAheadResultIterator.wrap(tableResultIterator);
-                iterators.add(peekingResultIterator);
             }
-            ResultIterator iterator = queryPlan.useRoundRobinIterator() ?
-                    RoundRobinResultIterator.newIterator(iterators, queryPlan) :
-                    ConcatResultIterator.newIterator(iterators);
-            if (queryPlan.getContext().getSequenceManager().getSequenceCount() > 0) {
-                iterator = new SequenceResultIterator(iterator, queryPlan.getContext().getSequenceManager());
+            maxRetries = canResume() ? options.getScanRetries() : 0;
+            StructType phoenixSchema = schema;
+            if (options.getTenantIdColumn() != null) {
+                // The tenant id column is always last, see PhoenixScan
+                phoenixSchema = new StructType(Arrays.copyOf(schema.fields(), schema.fields().length - 1));
+                tenantIdRow = new GenericInternalRow(
+                        new Object[] { UTF8String.fromString(inputPartition.getTenantId()) });
+                joinedRow = new JoinedRow();
             }
-            // Clone the row projector as it's not thread safe and would be used simultaneously by
-            // multiple threads otherwise.
-            this.resultSet = new PhoenixResultSet(iterator, queryPlan.getProjector().cloneIfNecessary(),
-                    queryPlan.getContext());
-            this.iterator = SparkJdbcUtil.resultSetToSparkInternalRows(resultSet, schema, new InputMetrics());
+            this.phoenixSchema = phoenixSchema;
+            open(scans);
         }
         catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
+    void open(List<Scan> scans) throws SQLException {
+        this.iterator = openScans(scans);
+    }
+
+    /**
+     * @return rows of the scans, read through {@link #resultSet}
+     */
+    Iterator<InternalRow> openScans(List<Scan> scans) throws SQLException {
+        List<PeekingResultIterator> iterators = new ArrayList<>(scans.size());
+        StatementContext ctx = queryPlan.getContext();
+        ReadMetricQueue readMetrics = ctx.getReadMetricsQueue();
+        String tableName = queryPlan.getTableRef().getTable().getPhysicalName().getString();
+        long renewScannerLeaseThreshold = queryPlan.getContext().getConnection()
+                .getQueryServices().getRenewLeaseThresholdMilliSeconds();
+        for (Scan scan : scans) {
+            PeekingResultIterator peekingResultIterator;
+            ScanMetricsHolder scanMetricsHolder =
+                    ScanMetricsHolder.getInstance(readMetrics, tableName, scan,
+                            queryPlan.getContext().getConnection().getLogLevel());
+            final TableResultIterator tableResultIterator =
+                    new TableResultIterator(
+                            queryPlan.getContext().getConnection().getMutationState(), scan,
+                            scanMetricsHolder, renewScannerLeaseThreshold, queryPlan,
+                            MapReduceParallelScanGrouper.getInstance());
+            peekingResultIterator = LookAheadResultIterator.wrap(tableResultIterator);
+            iterators.add(peekingResultIterator);
+        }
+        // Round robin keeps a scanner cache filled for every scan and loses track of which scan
+        // a row came from, bounded, resumable and ordered reads go one scan at a time
+        ResultIterator iterator = queryPlan.useRoundRobinIterator() && memoryLimitBytes <= 0 && maxRetries <= 0
+                && !options.isPreserveOrder() ?
+                RoundRobinResultIterator.newIterator(iterators, queryPlan) :
+                ConcatResultIterator.newIterator(iterators);
+        if (queryPlan.getContext().getSequenceManager().getSequenceCount() > 0) {
+            iterator = new SequenceResultIterator(iterator, queryPlan.getContext().getSequenceManager());
+        }
+        // Clone the row projector as it's not thread safe and would be used simultaneously by
+        // multiple threads otherwise.
+        this.resultSet = new PhoenixResultSet(iterator, queryPlan.getProjector().cloneIfNecessary(),
+                queryPlan.getContext());
+        return SparkJdbcUtil.resultSetToSparkInternalRows(resultSet, phoenixSchema, new InputMetrics());
+    }
+
+    /**
+     * @return key of the row last returned by the scans
+     */
+    byte[] getCurrentRowKey() {
+        resultSet.getCurrentRow().getKey(rowKey);
+        return rowKey.copyBytes();
+    }
+
+    /**
+     * Resuming needs the key of every row read and scans over disjoint ascending key ranges
+     */
+    private boolean canResume() {
+        if (queryPlan.getContext().getSequenceManager().getSequenceCount() > 0) {
+            return false;
+        }
+        for (Scan scan : scans) {
+            if (scan.isReversed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reopens the scanners after a failure, starting right after the last row returned to Spark.
+     * Scans that were entirely read are skipped. The copied scans keep their time range, so the
+     * resumed read sees the same snapshot.
+     */
+    private void resume() throws SQLException, IOException {
+        try {
+            if (resultSet != null) {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            // The scanners already failed, nothing more to release
+        }
+        List<Scan> remaining = new ArrayList<>();
+        int first = lastRowKey == null ? 0 : getScanIndex(lastRowKey);
+        for (int i = first; i < scans.size(); i++) {
+            Scan scan = new Scan(scans.get(i));
+            if (i == first && lastRowKey != null) {
+                scan.withStartRow(lastRowKey, false);
+            }
+            remaining.add(scan);
+        }
+        open(remaining);
+    }
+
+    private int getScanIndex(byte[] key) {
+        for (int i = 0; i < scans.size(); i++) {
+            byte[] stopRow = scans.get(i).getStopRow();
+            if (stopRow.length == 0 || Bytes.compareTo(key, stopRow) < 0) {
+                return i;
+            }
+        }
+        return scans.size() - 1;
+    }
+
+    private String getPlannedHost() {
+        return ServerConcurrencyLimiter.getHost(inputPartition);
+    }
+
+    private void acquireServerPermit() {
+        String host = getPlannedHost();
+        if (options.getServerPermits() <= 0 || host == null) {
+            return;
+        }
+        try {
+            long waited = ServerConcurrencyLimiter.acquire(host, options.getServerPermits());
+            permitHost = host;
+            if (waited > 0) {
+                if (inputPartition.getMetrics() != null) {
+                    inputPartition.getMetrics().addServerPermitWait(waited);
+                }
+                logger.info("Waited " + waited + " ms for a permit to scan " + host);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void releaseServerPermit() {
+        if (permitHost != null) {
+            ServerConcurrencyLimiter.release(permitHost, options.getServerPermits());
+            permitHost = null;
+        }
+    }
+
     @Override
     public boolean next() {
-        if (!iterator.hasNext()) {
-            return false;
+        while (true) {
+            try {
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+                currentRow = iterator.next();
+                break;
+            } catch (Exception e) {
+                // The Scala iterator throws the SQLExceptions of the result set undeclared, such as a
+                // PhoenixIOException, failures that cannot be retried are rethrown unchanged.
+                // Only drop the cached locations when they are known to be stale
+                if (RegionLocationCachePolicy.isStaleLocation(e)) {
+                    try {
+                        RegionLocationCachePolicy.invalidate(services, physicalTableName);
+                    } catch (SQLException ex) {
+                        e.addSuppressed(ex);
+                    }
+                }
+                if (retries >= maxRetries || !isScannerFailure(e)) {
+                    throw e;
+                }
+                retries++;
+                if (inputPartition.getMetrics() != null) {
+                    inputPartition.getMetrics().addScanRetry();
+                }
+                logger.warn("Scanner failed, resuming the partition after row "
+                        + (lastRowKey == null ? "<start>" : Bytes.toStringBinary(lastRowKey))
+                        + " (retry " + retries + " of " + maxRetries + ")", e);
+                try {
+                    Thread.sleep(Math.min(RETRY_BACKOFF_MS * retries, MAX_RETRY_BACKOFF_MS));
+                    resume();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                } catch (SQLException | IOException ex) {
+                    e.addSuppressed(ex);
+                    throw e;
+                }
+            }
+        }
+        if (maxRetries > 0) {
+            lastRowKey = getCurrentRowKey();
+        }
+        if (memoryLimitBytes > 0) {
+            checkRowSize();
         }
-        currentRow = iterator.next();
         return true;
     }
 
+    /**
+     * @return whether the failure comes from HBase, such as an expired scanner lease, a
+     * restarted RegionServer or a moved region, rather than from the data being read
+     */
+    private static boolean isScannerFailure(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    private void checkRowSize() {
+        maxRowBytes = Math.max(maxRowBytes, checkRowSize(resultSet.getCurrentRow(), memoryLimitBytes));
+    }
+
+    /**
+     * @return size of the cells of the row
+     * @throws RuntimeException naming the row key if the row is larger than the memory limit
+     */
+    static long checkRowSize(Tuple tuple, long memoryLimitBytes) {
+        long rowBytes = 0;
+        for (int i = 0; i < tuple.size(); i++) {
+            rowBytes += KeyValueUtil.length(tuple.getValue(i));
+        }
+        if (rowBytes > memoryLimitBytes) {
+            ImmutableBytesWritable key = new ImmutableBytesWritable();
+            tuple.getKey(key);
+            throw new RuntimeException("Row " + Bytes.toStringBinary(key.get(), key.getOffset(),
+                    key.getLength()) + " of " + rowBytes + " bytes exceeds the "
+                    + PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES + " of " + memoryLimitBytes + " bytes");
+        }
+        return rowBytes;
+    }
+
     @Override
     public InternalRow get() {
+        if (tenantIdRow != null) {
+            return joinedRow.apply(currentRow, tenantIdRow);
+        }
         return currentRow;
     }
 
     @Override
     public void close() throws IOException {
-        if(resultSet != null) {
-            try {
-                resultSet.close();
-            } catch (SQLException e) {
-                throw new IOException(e);
+        if (memoryLimitBytes > 0 && maxRowBytes > memoryLimitBytes / 2) {
+            logger.warn("Largest row of partition was " + maxRowBytes + " bytes, more than half of the "
+                    + PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES + " of " + memoryLimitBytes + " bytes");
+        }
+        if (retries > 0) {
+            logger.info("Partition was resumed " + retries + " times after scanner failures");
+        }
+        try {
+            if(resultSet != null) {
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                    throw new IOException(e);
+                }
             }
+        } finally {
+            releaseServerPermit();
         }
     }
 }
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.mapreduce.PhoenixInputSplit;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * Driver-side cache of planned input partitions, so that running several actions on the same
+ * DataFrame does not compile the query and look up every region again. Each SparkSession has
+ * its own cache, whose entries are keyed by the read options, the projected columns, the WHERE
+ * clause and the tenant. An entry is only reused if the table metadata, read from the server
+ * rather than the client cache, and the region boundaries of the physical table are unchanged,
+ * which costs a metadata lookup and a single scan of hbase:meta rather than a full planning.
+ *
+ * Reads without an SCN get their scans' upper time bound moved to the current time on reuse,
+ * so they still see the rows written since the partitions were planned.
+ */
+public class PhoenixPlanningCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixPlanningCache.class);
+    static final int MAX_ENTRIES = 100;
+
+    // Caches go away with their session
+    private static final Map<SparkSession, PhoenixPlanningCache> CACHES = new WeakHashMap<>();
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    PhoenixPlanningCache() {
+    }
+
+    /**
+     * @return the cache of the session
+     */
+    static synchronized PhoenixPlanningCache get(SparkSession session) {
+        return CACHES.computeIfAbsent(session, s -> new PhoenixPlanningCache());
+    }
+
+    static class Entry {
+        private final List<PhoenixInputPartition> partitions;
+        private final PhoenixDataSourceReadOptions readOptions;
+        private final String tableName;
+        private final long tableTimestamp;
+        private final String physicalTableName;
+        private final byte[][] startKeys;
+
+        Entry(List<PhoenixInputPartition> partitions, PhoenixDataSourceReadOptions readOptions,
+              String tableName, long tableTimestamp, String physicalTableName, byte[][] startKeys) {
+            this.partitions = partitions;
+            this.readOptions = readOptions;
+            this.tableName = tableName;
+            this.tableTimestamp = tableTimestamp;
+            this.physicalTableName = physicalTableName;
+            this.startKeys = startKeys;
+        }
+
+        PhoenixDataSourceReadOptions getReadOptions() {
+            return readOptions;
+        }
+
+        /**
+         * @return whether the table metadata and region boundaries are the same as when planned
+         */
+        boolean isValid(Connection conn) throws SQLException, IOException {
+            // DDL of other clients is not seen through the client cache of the table
+            if (PhoenixRuntime.getTableNoCache(conn, tableName).getTimeStamp() != tableTimestamp) {
+                return false;
+            }
+            byte[][] currentStartKeys = getStartKeys(conn, physicalTableName);
+            if (currentStartKeys.length != startKeys.length) {
+                return false;
+            }
+            for (int i = 0; i < startKeys.length; i++) {
+                if (!Bytes.equals(startKeys[i], currentStartKeys[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param restampTimeRange whether to move the upper time bound of the scans to now
+         * @return copies of the cached partitions, so concurrent reads never share scans
+         */
+        List<PhoenixInputPartition> copyPartitions(boolean restampTimeRange) throws IOException {
+            long now = EnvironmentEdgeManager.currentTimeMillis();
+            List<PhoenixInputPartition> copies = new ArrayList<>(partitions.size());
+            for (PhoenixInputPartition partition : partitions) {
+                PhoenixInputSplit split = partition.getPhoenixInputSplit().value();
+                List<Scan> scans = new ArrayList<>(split.getScans().size());
+                for (Scan scan : split.getScans()) {
+                    Scan copy = new Scan(scan);
+                    if (restampTimeRange) {
+                        copy.setTimeRange(scan.getTimeRange().getMin(), now);
+                    }
+                    scans.add(copy);
+                }
+                String location;
+                long length;
+                try {
+                    String[] locations = split.getLocations();
+                    location = locations.length == 0 ? null : locations[0];
+                    length = split.getLength();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                }
+                copies.add(new PhoenixInputPartition(new PhoenixInputSplit(scans, length, location),
+                        partition.getTenantId(), partition.getPTableCacheBytes()));
+            }
+            return copies;
+        }
+    }
+
+    static String getKey(CaseInsensitiveStringMap options, StructType schema, String whereClause,
+                         String tenantId) {
+        return new TreeMap<>(options.asCaseSensitiveMap()) + "|" + Arrays.toString(schema.names())
+                + "|" + whereClause + "|" + tenantId;
+    }
+
+    static byte[][] getStartKeys(Connection conn, String physicalTableName) throws SQLException, IOException {
+        try (Admin admin = conn.unwrap(PhoenixConnection.class).getQueryServices().getAdmin();
+             RegionLocator regionLocator = admin.getConnection()
+                     .getRegionLocator(TableName.valueOf(physicalTableName))) {
+            return regionLocator.getStartKeys();
+        }
+    }
+
+    synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+
+    synchronized void invalidate(String key) {
+        if (entries.remove(key) != null && logger.isDebugEnabled()) {
+            logger.debug("Invalidated planned partitions for " + key);
+        }
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drops the planned partitions cached for the session
+     */
+    public static void clear(SparkSession session) {
+        PhoenixPlanningCache cache = get(session);
+        synchronized (cache) {
+            cache.entries.clear();
+        }
+    }
+
+    /**
+     * Drops the planned partitions cached for all the sessions of this driver
+     */
+    public static synchronized void clear() {
+        CACHES.clear();
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.mapreduce.PhoenixInputSplit;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * How the partitions of a Phoenix read were planned: key range, estimated size, preferred host
+ * and scan count of every partition, and the time spent in each planning phase. Built when the
+ * planningReport option is set, then logged as JSON on the driver, appended to the file given
+ * by planningReportPath and kept as the latest report of this driver.
+ */
+public class PhoenixPlanningReport {
+
+    private static volatile PhoenixPlanningReport latest;
+
+    private final String source;
+    private final long planningTimestamp;
+    private final List<Partition> partitions = new ArrayList<>();
+    private long compileMillis;
+    private long regionLookupMillis;
+    private long sizeLookupMillis;
+    private long totalMillis;
+    private Long estimatedBytes;
+    private Long estimatedRows;
+    private Long statsTimestamp;
+    private boolean fromCache;
+
+    PhoenixPlanningReport(String source) {
+        this.source = source;
+        this.planningTimestamp = EnvironmentEdgeManager.currentTimeMillis();
+    }
+
+    /**
+     * A planned input partition
+     */
+    public static class Partition {
+        private final String tenantId;
+        private final String startKey;
+        private final String endKey;
+        private final long estimatedBytes;
+        private final String host;
+        private final int scanCount;
+
+        Partition(String tenantId, PhoenixInputSplit split) {
+            List<Scan> scans = split.getScans();
+            this.tenantId = tenantId;
+            this.startKey = Bytes.toStringBinary(scans.get(0).getStartRow());
+            this.endKey = Bytes.toStringBinary(scans.get(scans.size() - 1).getStopRow());
+            long length;
+            String[] locations;
+            try {
+                length = split.getLength();
+                locations = split.getLocations();
+            } catch (IOException e) {
+                length = 0;
+                locations = new String[0];
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                length = 0;
+                locations = new String[0];
+            }
+            this.estimatedBytes = length;
+            this.host = locations.length == 0 ? null : locations[0];
+            this.scanCount = scans.size();
+        }
+
+        public String getTenantId() {
+            return tenantId;
+        }
+
+        /**
+         * @return start row of the first scan, in HBase's printable binary format
+         */
+        public String getStartKey() {
+            return startKey;
+        }
+
+        /**
+         * @return stop row of the last scan, in HBase's printable binary format
+         */
+        public String getEndKey() {
+            return endKey;
+        }
+
+        /**
+         * @return bytes of the guidepost chunks the partition's scans overlap, or its share of the
+         * region size when the table has no statistics
+         */
+        public long getEstimatedBytes() {
+            return estimatedBytes;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getScanCount() {
+            return scanCount;
+        }
+    }
+
+    /**
+     * @return the report of the latest read planned with the planningReport option in this
+     * driver, or null
+     */
+    public static PhoenixPlanningReport getLatest() {
+        return latest;
+    }
+
+    static void setLatest(PhoenixPlanningReport report) {
+        latest = report;
+    }
+
+    synchronized void addPartitions(List<PhoenixInputPartition> planned) {
+        for (PhoenixInputPartition partition : planned) {
+            partitions.add(new Partition(partition.getTenantId(), partition.getPhoenixInputSplit().value()));
+        }
+    }
+
+    synchronized void addCompileMillis(long millis) {
+        compileMillis += millis;
+    }
+
+    synchronized void addRegionLookupMillis(long millis) {
+        regionLookupMillis += millis;
+    }
+
+    synchronized void addSizeLookupMillis(long millis) {
+        sizeLookupMillis += millis;
+    }
+
+    void setTotalMillis(long millis) {
+        totalMillis = millis;
+    }
+
+    synchronized void addEstimates(Long bytes, Long rows, Long timestamp) {
+        if (bytes != null) {
+            estimatedBytes = estimatedBytes == null ? bytes : estimatedBytes + bytes;
+        }
+        if (rows != null) {
+            estimatedRows = estimatedRows == null ? rows : estimatedRows + rows;
+        }
+        if (timestamp != null) {
+            statsTimestamp = statsTimestamp == null ? timestamp : Math.min(statsTimestamp, timestamp);
+        }
+    }
+
+    synchronized void setFromCache() {
+        fromCache = true;
+    }
+
+    /**
+     * @return table or query read
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public long getPlanningTimestamp() {
+        return planningTimestamp;
+    }
+
+    public List<Partition> getPartitions() {
+        return Collections.unmodifiableList(partitions);
+    }
+
+    /**
+     * @return time spent compiling the query and setting up its scans
+     */
+    public long getCompileMillis() {
+        return compileMillis;
+    }
+
+    /**
+     * @return time spent looking up the region of each scan
+     */
+    public long getRegionLookupMillis() {
+        return regionLookupMillis;
+    }
+
+    /**
+     * @return time spent looking up the size of each region
+     */
+    public long getSizeLookupMillis() {
+        return sizeLookupMillis;
+    }
+
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * @return bytes to scan according to the guideposts, null if no statistics were used
+     */
+    public Long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * @return rows to scan according to the guideposts, null if no statistics were used
+     */
+    public Long getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    /**
+     * @return time the oldest statistics used were collected, null if no statistics were used
+     */
+    public Long getStatsTimestamp() {
+        return statsTimestamp;
+    }
+
+    /**
+     * @return whether the partitions were taken from the planning cache
+     */
+    public boolean isFromCache() {
+        return fromCache;
+    }
+
+    /**
+     * @return number of partitions per preferred host
+     */
+    public Map<String, Integer> getPartitionsPerHost() {
+        Map<String, Integer> perHost = new TreeMap<>();
+        for (Partition partition : partitions) {
+            perHost.merge(String.valueOf(partition.getHost()), 1, Integer::sum);
+        }
+        return perHost;
+    }
+
+    /**
+     * @return the report as a single line JSON object
+     */
+    public String toJson() {
+        long minBytes = Long.MAX_VALUE;
+        long maxBytes = 0;
+        long totalBytes = 0;
+        for (Partition partition : partitions) {
+            minBytes = Math.min(minBytes, partition.getEstimatedBytes());
+            maxBytes = Math.max(maxBytes, partition.getEstimatedBytes());
+            totalBytes += partition.getEstimatedBytes();
+        }
+        StringBuilder json = new StringBuilder("{");
+        appendField(json, "source", source).append(',');
+        appendField(json, "planningTimestamp", planningTimestamp).append(',');
+        appendField(json, "fromCache", fromCache).append(',');
+        json.append("\"timings\":{");
+        appendField(json, "compileMillis", compileMillis).append(',');
+        appendField(json, "regionLookupMillis", regionLookupMillis).append(',');
+        appendField(json, "sizeLookupMillis", sizeLookupMillis).append(',');
+        appendField(json, "totalMillis", totalMillis).append("},");
+        json.append("\"statistics\":{");
+        appendField(json, "estimatedBytes", estimatedBytes).append(',');
+        appendField(json, "estimatedRows", estimatedRows).append(',');
+        appendField(json, "statsTimestamp", statsTimestamp).append("},");
+        json.append("\"partitionSummary\":{");
+        appendField(json, "count", partitions.size()).append(',');
+        appendField(json, "minBytes", partitions.isEmpty() ? 0 : minBytes).append(',');
+        appendField(json, "maxBytes", maxBytes).append(',');
+        appendField(json, "avgBytes", partitions.isEmpty() ? 0 : totalBytes / partitions.size()).append(',');
+        json.append("\"perHost\":{");
+        boolean first = true;
+        for (Map.Entry<String, Integer> entry : getPartitionsPerHost().entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            appendField(json, entry.getKey(), entry.getValue());
+            first = false;
+        }
+        json.append("}},\"partitions\":[");
+        for (int i = 0; i < partitions.size(); i++) {
+            Partition partition = partitions.get(i);
+            json.append(i == 0 ? "{" : ",{");
+            appendField(json, "tenantId", partition.getTenantId()).append(',');
+            appendField(json, "startKey", partition.getStartKey()).append(',');
+            appendField(json, "endKey", partition.getEndKey()).append(',');
+            appendField(json, "estimatedBytes", partition.getEstimatedBytes()).append(',');
+            appendField(json, "host", partition.getHost()).append(',');
+            appendField(json, "scanCount", partition.getScanCount()).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+
+    private static StringBuilder appendField(StringBuilder json, String name, Object value) {
+        appendString(json, name).append(':');
+        if (value == null) {
+            return json.append("null");
+        }
+        if (value instanceof Number || value instanceof Boolean) {
+            return json.append(value);
+        }
+        return appendString(json, value.toString());
+    }
+
+    private static StringBuilder appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append('"');
+    }
+
+    byte[] toJsonLine() {
+        return (toJson() + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+}
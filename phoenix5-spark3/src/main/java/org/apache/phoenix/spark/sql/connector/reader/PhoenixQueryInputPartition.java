@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.spark.executor.InputMetrics;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.connector.read.InputPartition;
+import org.apache.spark.sql.connector.read.PartitionReader;
+import org.apache.spark.sql.execution.datasources.SparkJdbcUtil;
+import org.apache.spark.sql.types.StructType;
+import scala.collection.Iterator;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Single partition running a whole Phoenix query through JDBC. Used for queries whose plan
+ * cannot be split into independent scans, such as aggregations, joins, ORDER BY or LIMIT,
+ * as running their scans separately would return partial results.
+ */
+public class PhoenixQueryInputPartition implements InputPartition {
+
+    static class Reader implements PartitionReader<InternalRow> {
+
+        private final Connection conn;
+        private final Statement statement;
+        private final ResultSet resultSet;
+        private final Iterator<InternalRow> iterator;
+        private InternalRow currentRow;
+
+        Reader(PhoenixDataSourceReadOptions options, StructType schema) {
+            try {
+                conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + options.getZkUrl(),
+                        options.getEffectiveProps());
+                statement = conn.createStatement();
+                resultSet = statement.executeQuery(options.getSelectStatement());
+                iterator = SparkJdbcUtil.resultSetToSparkInternalRows(resultSet, schema, new InputMetrics());
+            } catch (SQLException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        @Override
+        public boolean next() {
+            if (!iterator.hasNext()) {
+                return false;
+            }
+            currentRow = iterator.next();
+            return true;
+        }
+
+        @Override
+        public InternalRow get() {
+            return currentRow;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                resultSet.close();
+                statement.close();
+                conn.close();
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
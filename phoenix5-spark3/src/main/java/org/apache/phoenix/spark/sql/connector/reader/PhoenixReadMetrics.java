@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.spark.SparkContext;
+import org.apache.spark.util.LongAccumulator;
+
+import java.io.Serializable;
+
+/**
+ * Counters of the partition readers of a read. Spark 3.0 has no custom metrics for DataSource V2
+ * scans, so they are accumulators registered on the driver when the read is planned and shipped
+ * to the executors with its input partitions. They are shown on the stage pages of the Spark UI.
+ */
+public class PhoenixReadMetrics implements Serializable {
+
+    private final LongAccumulator scanRetries;
+    private final LongAccumulator serverPermitWaitMillis;
+
+    PhoenixReadMetrics(LongAccumulator scanRetries, LongAccumulator serverPermitWaitMillis) {
+        this.scanRetries = scanRetries;
+        this.serverPermitWaitMillis = serverPermitWaitMillis;
+    }
+
+    /**
+     * @param source table or query read, appended to the accumulator names
+     */
+    static PhoenixReadMetrics register(SparkContext sparkContext, String source) {
+        return new PhoenixReadMetrics(sparkContext.longAccumulator("phoenix scan retries: " + source),
+                sparkContext.longAccumulator("phoenix server permit wait ms: " + source));
+    }
+
+    void addScanRetry() {
+        scanRetries.add(1);
+    }
+
+    void addServerPermitWait(long millis) {
+        serverPermitWaitMillis.add(millis);
+    }
+
+    /**
+     * @return number of times the partition readers reopened their scanners after a failure
+     */
+    public long getScanRetries() {
+        return scanRetries.value();
+    }
+
+    /**
+     * @return milliseconds the partition readers waited for a RegionServer permit, see the
+     * maxConcurrentPartitionsPerServer option
+     */
+    public long getServerPermitWaitMillis() {
+        return serverPermitWaitMillis.value();
+    }
+}
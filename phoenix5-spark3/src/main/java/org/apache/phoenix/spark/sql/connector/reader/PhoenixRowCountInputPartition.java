@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.connector.read.InputPartition;
+import org.apache.spark.sql.connector.read.PartitionReader;
+
+/**
+ * Partition of a read without projected columns whose row count is already known on the
+ * driver, see {@link org.apache.phoenix.spark.sql.connector.PhoenixApproximateCount}.
+ * It returns that many empty rows without touching HBase. This is only used when the session
+ * extensions are not enabled, PhoenixCountPushDown otherwise returns the count as a single row.
+ */
+public class PhoenixRowCountInputPartition implements InputPartition {
+
+    // Keeps each partition short, Spark still iterates over every row to count them
+    static final long MAX_ROWS_PER_PARTITION = 10000000L;
+
+    private final long rowCount;
+
+    PhoenixRowCountInputPartition(long rowCount) {
+        this.rowCount = rowCount;
+    }
+
+    long getRowCount() {
+        return rowCount;
+    }
+
+    static InputPartition[] split(long rowCount) {
+        int numPartitions = (int) Math.max(1, (rowCount + MAX_ROWS_PER_PARTITION - 1) / MAX_ROWS_PER_PARTITION);
+        InputPartition[] partitions = new InputPartition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            partitions[i] = new PhoenixRowCountInputPartition(
+                    Math.min(MAX_ROWS_PER_PARTITION, rowCount - i * MAX_ROWS_PER_PARTITION));
+        }
+        return partitions;
+    }
+
+    static class Reader implements PartitionReader<InternalRow> {
+
+        private static final InternalRow EMPTY_ROW = new GenericInternalRow(0);
+        private long remaining;
+
+        Reader(PhoenixRowCountInputPartition partition) {
+            this.remaining = partition.getRowCount();
+        }
+
+        @Override
+        public boolean next() {
+            if (remaining <= 0) {
+                return false;
+            }
+            remaining--;
+            return true;
+        }
+
+        @Override
+        public InternalRow get() {
+            return EMPTY_ROW;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -19,28 +19,51 @@ package org.apache.phoenix.spark.sql.connector.reader;
 
 import org.apache.phoenix.schema.PTableImpl;
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
 import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.phoenix.compat.CompatUtil;
 import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.execute.ScanPlan;
 import org.apache.phoenix.iterate.MapReduceParallelScanGrouper;
 import org.apache.phoenix.jdbc.PhoenixConnection;
 import org.apache.phoenix.jdbc.PhoenixStatement;
 import org.apache.phoenix.mapreduce.PhoenixInputSplit;
 import org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil;
-import org.apache.phoenix.query.KeyRange;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.stats.GuidePostsInfo;
+import org.apache.phoenix.schema.stats.GuidePostsKey;
+import org.apache.phoenix.spark.sql.connector.PhoenixApproximateCount;
 import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.phoenix.spark.sql.connector.TenantUtil;
 import org.apache.phoenix.util.ColumnInfo;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
 import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.PrefixByteCodec;
 import org.apache.phoenix.util.QueryUtil;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.spark.sql.SparkSession;
 import org.apache.spark.sql.connector.read.Batch;
 import org.apache.spark.sql.connector.read.Scan;
 import org.apache.spark.sql.connector.read.InputPartition;
 import org.apache.spark.sql.connector.read.PartitionReaderFactory;
+import org.apache.spark.sql.connector.read.SupportsReportPartitioning;
+import org.apache.spark.sql.connector.read.partitioning.ClusteredDistribution;
+import org.apache.spark.sql.connector.read.partitioning.Distribution;
+import org.apache.spark.sql.connector.read.partitioning.Partitioning;
+import org.apache.spark.sql.types.StructField;
 import org.apache.spark.sql.types.StructType;
 import org.apache.spark.sql.util.CaseInsensitiveStringMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.Statement;
@@ -49,31 +72,64 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.extractPhoenixHBaseConfFromOptions;
 import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
 import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
 
-public class PhoenixScan implements Scan, Batch {
+public class PhoenixScan implements Scan, Batch, SupportsReportPartitioning {
 
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixScan.class);
     private final StructType schema;
     private final CaseInsensitiveStringMap options;
     private final String zkUrl;
     private final Properties overriddenProps;
-    private PhoenixDataSourceReadOptions phoenixDataSourceOptions;
+    private volatile PhoenixDataSourceReadOptions phoenixDataSourceOptions;
     private final String tableName;
     private String currentScnValue;
     private String tenantId;
     private boolean splitByStats;
     private final String whereClause;
+    private final String tenantIds;
+    private final String tenantIdColumn;
+    private final String query;
+    private PhoenixPlanningReport report;
+    private int serverPermits;
+    private final boolean reportOrdering;
+    private PrimaryKeyOrdering ordering = PrimaryKeyOrdering.NONE;
+    private int numPartitions;
+    private PhoenixReadMetrics metrics;
 
     PhoenixScan(StructType schema, CaseInsensitiveStringMap options, String whereClause) {
-        this.schema = schema;
         this.options = options;
         this.whereClause = whereClause;
         this.overriddenProps = extractPhoenixHBaseConfFromOptions(options);
         this.zkUrl = options.get(PhoenixDataSource.ZOOKEEPER_URL);
         tableName = options.get("table");
+        query = options.get(PhoenixDataSource.QUERY);
+        tenantIds = options.get(PhoenixDataSource.TENANT_IDS);
+        String tenantColumn = options.getOrDefault(PhoenixDataSource.TENANT_ID_COLUMN,
+                PhoenixDataSource.DEFAULT_TENANT_ID_COLUMN);
+        if (tenantIds != null && Arrays.asList(schema.fieldNames()).contains(tenantColumn)) {
+            // The tenant id is not read from Phoenix but appended to each row, so keep it last
+            StructType phoenixSchema = new StructType();
+            for (StructField field : schema.fields()) {
+                if (!field.name().equals(tenantColumn)) {
+                    phoenixSchema = phoenixSchema.add(field);
+                }
+            }
+            this.schema = phoenixSchema.add(schema.apply(tenantColumn));
+            this.tenantIdColumn = tenantColumn;
+        } else {
+            this.schema = schema;
+            this.tenantIdColumn = null;
+        }
+        // Tenant partitions and queries are not read in the key order of a single table
+        this.reportOrdering = options.getBoolean(PhoenixDataSource.REPORT_ORDERING, false)
+                && tenantIds == null && query == null;
     }
 
     private void populateOverriddenProperties(){
@@ -90,6 +146,13 @@ public class PhoenixScan implements Scan, Batch {
         }
     }
 
+    /**
+     * @return counters of the partition readers of this read, null until it is planned
+     */
+    public PhoenixReadMetrics getReadMetrics() {
+        return metrics;
+    }
+
     @Override
     public StructType readSchema() {
         return schema;
@@ -108,72 +171,348 @@ public class PhoenixScan implements Scan, Batch {
     @Override
     public InputPartition[] planInputPartitions() {
         populateOverriddenProperties();
+        if (schema.fields().length == 0 && tenantIds == null && query == null
+                && options.getBoolean(PhoenixDataSource.APPROXIMATE_COUNT, false)) {
+            // Nothing is projected, so only the number of rows matters
+            PhoenixApproximateCount count = PhoenixApproximateCount.count(options, whereClause);
+            logger.info("Answering read of " + tableName + " with " + count);
+            return PhoenixRowCountInputPartition.split(count.getCount());
+        }
+        List<InputPartition> partitions = new ArrayList<>();
+        ordering = PrimaryKeyOrdering.NONE;
+        long planningStart = EnvironmentEdgeManager.currentTimeMillis();
+        boolean reportEnabled = options.getBoolean(PhoenixDataSource.PLANNING_REPORT, false)
+                || options.containsKey(PhoenixDataSource.PLANNING_REPORT_PATH);
+        report = reportEnabled ? new PhoenixPlanningReport(query != null ? query : tableName) : null;
+        int maxPerServer = options.getInt(PhoenixDataSource.MAX_CONCURRENT_PARTITIONS_PER_SERVER, 0);
+        serverPermits = maxPerServer > 0 ? ServerConcurrencyLimiter.getPermitsPerExecutor(maxPerServer) : 0;
+        try {
+            if (tenantIds == null) {
+                try (Connection conn = DriverManager.getConnection(
+                        JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, overriddenProps)) {
+                    planPartitions(conn, null, partitions);
+                }
+            } else {
+                List<String> tenants;
+                try (Connection conn = DriverManager.getConnection(
+                        JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, overriddenProps)) {
+                    tenants = TenantUtil.resolveTenantIds(conn, tableName, tenantIds);
+                }
+                // Plan every tenant's key range in this pass so they all run as a single stage
+                int threads = Math.min(tenants.size(), options.getInt(
+                        PhoenixDataSource.TENANT_PLANNING_THREADS, PhoenixDataSource.DEFAULT_TENANT_PLANNING_THREADS));
+                ExecutorService planner = Executors.newFixedThreadPool(Math.max(threads, 1),
+                        new ThreadFactoryBuilder().setNameFormat("phoenix-spark-planner-%d").setDaemon(true).build());
+                try {
+                    List<Future<List<InputPartition>>> planned = new ArrayList<>(tenants.size());
+                    for (String tenant : tenants) {
+                        planned.add(planner.submit(() -> planTenantPartitions(tenant)));
+                    }
+                    // Keep the partitions in tenant order whatever order they were planned in
+                    for (Future<List<InputPartition>> tenantPartitions : planned) {
+                        partitions.addAll(tenantPartitions.get());
+                    }
+                } finally {
+                    planner.shutdownNow();
+                }
+            }
+            if (report != null) {
+                report.setTotalMillis(EnvironmentEdgeManager.currentTimeMillis() - planningStart);
+                publishReport();
+            }
+            if (serverPermits > 0) {
+                // Spark launches the tasks in partition order, spread the first ones over all hosts
+                partitions = ServerConcurrencyLimiter.interleaveByHost(partitions);
+            }
+            if (metrics == null) {
+                metrics = PhoenixReadMetrics.register(SparkSession.active().sparkContext(),
+                        query != null ? query : tableName);
+            }
+            // Cached partitions are shared between reads, each read reports to its own metrics
+            for (int i = 0; i < partitions.size(); i++) {
+                if (partitions.get(i) instanceof PhoenixInputPartition) {
+                    partitions.set(i, ((PhoenixInputPartition) partitions.get(i)).withMetrics(metrics));
+                }
+            }
+            numPartitions = partitions.size();
+            return partitions.toArray(new InputPartition[0]);
+        } catch (Exception e) {
+            throw new RuntimeException("Unable to plan query", e);
+        }
+    }
+
+    private List<InputPartition> planTenantPartitions(String tenant) throws Exception {
+        Properties tenantProps = new Properties();
+        tenantProps.putAll(overriddenProps);
+        tenantProps.put(PhoenixRuntime.TENANT_ID_ATTRIB, tenant);
+        List<InputPartition> tenantPartitions = new ArrayList<>();
         try (Connection conn = DriverManager.getConnection(
-                JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, overriddenProps)) {
-            List<ColumnInfo> columnInfos = PhoenixRuntime.generateColumnInfo(conn, tableName, new ArrayList<>(
-                    Arrays.asList(schema.names())));
-            final Statement statement = conn.createStatement();
-            final String selectStatement = QueryUtil.constructSelectStatement(tableName, columnInfos, whereClause);
-            if (selectStatement == null){
-                throw new NullPointerException();
+                JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl, tenantProps)) {
+            planPartitions(conn, tenant, tenantPartitions);
+        }
+        return tenantPartitions;
+    }
+
+    private void planPartitions(Connection conn, String partitionTenantId, List<InputPartition> partitions)
+            throws Exception {
+        String cacheKey = null;
+        PhoenixPlanningCache planningCache = null;
+        // Cached partitions come without their plan, which the ordering is derived from
+        if (options.getBoolean(PhoenixDataSource.PLANNING_CACHE, false) && !reportOrdering) {
+            planningCache = PhoenixPlanningCache.get(SparkSession.active());
+            cacheKey = PhoenixPlanningCache.getKey(options, schema, whereClause, partitionTenantId);
+            PhoenixPlanningCache.Entry entry = planningCache.get(cacheKey);
+            if (entry != null) {
+                if (entry.isValid(conn)) {
+                    phoenixDataSourceOptions = entry.getReadOptions();
+                    List<PhoenixInputPartition> cachedPartitions = entry.copyPartitions(currentScnValue == null);
+                    partitions.addAll(cachedPartitions);
+                    if (report != null) {
+                        report.setFromCache();
+                        report.addPartitions(cachedPartitions);
+                    }
+                    return;
+                }
+                planningCache.invalidate(cacheKey);
             }
-            final PhoenixStatement pstmt = statement.unwrap(PhoenixStatement.class);
-            // Optimize the query plan so that we potentially use secondary indexes
-            final QueryPlan queryPlan = pstmt.optimizeQuery(selectStatement);
-            final org.apache.hadoop.hbase.client.Scan scan = queryPlan.getContext().getScan();
-
-            // Initialize the query plan so it sets up the parallel scans
-            queryPlan.iterator(MapReduceParallelScanGrouper.getInstance());
-
-            List<KeyRange> allSplits = queryPlan.getSplits();
-            // Get the RegionSizeCalculator
-            PhoenixConnection phxConn = conn.unwrap(PhoenixConnection.class);
-            org.apache.hadoop.hbase.client.Connection connection =
-                    phxConn.getQueryServices().getAdmin().getConnection();
-            RegionLocator regionLocator = connection.getRegionLocator(TableName.valueOf(queryPlan
-                    .getTableRef().getTable().getPhysicalName().toString()));
-
-            final InputPartition[] partitions = new PhoenixInputPartition[allSplits.size()];
-            int partitionCount = 0;
-
-            for (List<org.apache.hadoop.hbase.client.Scan> scans : queryPlan.getScans()) {
-                // Get the region location
-                HRegionLocation location = regionLocator.getRegionLocation(
-                        scans.get(0).getStartRow(),
-                        false
-                );
-
-                String regionLocation = location.getHostname();
-
-                // Get the region size
-                long regionSize = CompatUtil.getSize(regionLocator, connection.getAdmin(), location);
-                byte[] pTableCacheBytes = PTableImpl.toProto(queryPlan.getTableRef().getTable()).
-                    toByteArray();
-                phoenixDataSourceOptions =
-                        new PhoenixDataSourceReadOptions(zkUrl, currentScnValue,
-                                tenantId, selectStatement, overriddenProps, pTableCacheBytes);
-
-                if (splitByStats) {
+        }
+        long compileStart = EnvironmentEdgeManager.currentTimeMillis();
+        final String selectStatement;
+        if (query != null) {
+            selectStatement = query;
+        } else {
+            List<String> columns = new ArrayList<>(Arrays.asList(schema.names()));
+            if (tenantIdColumn != null) {
+                columns.remove(tenantIdColumn);
+            }
+            List<ColumnInfo> columnInfos = PhoenixRuntime.generateColumnInfo(conn, tableName, columns);
+            selectStatement = QueryUtil.constructSelectStatement(tableName, columnInfos, whereClause);
+        }
+        if (selectStatement == null){
+            throw new NullPointerException();
+        }
+        final Statement statement = conn.createStatement();
+        final PhoenixStatement pstmt = statement.unwrap(PhoenixStatement.class);
+        // Optimize the query plan so that we potentially use secondary indexes
+        final QueryPlan queryPlan = pstmt.optimizeQuery(selectStatement);
+        if (query != null && !isParallelizable(queryPlan)) {
+            logger.info("Query cannot be split into independent scans, running it in a single partition: " + query);
+            phoenixDataSourceOptions = new PhoenixDataSourceReadOptions(zkUrl, currentScnValue,
+                    tenantId, selectStatement, overriddenProps, null);
+            partitions.add(new PhoenixQueryInputPartition());
+            return;
+        }
+
+        // Initialize the query plan so it sets up the parallel scans
+        queryPlan.iterator(MapReduceParallelScanGrouper.getInstance());
+        if (report != null) {
+            report.addCompileMillis(EnvironmentEdgeManager.currentTimeMillis() - compileStart);
+            report.addEstimates(queryPlan.getEstimatedBytesToScan(), queryPlan.getEstimatedRowsToScan(),
+                    queryPlan.getEstimateInfoTimestamp());
+        }
+        // Size the scanner RPCs for the width of the projected rows
+        ScanCachingTuner.tune(queryPlan, schema, options);
+
+        // Get the RegionSizeCalculator
+        PhoenixConnection phxConn = conn.unwrap(PhoenixConnection.class);
+        try (Admin admin = phxConn.getQueryServices().getAdmin();
+             RegionLocator regionLocator = admin.getConnection().getRegionLocator(TableName.valueOf(queryPlan
+                     .getTableRef().getTable().getPhysicalName().toString()))) {
+            planScanPartitions(conn, queryPlan, selectStatement, admin, regionLocator, partitionTenantId,
+                    planningCache, cacheKey, partitions);
+        }
+    }
+
+    private void planScanPartitions(Connection conn, QueryPlan queryPlan, String selectStatement, Admin admin,
+                                    RegionLocator regionLocator, String partitionTenantId,
+                                    PhoenixPlanningCache planningCache, String cacheKey,
+                                    List<InputPartition> partitions) throws Exception {
+        byte[] pTableCacheBytes = PTableImpl.toProto(queryPlan.getTableRef().getTable()).
+            toByteArray();
+        phoenixDataSourceOptions =
+                new PhoenixDataSourceReadOptions(zkUrl, currentScnValue,
+                        tenantId, selectStatement, overriddenProps, pTableCacheBytes, tenantIdColumn,
+                        options.getLong(PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES, 0),
+                        options.getInt(PhoenixDataSource.SCAN_RETRIES, 0), serverPermits, reportOrdering);
+        // Tenant partitions carry their own tenant and table metadata
+        byte[] partitionPTableCacheBytes = partitionTenantId == null ? null : pTableCacheBytes;
+        List<PhoenixInputPartition> plannedPartitions = new ArrayList<>();
+
+        PTable table = queryPlan.getTableRef().getTable();
+        GuidePostsInfo stats = conn.unwrap(PhoenixConnection.class).getQueryServices().getTableStats(
+                new GuidePostsKey(table.getPhysicalName().getBytes(), SchemaUtil.getEmptyColumnFamily(table)));
+        List<byte[]> guidePosts = stats == null || stats.isEmptyGuidePost() ? Collections.emptyList()
+                : PrefixByteCodec.decodeBytes(stats.getGuidePosts(), stats.getGuidePostsCount());
+        long[] byteCounts = guidePosts.isEmpty() ? null : stats.getByteCounts();
+
+        long regionLookupMillis = 0;
+        long sizeLookupMillis = 0;
+        for (List<org.apache.hadoop.hbase.client.Scan> scans : queryPlan.getScans()) {
+            long lookupStart = EnvironmentEdgeManager.currentTimeMillis();
+            // Get the region location
+            HRegionLocation location = regionLocator.getRegionLocation(
+                    scans.get(0).getStartRow(),
+                    false
+            );
+
+            String regionLocation = location.getHostname();
+            long sizeStart = EnvironmentEdgeManager.currentTimeMillis();
+            regionLookupMillis += sizeStart - lookupStart;
+
+            // Get the region size, only needed when there are no guideposts to estimate from
+            long regionSize = guidePosts.isEmpty() ? CompatUtil.getSize(regionLocator, admin, location) : 0;
+            sizeLookupMillis += EnvironmentEdgeManager.currentTimeMillis() - sizeStart;
+
+            if (splitByStats) {
+                for (org.apache.hadoop.hbase.client.Scan aScan : scans) {
+                    long estimatedBytes = guidePosts.isEmpty() ? regionSize / scans.size()
+                            : estimateBytes(guidePosts, byteCounts, aScan);
+                    plannedPartitions.add(new PhoenixInputPartition(
+                            new PhoenixInputSplit(Collections.singletonList(aScan), estimatedBytes, regionLocation),
+                            partitionTenantId, partitionPTableCacheBytes));
+                }
+            } else {
+                long estimatedBytes = regionSize;
+                if (!guidePosts.isEmpty()) {
                     for (org.apache.hadoop.hbase.client.Scan aScan : scans) {
-                        partitions[partitionCount++] = new PhoenixInputPartition(
-                                new PhoenixInputSplit(Collections.singletonList(aScan), regionSize, regionLocation));
+                        estimatedBytes += estimateBytes(guidePosts, byteCounts, aScan);
                     }
-                } else {
-                    partitions[partitionCount++] = new PhoenixInputPartition(
-                            new PhoenixInputSplit(scans, regionSize, regionLocation));
                 }
+                plannedPartitions.add(new PhoenixInputPartition(
+                        new PhoenixInputSplit(scans, estimatedBytes, regionLocation),
+                        partitionTenantId, partitionPTableCacheBytes));
+            }
+        }
+        partitions.addAll(plannedPartitions);
+        if (reportOrdering) {
+            ordering = PrimaryKeyOrdering.of(conn, queryPlan, schema, plannedPartitions);
+        }
+        if (report != null) {
+            report.addRegionLookupMillis(regionLookupMillis);
+            report.addSizeLookupMillis(sizeLookupMillis);
+            report.addPartitions(plannedPartitions);
+        }
+        if (cacheKey != null) {
+            String logicalTableName = tableName != null ? tableName
+                    : queryPlan.getTableRef().getTable().getName().getString();
+            planningCache.put(cacheKey, new PhoenixPlanningCache.Entry(plannedPartitions,
+                    phoenixDataSourceOptions, logicalTableName,
+                    PhoenixRuntime.getTableNoCache(conn, logicalTableName).getTimeStamp(),
+                    queryPlan.getTableRef().getTable().getPhysicalName().getString(),
+                    regionLocator.getStartKeys()));
+        }
+    }
+
+    /**
+     * Sums the bytes of the guidepost chunks the scan overlaps. The chunk ending at guidepost i
+     * starts after guidepost i - 1, the rows after the last guidepost are not counted.
+     */
+    @VisibleForTesting
+    static long estimateBytes(List<byte[]> guidePosts, long[] byteCounts,
+                              org.apache.hadoop.hbase.client.Scan scan) {
+        byte[] startRow = scan.getStartRow();
+        byte[] stopRow = scan.getStopRow();
+        long bytes = 0;
+        for (int i = 0; i < guidePosts.size(); i++) {
+            if (stopRow.length > 0 && i > 0 && Bytes.compareTo(guidePosts.get(i - 1), stopRow) >= 0) {
+                break;
+            }
+            if (Bytes.compareTo(guidePosts.get(i), startRow) > 0) {
+                bytes += byteCounts[i];
+            }
+        }
+        return bytes;
+    }
+
+    private void publishReport() {
+        PhoenixPlanningReport.setLatest(report);
+        String json = report.toJson();
+        logger.info("Planning report: " + json);
+        String path = options.get(PhoenixDataSource.PLANNING_REPORT_PATH);
+        if (path != null) {
+            try {
+                Files.write(Paths.get(path), report.toJsonLine(),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                // The report is a diagnostic, never fail the read because of it
+                logger.warn("Unable to write the planning report to " + path, e);
             }
-            return partitions;
-        } catch (Exception e) {
-            throw new RuntimeException("Unable to plan query", e);
         }
     }
 
+    /**
+     * @return the planning report of this scan, null unless the planningReport option is set
+     */
+    public PhoenixPlanningReport getPlanningReport() {
+        return report;
+    }
+
+    /**
+     * @return whether the reportOrdering option applies to this scan
+     */
+    public boolean isOrderingReported() {
+        return reportOrdering;
+    }
+
+    /**
+     * @return leading primary key columns the rows of each partition are sorted on, empty if
+     * none or if the partitions are not planned yet
+     */
+    public String[] getOrderingColumns() {
+        return ordering.getColumns();
+    }
+
+    /**
+     * @return for each of the ordering columns, whether it is sorted in descending order
+     */
+    public boolean[] getOrderingDescending() {
+        return ordering.getDescending();
+    }
+
+    @Override
+    public Partitioning outputPartitioning() {
+        final String[] keyColumns = ordering.getKeyColumns();
+        final int partitionCount = numPartitions;
+        return new Partitioning() {
+            @Override
+            public int numPartitions() {
+                return partitionCount;
+            }
+
+            @Override
+            public boolean satisfy(Distribution distribution) {
+                // Rows with the same full primary key are the same row, so are never split
+                return keyColumns != null && distribution instanceof ClusteredDistribution
+                        && Arrays.asList(((ClusteredDistribution) distribution).clusteredColumns)
+                        .containsAll(Arrays.asList(keyColumns));
+            }
+        };
+    }
+
+    /**
+     * @return whether the rows of the query are the union of the rows of its scans, so the scans
+     * can be read by separate partitions. Aggregations, joins, ORDER BY and LIMIT are only
+     * complete once the results of all the scans are combined on the client.
+     */
+    private static boolean isParallelizable(QueryPlan queryPlan) {
+        return queryPlan instanceof ScanPlan
+                && queryPlan.getLimit() == null
+                && queryPlan.getOffset() == null
+                && queryPlan.getOrderBy().getOrderByExpressions().isEmpty();
+    }
+
     @Override
     public PartitionReaderFactory createReaderFactory() {
         return new PhoenixPartitionReadFactory(phoenixDataSourceOptions, schema);
     }
 
+    /**
+     * @return Phoenix WHERE clause of the filters pushed to this scan, empty if none
+     */
+    public String getWhereClause() {
+        return whereClause;
+    }
+
     @VisibleForTesting
     PhoenixDataSourceReadOptions getOptions() {
         return phoenixDataSourceOptions;
@@ -19,6 +19,7 @@ package org.apache.phoenix.spark.sql.connector.reader;
 
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.spark.FilterExpressionCompiler;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
 import org.apache.spark.sql.connector.read.Scan;
 import org.apache.spark.sql.connector.read.ScanBuilder;
 import org.apache.spark.sql.connector.read.SupportsPushDownFilters;
@@ -28,6 +29,10 @@ import org.apache.spark.sql.types.StructType;
 import org.apache.spark.sql.util.CaseInsensitiveStringMap;
 import scala.Tuple3;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 public class PhoenixScanBuilder implements ScanBuilder, SupportsPushDownFilters, SupportsPushDownRequiredColumns {
 
     private StructType schema;
@@ -47,10 +52,30 @@ public class PhoenixScanBuilder implements ScanBuilder, SupportsPushDownFilters,
 
     @Override
     public Filter[] pushFilters(Filter[] filters) {
+        if (options.get(PhoenixDataSource.QUERY) != null) {
+            // Columns of a query can be expressions or aliases, Spark evaluates the filters
+            return filters;
+        }
+        // The tenant id column of a multi-tenant read does not exist in Phoenix, Spark evaluates those filters
+        List<Filter> postScanFilters = new ArrayList<>();
+        if (options.get(PhoenixDataSource.TENANT_IDS) != null) {
+            String tenantIdColumn = options.getOrDefault(PhoenixDataSource.TENANT_ID_COLUMN,
+                    PhoenixDataSource.DEFAULT_TENANT_ID_COLUMN);
+            List<Filter> phoenixFilters = new ArrayList<>();
+            for (Filter filter : filters) {
+                if (Arrays.asList(filter.references()).contains(tenantIdColumn)) {
+                    postScanFilters.add(filter);
+                } else {
+                    phoenixFilters.add(filter);
+                }
+            }
+            filters = phoenixFilters.toArray(new Filter[0]);
+        }
         Tuple3<String, Filter[], Filter[]> tuple3 = new FilterExpressionCompiler().pushFilters(filters);
         whereClause = tuple3._1();
         pushedFilters = tuple3._3();
-        return tuple3._2();
+        postScanFilters.addAll(Arrays.asList(tuple3._2()));
+        return postScanFilters.toArray(new Filter[0]);
     }
 
     @Override
@@ -60,7 +85,10 @@ public class PhoenixScanBuilder implements ScanBuilder, SupportsPushDownFilters,
 
     @Override
     public void pruneColumns(StructType requiredSchema) {
-        this.schema = requiredSchema;
+        // The projection of a query is given by the query itself
+        if (options.get(PhoenixDataSource.QUERY) == null) {
+            this.schema = requiredSchema;
+        }
     }
 
     @VisibleForTesting
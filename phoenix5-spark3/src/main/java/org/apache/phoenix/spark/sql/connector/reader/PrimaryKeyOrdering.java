@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.execute.ScanPlan;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableType;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.spark.sql.types.StructType;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Primary key order of the rows a partition reader returns. Phoenix row keys sort the same way
+ * as the Spark values of the key columns, and the scans of a partition cover a single region in
+ * key order, so each partition is sorted on the leading key columns that are read.
+ *
+ * Salted tables are sorted on the salt byte first, so their partitions are only sorted on the
+ * key columns when each of them stays within a single salt bucket. Reads through an index are
+ * in index order and report no ordering.
+ */
+class PrimaryKeyOrdering {
+
+    static final PrimaryKeyOrdering NONE = new PrimaryKeyOrdering(new String[0], new boolean[0], null);
+
+    private final String[] columns;
+    private final boolean[] descending;
+    private final String[] keyColumns;
+
+    private PrimaryKeyOrdering(String[] columns, boolean[] descending, String[] keyColumns) {
+        this.columns = columns;
+        this.descending = descending;
+        this.keyColumns = keyColumns;
+    }
+
+    /**
+     * @return leading key columns each partition is sorted on
+     */
+    String[] getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return for each of the sorted columns, whether it is in descending order
+     */
+    boolean[] getDescending() {
+        return descending;
+    }
+
+    /**
+     * @return all the key columns, when they are all read, or null. Each combination of their
+     * values is a single row, so it is always within a single partition.
+     */
+    String[] getKeyColumns() {
+        return keyColumns;
+    }
+
+    /**
+     * @param conn connection the plan was compiled with
+     * @param queryPlan initialized plan of the read
+     * @param schema columns read
+     * @param partitions partitions planned from the scans of the plan
+     * @return the ordering the partitions are read in
+     */
+    static PrimaryKeyOrdering of(Connection conn, QueryPlan queryPlan, StructType schema,
+                                 List<PhoenixInputPartition> partitions) throws SQLException {
+        PTable table = queryPlan.getTableRef().getTable();
+        if (!(queryPlan instanceof ScanPlan) || table.getType() == PTableType.INDEX) {
+            return NONE;
+        }
+        List<PColumn> pkColumns = table.getPKColumns();
+        int first = table.getBucketNum() != null ? 1 : 0;
+        // The tenant id of a tenant-specific connection is the same for every row
+        if (table.isMultiTenant() && conn.unwrap(PhoenixConnection.class).getTenantId() != null) {
+            first++;
+        }
+        List<String> readColumns = Arrays.asList(schema.names());
+        List<String> keyColumns = new ArrayList<>();
+        for (int i = first; i < pkColumns.size(); i++) {
+            String name = pkColumns.get(i).getName().getString();
+            if (!readColumns.contains(name)) {
+                break;
+            }
+            keyColumns.add(name);
+        }
+        String[] allKeyColumns = keyColumns.size() == pkColumns.size() - first
+                ? keyColumns.toArray(new String[0]) : null;
+        if (table.getBucketNum() != null && !isSingleBucketPerPartition(partitions, table.getBucketNum())) {
+            return new PrimaryKeyOrdering(new String[0], new boolean[0], allKeyColumns);
+        }
+
+        List<String> columns = new ArrayList<>();
+        List<Boolean> descending = new ArrayList<>();
+        for (int i = 0; i < keyColumns.size(); i++) {
+            PColumn column = pkColumns.get(first + i);
+            boolean desc = column.getSortOrder() == SortOrder.DESC;
+            // Arrays do not sort like their row key encoding, and neither do nulls of descending
+            // columns, whose position depends on the type
+            if (column.getDataType().isArrayType() || (desc && column.isNullable())) {
+                break;
+            }
+            columns.add(keyColumns.get(i));
+            descending.add(desc);
+        }
+        boolean[] descendingArray = new boolean[descending.size()];
+        for (int i = 0; i < descendingArray.length; i++) {
+            descendingArray[i] = descending.get(i);
+        }
+        return new PrimaryKeyOrdering(columns.toArray(new String[0]), descendingArray, allKeyColumns);
+    }
+
+    private static boolean isSingleBucketPerPartition(List<PhoenixInputPartition> partitions, int buckets) {
+        for (PhoenixInputPartition partition : partitions) {
+            if (!isSingleBucket(partition.getPhoenixInputSplit().value().getScans(), buckets)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether all the rows of the scans of a salted table have the same salt byte
+     */
+    static boolean isSingleBucket(List<Scan> scans, int buckets) {
+        int bucket = -1;
+        for (Scan scan : scans) {
+            byte[] startRow = scan.getStartRow();
+            byte[] stopRow = scan.getStopRow();
+            int startBucket = startRow.length == 0 ? 0 : startRow[0] & 0xFF;
+            int lastBucket;
+            if (stopRow.length == 0) {
+                lastBucket = buckets - 1;
+            } else if (isBucketStart(stopRow)) {
+                // The stop row is exclusive, so the scan ends with the previous bucket
+                lastBucket = (stopRow[0] & 0xFF) - 1;
+            } else {
+                lastBucket = stopRow[0] & 0xFF;
+            }
+            if (startBucket != lastBucket || (bucket != -1 && bucket != startBucket)) {
+                return false;
+            }
+            bucket = startBucket;
+        }
+        return true;
+    }
+
+    private static boolean isBucketStart(byte[] row) {
+        for (int i = 1; i < row.length; i++) {
+            if (row[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.phoenix.compat.CompatUtil;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.schema.StaleRegionBoundaryCacheException;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides when a partition reader drops the cached region locations of a table. The executor's
+ * HBase connection is shared by all its partitions, so clearing the cache for every partition
+ * makes each of them look the table up in hbase:meta again. Locations are instead kept until a
+ * scanner reports a moved or split region, or the location planned on the driver disagrees with
+ * the cached one, and a table's cache is cleared at most once per interval on an executor.
+ */
+class RegionLocationCachePolicy {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegionLocationCachePolicy.class);
+    static final long MIN_CLEAR_INTERVAL_MS = 10000;
+    private static final Map<TableName, Long> LAST_CLEARED = new ConcurrentHashMap<>();
+
+    private RegionLocationCachePolicy() {
+        // Not to be instantiated
+    }
+
+    /**
+     * Clears the cached locations of the table if the region of the partition is cached on
+     * another host than the one the driver planned it on
+     * @param plannedHost host the driver found the region on, null if unknown
+     */
+    static void checkPlannedLocation(ConnectionQueryServices services, byte[] physicalTableName,
+                                     byte[] startRow, String plannedHost) throws SQLException {
+        if (plannedHost == null) {
+            return;
+        }
+        HRegionLocation cached = services.getTableRegionLocation(physicalTableName, startRow);
+        if (cached != null && !plannedHost.equals(cached.getHostname())) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Region of " + CompatUtil.getTableName(physicalTableName) + " was planned on "
+                        + plannedHost + " but is cached on " + cached.getHostname());
+            }
+            invalidate(services, physicalTableName);
+        }
+    }
+
+    /**
+     * Clears the cached locations of the table, unless they were cleared on this executor less
+     * than {@link #MIN_CLEAR_INTERVAL_MS} ago
+     */
+    static void invalidate(ConnectionQueryServices services, byte[] physicalTableName) throws SQLException {
+        TableName tableName = CompatUtil.getTableName(physicalTableName);
+        long now = EnvironmentEdgeManager.currentTimeMillis();
+        Long lastCleared = LAST_CLEARED.get(tableName);
+        if (lastCleared != null && now - lastCleared < MIN_CLEAR_INTERVAL_MS) {
+            return;
+        }
+        LAST_CLEARED.put(tableName, now);
+        services.clearTableRegionCache(tableName);
+    }
+
+    /**
+     * @return whether the failure comes from a region that moved or split since its location was cached
+     */
+    static boolean isStaleLocation(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NotServingRegionException
+                    || cause instanceof StaleRegionBoundaryCacheException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
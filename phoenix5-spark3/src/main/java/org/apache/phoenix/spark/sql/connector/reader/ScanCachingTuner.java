@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.phoenix.compile.QueryPlan;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Sizes the scanner RPCs of a read from the estimated width of the projected rows. Narrow
+ * projections get a large scanner caching so they need fewer round trips, wide ones a small
+ * caching so a single response does not exhaust the RegionServer or client memory. The max
+ * result size caps every response at the target size whatever the estimate.
+ *
+ * Scan batching is left alone: Phoenix scanners need whole rows, so the max result size is
+ * what bounds the responses of very wide rows. With a partition memory limit, the target and
+ * the max result size are capped at half the limit, leaving the other half to the row being
+ * converted for Spark.
+ */
+class ScanCachingTuner {
+
+    private static final Logger logger = LoggerFactory.getLogger(ScanCachingTuner.class);
+    // Per cell overhead of the HBase KeyValue format: lengths, family, qualifier, timestamp and type
+    static final int CELL_OVERHEAD_BYTES = 32;
+    static final int MIN_CACHING = 1;
+    static final int MAX_CACHING = 10000;
+
+    private ScanCachingTuner() {
+        // Not to be instantiated
+    }
+
+    /**
+     * Applies the scanner caching and max result size of the read options to all the scans of
+     * the already initialized query plan
+     */
+    static void tune(QueryPlan queryPlan, StructType projectedSchema, CaseInsensitiveStringMap options)
+            throws SQLException {
+        long rowWidth = estimateRowWidth(projectedSchema, queryPlan.getEstimatedBytesToScan(),
+                queryPlan.getEstimatedRowsToScan(), queryPlan.getTableRef().getTable().getColumns().size());
+        tune(queryPlan.getScans(), rowWidth, options);
+    }
+
+    /**
+     * Applies the scanner caching and max result size of the read options to the scans
+     * @param rowWidth estimated width of the projected rows, see {@link #estimateRowWidth}
+     */
+    static void tune(List<List<Scan>> scanGroups, long rowWidth, CaseInsensitiveStringMap options) {
+        Integer caching = options.containsKey(PhoenixDataSource.SCAN_CACHING)
+                ? Integer.valueOf(options.getInt(PhoenixDataSource.SCAN_CACHING, 0)) : null;
+        Long maxResultSize = options.containsKey(PhoenixDataSource.SCAN_MAX_RESULT_SIZE)
+                ? Long.valueOf(options.getLong(PhoenixDataSource.SCAN_MAX_RESULT_SIZE, 0)) : null;
+        // Off by default, reads keep the scanner caching of the client configuration
+        boolean autoTune = options.getBoolean(PhoenixDataSource.SCAN_AUTO_TUNE, false);
+        long rpcBytesLimit = options.getLong(PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES, 0) / 2;
+        if (rpcBytesLimit > 0 && (maxResultSize == null || maxResultSize > rpcBytesLimit)) {
+            maxResultSize = rpcBytesLimit;
+        }
+        if (autoTune) {
+            long targetBytes = options.getLong(PhoenixDataSource.SCAN_TARGET_RPC_BYTES,
+                    PhoenixDataSource.DEFAULT_SCAN_TARGET_RPC_BYTES);
+            if (rpcBytesLimit > 0) {
+                targetBytes = Math.min(targetBytes, rpcBytesLimit);
+            }
+            if (caching == null) {
+                caching = computeCaching(targetBytes, rowWidth);
+            }
+            if (maxResultSize == null) {
+                maxResultSize = targetBytes;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Estimated row width of " + rowWidth + " bytes, using scanner caching "
+                        + caching + " and max result size " + maxResultSize);
+            }
+        }
+        for (List<Scan> scans : scanGroups) {
+            for (Scan scan : scans) {
+                if (caching != null) {
+                    scan.setCaching(caching);
+                }
+                if (maxResultSize != null) {
+                    scan.setMaxResultSize(maxResultSize);
+                }
+            }
+        }
+    }
+
+    /**
+     * Estimates the size of a projected row as returned by the RegionServer. When statistics are
+     * available the average stored row width is scaled down to the projected columns, otherwise
+     * the width is derived from the Spark types of the projection.
+     * @param projectedSchema columns read
+     * @param estimatedBytes bytes to scan according to the statistics, or null
+     * @param estimatedRows rows to scan according to the statistics, or null
+     * @param tableColumns number of columns of the table
+     * @return estimated width in bytes, at least 1
+     */
+    static long estimateRowWidth(StructType projectedSchema, Long estimatedBytes, Long estimatedRows,
+                                 int tableColumns) {
+        int projectedColumns = Math.max(1, projectedSchema.fields().length);
+        if (estimatedBytes != null && estimatedRows != null && estimatedRows > 0 && tableColumns > 0) {
+            long storedRowWidth = estimatedBytes / estimatedRows;
+            return Math.max(1, storedRowWidth * Math.min(projectedColumns, tableColumns) / tableColumns);
+        }
+        long width = 0;
+        for (StructField field : projectedSchema.fields()) {
+            width += field.dataType().defaultSize() + CELL_OVERHEAD_BYTES;
+        }
+        return Math.max(1, width);
+    }
+
+    static int computeCaching(long targetBytes, long rowWidth) {
+        long caching = targetBytes / Math.max(1, rowWidth);
+        return (int) Math.max(MIN_CACHING, Math.min(MAX_CACHING, caching));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.apache.spark.SparkConf;
+import org.apache.spark.SparkContext;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.connector.read.InputPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Caps the number of partitions reading from the same RegionServer at once. The driver orders
+ * the partitions so consecutive ones are on different hosts, and splits the cap of the read
+ * between the executors. Each executor then hands out its share of permits per host to its
+ * partition readers, which wait for one before opening their scanners.
+ *
+ * The cap is not coordinated between executors, so it is approximate: every executor gets at
+ * least one permit per host, and the executors are counted when the read is planned. With
+ * dynamic allocation the share is computed for the maximum number of executors, when set, so
+ * executors added during the read stay within the cap. The bound actually enforced is logged.
+ */
+class ServerConcurrencyLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServerConcurrencyLimiter.class);
+
+    private static final Map<String, Semaphore> PERMITS = new ConcurrentHashMap<>();
+
+    private ServerConcurrencyLimiter() {
+        // Not to be instantiated
+    }
+
+    /**
+     * @return partitions ordered round robin over their preferred hosts
+     */
+    static List<InputPartition> interleaveByHost(List<InputPartition> partitions) {
+        Map<String, Iterator<InputPartition>> byHost = new LinkedHashMap<>();
+        Map<String, List<InputPartition>> groups = new LinkedHashMap<>();
+        for (InputPartition partition : partitions) {
+            String host = partition instanceof PhoenixInputPartition
+                    ? getHost((PhoenixInputPartition) partition) : null;
+            groups.computeIfAbsent(host, h -> new ArrayList<>()).add(partition);
+        }
+        for (Map.Entry<String, List<InputPartition>> group : groups.entrySet()) {
+            byHost.put(group.getKey(), group.getValue().iterator());
+        }
+        List<InputPartition> interleaved = new ArrayList<>(partitions.size());
+        while (interleaved.size() < partitions.size()) {
+            for (Iterator<InputPartition> it : byHost.values()) {
+                if (it.hasNext()) {
+                    interleaved.add(it.next());
+                }
+            }
+        }
+        return interleaved;
+    }
+
+    /**
+     * @return RegionServer the partition was planned on, null if unknown
+     */
+    static String getHost(PhoenixInputPartition partition) {
+        try {
+            String[] locations = partition.getPhoenixInputSplit().value().getLocations();
+            return locations.length == 0 ? null : locations[0];
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return share of the cluster-wide cap of each executor, at least 1
+     */
+    static int getPermitsPerExecutor(int maxPerServer) {
+        SparkContext sc = SparkSession.active().sparkContext();
+        // The block managers include the driver's
+        int executors = countExecutors(sc.getConf(), sc.isLocal(), sc.getExecutorMemoryStatus().size() - 1);
+        int permits = getPermitsPerExecutor(maxPerServer, executors);
+        long bound = (long) permits * executors;
+        if (bound > maxPerServer) {
+            logger.warn(PhoenixDataSource.MAX_CONCURRENT_PARTITIONS_PER_SERVER + " of " + maxPerServer
+                    + " is approximate, " + permits + " permits per RegionServer on each of " + executors
+                    + " executors allow up to " + bound + " partitions per RegionServer at once");
+        } else {
+            logger.info("Allowing " + permits + " partitions per RegionServer on each of " + executors
+                    + " executors for a " + PhoenixDataSource.MAX_CONCURRENT_PARTITIONS_PER_SERVER + " of "
+                    + maxPerServer);
+        }
+        return permits;
+    }
+
+    static int getPermitsPerExecutor(int maxPerServer, int executors) {
+        return Math.max(1, (maxPerServer + executors - 1) / executors);
+    }
+
+    /**
+     * @param registered executors currently registered with the driver
+     * @return executors the cap is split between, the maximum of dynamic allocation if set
+     */
+    static int countExecutors(SparkConf conf, boolean local, int registered) {
+        if (local) {
+            return 1;
+        }
+        if (conf.getBoolean("spark.dynamicAllocation.enabled", false)) {
+            int maxExecutors = conf.getInt("spark.dynamicAllocation.maxExecutors", Integer.MAX_VALUE);
+            if (maxExecutors < Integer.MAX_VALUE) {
+                return Math.max(1, maxExecutors);
+            }
+            logger.warn("spark.dynamicAllocation.maxExecutors is not set, splitting "
+                    + PhoenixDataSource.MAX_CONCURRENT_PARTITIONS_PER_SERVER + " between the " + registered
+                    + " executors registered now, executors added later exceed it");
+        }
+        return Math.max(1, registered);
+    }
+
+    /**
+     * Blocks until a permit for the host is available
+     * @return milliseconds spent waiting
+     */
+    static long acquire(String host, int permits) throws InterruptedException {
+        Semaphore semaphore = PERMITS.computeIfAbsent(key(host, permits), k -> new Semaphore(permits, true));
+        if (semaphore.tryAcquire()) {
+            return 0;
+        }
+        long start = EnvironmentEdgeManager.currentTimeMillis();
+        semaphore.acquire();
+        return EnvironmentEdgeManager.currentTimeMillis() - start;
+    }
+
+    static void release(String host, int permits) {
+        PERMITS.get(key(host, permits)).release();
+    }
+
+    // Reads with different caps do not share permits
+    private static String key(String host, int permits) {
+        return host + "/" + permits;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.spark.sql.connector.write.WriterCommitMessage;
+
+/**
+ * Sizes of the batches committed by a task, in rows and in estimated bytes of mutations, and how
+ * much the task was throttled. Logged by the task when it commits and sent to the driver, which
+ * logs the totals of the write.
+ */
+class PhoenixBatchStats implements WriterCommitMessage {
+
+    private long batches = 0;
+    private long rows = 0;
+    private long bytes = 0;
+    private long minRows = Long.MAX_VALUE;
+    private long maxRows = 0;
+    private long minBytes = Long.MAX_VALUE;
+    private long maxBytes = 0;
+    private long throttleDelayMillis = 0;
+    private long pushbacks = 0;
+    private long slowBatches = 0;
+
+    void addBatch(long batchRows, long batchBytes) {
+        if (batchRows == 0) {
+            return;
+        }
+        batches++;
+        rows += batchRows;
+        bytes += batchBytes;
+        minRows = Math.min(minRows, batchRows);
+        maxRows = Math.max(maxRows, batchRows);
+        minBytes = Math.min(minBytes, batchBytes);
+        maxBytes = Math.max(maxBytes, batchBytes);
+    }
+
+    /**
+     * @param millis time waited for the throttle before a batch
+     */
+    void addThrottleDelay(long millis) {
+        throttleDelayMillis += millis;
+    }
+
+    /**
+     * Records a batch refused by busy regions or RegionServers
+     */
+    void addPushback() {
+        pushbacks++;
+    }
+
+    /**
+     * Records a batch whose latency slowed the writes down
+     */
+    void addSlowBatch() {
+        slowBatches++;
+    }
+
+    void merge(PhoenixBatchStats other) {
+        throttleDelayMillis += other.throttleDelayMillis;
+        pushbacks += other.pushbacks;
+        slowBatches += other.slowBatches;
+        if (other.batches == 0) {
+            return;
+        }
+        batches += other.batches;
+        rows += other.rows;
+        bytes += other.bytes;
+        minRows = Math.min(minRows, other.minRows);
+        maxRows = Math.max(maxRows, other.maxRows);
+        minBytes = Math.min(minBytes, other.minBytes);
+        maxBytes = Math.max(maxBytes, other.maxBytes);
+    }
+
+    long getBatches() {
+        return batches;
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getThrottleDelayMillis() {
+        return throttleDelayMillis;
+    }
+
+    long getPushbacks() {
+        return pushbacks;
+    }
+
+    long getSlowBatches() {
+        return slowBatches;
+    }
+
+    @Override
+    public String toString() {
+        String batchSizes = batches == 0 ? "0 batches" : batches + " batches, " + rows + " rows and " + bytes
+                + " bytes, rows per batch min/avg/max " + minRows + "/" + rows / batches + "/" + maxRows
+                + ", bytes per batch min/avg/max " + minBytes + "/" + bytes / batches + "/" + maxBytes;
+        if (throttleDelayMillis == 0 && pushbacks == 0 && slowBatches == 0) {
+            return batchSizes;
+        }
+        return batchSizes + ", throttled for " + throttleDelayMillis + " ms after " + pushbacks
+                + " pushbacks and " + slowBatches + " slow batches";
+    }
+}
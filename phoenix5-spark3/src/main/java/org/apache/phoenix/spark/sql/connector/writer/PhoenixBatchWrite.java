@@ -17,6 +17,11 @@
  */
 package org.apache.phoenix.spark.sql.connector.writer;
 
+import org.apache.hadoop.fs.Path;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.QueryServices;
+import org.apache.phoenix.query.QueryServicesOptions;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.phoenix.util.PhoenixRuntime;
 import org.apache.spark.sql.connector.write.BatchWrite;
@@ -25,22 +30,45 @@ import org.apache.spark.sql.connector.write.LogicalWriteInfo;
 import org.apache.spark.sql.connector.write.PhysicalWriteInfo;
 import org.apache.spark.sql.connector.write.WriterCommitMessage;
 import org.apache.spark.sql.types.StructType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Locale;
 import java.util.Map;
+import java.util.UUID;
 
 import static org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil.CURRENT_SCN_VALUE;
+import static org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil.DEFAULT_UPSERT_BATCH_SIZE;
+import static org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil.UPSERT_BATCH_SIZE;
 import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.ZOOKEEPER_URL;
 import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.SKIP_NORMALIZING_IDENTIFIER;
 import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.extractPhoenixHBaseConfFromOptions;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
 
 public class PhoenixBatchWrite implements BatchWrite {
 
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixBatchWrite.class);
+    private static final long DEFAULT_MAX_THROTTLE_DELAY_MS = 10000;
+    private static final String DEFAULT_BULK_LOAD_BUFFER_MB = "256";
+
     private final PhoenixDataSourceWriteOptions options;
     private final LogicalWriteInfo writeInfo;
+    // Whether the write disabled the WAL of the table and enables it again when it ends
+    private final boolean restoreWal;
+    // Whether the HFiles of a bulk load are kept on abort, once their load started
+    private volatile boolean keepBulkLoadFiles = false;
 
     PhoenixBatchWrite(LogicalWriteInfo writeInfo, Map<String,String> options) {
         this.writeInfo = writeInfo;
         this.options = createPhoenixDataSourceWriteOptions(options, writeInfo.schema());
+        // HFiles of bulk loads are not written to the WAL anyway
+        this.restoreWal = Boolean.parseBoolean(options.getOrDefault(PhoenixDataSource.DISABLE_WAL,
+                Boolean.toString(false)))
+                && !PhoenixDataSource.WRITE_MODE_BULKLOAD.equals(this.options.getWriteMode())
+                && PhoenixWalToggle.disable(this.options);
     }
 
     @Override
@@ -50,10 +78,33 @@ public class PhoenixBatchWrite implements BatchWrite {
 
     @Override
     public void commit(WriterCommitMessage[] messages) {
+        PhoenixBatchStats stats = new PhoenixBatchStats();
+        for (WriterCommitMessage message : messages) {
+            if (message instanceof PhoenixBatchStats) {
+                stats.merge((PhoenixBatchStats) message);
+            }
+        }
+        if (stats.getBatches() > 0) {
+            logger.info("Wrote " + options.getTableName() + " in " + stats);
+        }
+        if (PhoenixDataSource.WRITE_MODE_BULKLOAD.equals(options.getWriteMode())) {
+            // Spark aborts the write if the load fails, when part of the files may be loaded
+            keepBulkLoadFiles = true;
+            PhoenixBulkLoader.load(options, messages);
+        }
+        if (restoreWal) {
+            PhoenixWalToggle.restore(options, true);
+        }
     }
 
     @Override
     public void abort(WriterCommitMessage[] messages) {
+        if (PhoenixDataSource.WRITE_MODE_BULKLOAD.equals(options.getWriteMode()) && !keepBulkLoadFiles) {
+            PhoenixBulkLoader.cleanUp(options);
+        }
+        if (restoreWal) {
+            PhoenixWalToggle.restore(options, false);
+        }
     }
 
     private PhoenixDataSourceWriteOptions createPhoenixDataSourceWriteOptions(Map<String,String> options,
@@ -63,7 +114,14 @@ public class PhoenixBatchWrite implements BatchWrite {
         String zkUrl = options.get(ZOOKEEPER_URL);
         String tableName = options.get("table");
         boolean skipNormalizingIdentifier = Boolean.parseBoolean(options.getOrDefault(SKIP_NORMALIZING_IDENTIFIER, Boolean.toString(false)));
-        return new PhoenixDataSourceWriteOptions.Builder()
+        String writeMode = options.getOrDefault(PhoenixDataSource.WRITE_MODE, PhoenixDataSource.WRITE_MODE_UPSERT)
+                .toLowerCase(Locale.ROOT);
+        if (!writeMode.equals(PhoenixDataSource.WRITE_MODE_UPSERT)
+                && !writeMode.equals(PhoenixDataSource.WRITE_MODE_DIRECT)
+                && !writeMode.equals(PhoenixDataSource.WRITE_MODE_BULKLOAD)) {
+            throw new IllegalArgumentException("Unknown " + PhoenixDataSource.WRITE_MODE + ": " + writeMode);
+        }
+        PhoenixDataSourceWriteOptions.Builder builder = new PhoenixDataSourceWriteOptions.Builder()
                 .setTableName(tableName)
                 .setZkUrl(zkUrl)
                 .setScn(scn)
@@ -71,7 +129,98 @@ public class PhoenixBatchWrite implements BatchWrite {
                 .setSchema(schema)
                 .setSkipNormalizingIdentifier(skipNormalizingIdentifier)
                 .setOverriddenProps(extractPhoenixHBaseConfFromOptions(options))
-                .build();
+                .setWriteMode(writeMode)
+                .setAsyncCommit(Boolean.parseBoolean(options.getOrDefault(PhoenixDataSource.ASYNC_COMMIT,
+                        Boolean.toString(false))));
+        long batchSizeBytes = Long.parseLong(options.getOrDefault(PhoenixDataSource.BATCH_SIZE_BYTES, "0"));
+        if (batchSizeBytes > 0) {
+            batchSizeBytes = clampBatchSizeBytes(tableName, batchSizeBytes, getMaxMutationSize(builder.build(),
+                    QueryServices.MAX_MUTATION_SIZE_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_MAX_MUTATION_SIZE_BYTES));
+            builder.setBatchSizeBytes(batchSizeBytes);
+        }
+        String batchSize = builder.build().getEffectiveProps().getProperty(UPSERT_BATCH_SIZE);
+        builder.setBatchSize(getBatchSize(tableName, batchSize == null ? null : Long.parseLong(batchSize),
+                batchSizeBytes, getMaxMutationSize(builder.build(), QueryServices.MAX_MUTATION_SIZE_ATTRIB,
+                        QueryServicesOptions.DEFAULT_MAX_MUTATION_SIZE)));
+        if (Boolean.parseBoolean(options.getOrDefault(PhoenixDataSource.THROTTLE_WRITES, Boolean.toString(false)))) {
+            builder.setMaxThrottleDelayMillis(Long.parseLong(options.getOrDefault(
+                    PhoenixDataSource.MAX_THROTTLE_DELAY_MS, Long.toString(DEFAULT_MAX_THROTTLE_DELAY_MS))));
+        }
+        if (writeMode.equals(PhoenixDataSource.WRITE_MODE_DIRECT)) {
+            String unsupportedReason = PhoenixMutationDataWriter.getUnsupportedReason(builder.build());
+            if (unsupportedReason != null) {
+                logger.warn("Writing " + tableName + " with UPSERT statements instead of "
+                        + PhoenixDataSource.WRITE_MODE_DIRECT + " mutations: " + unsupportedReason);
+                builder.setWriteMode(PhoenixDataSource.WRITE_MODE_UPSERT);
+            }
+        } else if (writeMode.equals(PhoenixDataSource.WRITE_MODE_BULKLOAD)) {
+            String unsupportedReason = PhoenixBulkLoader.getUnsupportedReason(builder.build());
+            if (unsupportedReason != null) {
+                logger.warn("Writing " + tableName + " with UPSERT statements instead of a "
+                        + PhoenixDataSource.WRITE_MODE_BULKLOAD + ": " + unsupportedReason);
+                builder.setWriteMode(PhoenixDataSource.WRITE_MODE_UPSERT);
+            } else {
+                String bulkLoadDir = options.get(PhoenixDataSource.BULK_LOAD_DIR);
+                if (bulkLoadDir == null) {
+                    bulkLoadDir = PhoenixBulkLoader.getDefaultDir(builder.build());
+                }
+                // Each write gets its own directory, deleted once loaded or aborted
+                builder.setBulkLoadDir(new Path(bulkLoadDir, "phoenix-spark-" + UUID.randomUUID()).toString())
+                        .setBulkLoadBufferBytes(Long.parseLong(options.getOrDefault(
+                                PhoenixDataSource.BULK_LOAD_BUFFER_MB, DEFAULT_BULK_LOAD_BUFFER_MB)) << 20);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param batchSizeBytes size of the batches asked for
+     * @param maxMutationBytes phoenix.mutate.maxSizeBytes, over which a connection refuses mutations
+     * @return size of the batches, at most half of maxMutationBytes, leaving room for the row
+     * completing a batch and the mutations of its indexes
+     */
+    static long clampBatchSizeBytes(String tableName, long batchSizeBytes, long maxMutationBytes) {
+        long max = maxMutationBytes / 2;
+        if (batchSizeBytes <= max) {
+            return batchSizeBytes;
+        }
+        logger.warn("Writing " + tableName + " in batches of " + max + " bytes instead of " + batchSizeBytes
+                + ", half of " + QueryServices.MAX_MUTATION_SIZE_BYTES_ATTRIB + "=" + maxMutationBytes);
+        return max;
+    }
+
+    /**
+     * @param batchSize phoenix.mutate.batchSize of the write, null if not set
+     * @param batchSizeBytes size in bytes of the batches, 0 if they are only sized in rows
+     * @param maxMutationRows phoenix.mutate.maxSize, over which a connection refuses mutations
+     * @return number of rows of the batches, at most half of maxMutationRows as with their size
+     * in bytes, 0 for no limit in rows, or 0 or negative as set to commit at the end of the task
+     */
+    static long getBatchSize(String tableName, Long batchSize, long batchSizeBytes, long maxMutationRows) {
+        long max = maxMutationRows / 2;
+        if (batchSize == null) {
+            // Batches sized in bytes are only limited in rows by the connection, for narrow rows
+            return batchSizeBytes > 0 ? max : Math.min(DEFAULT_UPSERT_BATCH_SIZE, max);
+        }
+        if (batchSize <= max) {
+            return batchSize;
+        }
+        logger.warn("Writing " + tableName + " in batches of " + max + " rows instead of " + batchSize
+                + ", half of " + QueryServices.MAX_MUTATION_SIZE_ATTRIB + "=" + maxMutationRows);
+        return max;
+    }
+
+    private static long getMaxMutationSize(PhoenixDataSourceWriteOptions options, String attrib, long defaultValue) {
+        String maxMutationSize = options.getEffectiveProps().getProperty(attrib);
+        if (maxMutationSize != null) {
+            return Long.parseLong(maxMutationSize);
+        }
+        try (PhoenixConnection conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR
+                + options.getZkUrl(), options.getEffectiveProps()).unwrap(PhoenixConnection.class)) {
+            return conn.getQueryServices().getProps().getLong(attrib, defaultValue);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @VisibleForTesting
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.spark.sql.connector.write.WriterCommitMessage;
+
+/**
+ * Directory of the HFiles written by a task of a bulk load
+ */
+class PhoenixBulkLoadCommitMessage implements WriterCommitMessage {
+
+    private final String attemptDir;
+
+    PhoenixBulkLoadCommitMessage(String attemptDir) {
+        this.attemptDir = attemptDir;
+    }
+
+    String getAttemptDir() {
+        return attemptDir;
+    }
+
+    @Override
+    public String toString() {
+        return attemptDir;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.CellComparator;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.PrivateCellUtil;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.ColumnFamilyDescriptor;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.TableDescriptor;
+import org.apache.hadoop.hbase.io.hfile.CacheConfig;
+import org.apache.hadoop.hbase.io.hfile.HFileContextBuilder;
+import org.apache.hadoop.hbase.regionserver.HStoreFile;
+import org.apache.hadoop.hbase.regionserver.StoreFileWriter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.QueryUtil;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.connector.write.DataWriter;
+import org.apache.spark.sql.connector.write.WriterCommitMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil.DEFAULT_UPSERT_BATCH_SIZE;
+import static org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil.UPSERT_BATCH_SIZE;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Writer of the bulk load write mode. Rows are upserted without being committed, and every
+ * UPSERT_BATCH_SIZE rows the cells Phoenix would send, for the table and its indexes, are taken
+ * from the connection and buffered in order, as the CSV bulk load of Phoenix does. Full buffers
+ * are written to HFiles split at the region boundaries of each table, under a directory of the
+ * task attempt that {@link PhoenixBatchWrite#commit} loads into the tables.
+ */
+class PhoenixBulkLoadDataWriter implements DataWriter<InternalRow> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixBulkLoadDataWriter.class);
+
+    // Orders the buffered cells as in HFiles, holding a single cell per column of a row
+    static final Comparator<Cell> COLUMN_COMPARATOR = (a, b) -> {
+        CellComparator comparator = CellComparator.getInstance();
+        int c = comparator.compareRows(a, b);
+        if (c == 0) {
+            c = comparator.compareFamilies(a, b);
+        }
+        return c != 0 ? c : comparator.compareQualifiers(a, b);
+    };
+
+    private final PhoenixConnection conn;
+    private final PreparedStatement statement;
+    private final PhoenixRowBinder binder;
+    private final long batchSize;
+    private final long bufferBytes;
+    private final Configuration conf;
+    private final FileSystem fs;
+    private final Path attemptDir;
+    // Timestamp of the cells buffered until the next flush, later for each flush
+    private long flushTimestamp;
+    private byte[] now;
+    // Cells of each physical table, in order, until written to HFiles
+    private final Map<TableName, NavigableSet<Cell>> cells = new TreeMap<>();
+    private final Map<TableName, byte[][]> regionStartKeys = new HashMap<>();
+    private long bufferedBytes = 0;
+    private long batchRecords = 0;
+    private int numFlushes = 0;
+
+    PhoenixBulkLoadDataWriter(PhoenixDataSourceWriteOptions options, int partitionId, long taskId) {
+        Properties connectionProps = options.getEffectiveProps();
+        try {
+            this.conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + options.getZkUrl(),
+                    connectionProps).unwrap(PhoenixConnection.class);
+            this.conn.setAutoCommit(false);
+            List<String> colNames = new ArrayList<>(Arrays.asList(options.getSchema().names()));
+            if (!options.skipNormalizingIdentifier()) {
+                colNames = colNames.stream().map(SchemaUtil::normalizeIdentifier).collect(Collectors.toList());
+            }
+            this.statement = conn.prepareStatement(
+                    QueryUtil.constructUpsertStatement(options.getTableName(), colNames, null));
+            this.binder = new PhoenixRowBinder(conn, options.getSchema());
+            this.batchSize = Math.max(1, Long.parseLong(connectionProps.getProperty(UPSERT_BATCH_SIZE,
+                    String.valueOf(DEFAULT_UPSERT_BATCH_SIZE))));
+            this.bufferBytes = options.getBulkLoadBufferBytes();
+            this.conf = conn.getQueryServices().getConfiguration();
+            this.attemptDir = new Path(options.getBulkLoadDir(), partitionId + "-" + taskId);
+            this.fs = attemptDir.getFileSystem(conf);
+            // Cells without an explicit timestamp get the time of their flush, as with HFileOutputFormat2
+            this.flushTimestamp = EnvironmentEdgeManager.currentTimeMillis();
+            this.now = Bytes.toBytes(flushTimestamp);
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void write(InternalRow internalRow) throws IOException {
+        try {
+            binder.bind(statement, internalRow);
+            statement.execute();
+            if (++batchRecords >= batchSize) {
+                drainMutations();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Exception while executing Phoenix prepared statement", e);
+        }
+    }
+
+    /**
+     * Adds a cell to the buffer, replacing the cell of the same column buffered before, whatever
+     * their types, so the latest upsert of a cell wins as it would with UPSERTs, for example a
+     * null value upserted after a value
+     */
+    static void addLatest(NavigableSet<Cell> buffer, Cell cell) {
+        if (!buffer.add(cell)) {
+            buffer.remove(cell);
+            buffer.add(cell);
+        }
+    }
+
+    /**
+     * Moves the cells of the uncommitted mutations of the connection to the buffer, writing it
+     * to HFiles when full
+     */
+    private void drainMutations() throws SQLException, IOException {
+        Iterator<Pair<byte[], List<Cell>>> it = PhoenixRuntime.getUncommittedDataIterator(conn, true);
+        while (it.hasNext()) {
+            Pair<byte[], List<Cell>> tableCells = it.next();
+            NavigableSet<Cell> buffer = cells.computeIfAbsent(TableName.valueOf(tableCells.getFirst()),
+                    t -> new TreeSet<>(COLUMN_COMPARATOR));
+            for (Cell cell : tableCells.getSecond()) {
+                PrivateCellUtil.updateLatestStamp(cell, now);
+                addLatest(buffer, cell);
+                bufferedBytes += KeyValueUtil.length(cell);
+            }
+        }
+        conn.rollback();
+        batchRecords = 0;
+        if (bufferedBytes >= bufferBytes) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes the buffered cells to HFiles, one per region and column family of each table
+     */
+    private void flush() throws IOException, SQLException {
+        for (Map.Entry<TableName, NavigableSet<Cell>> tableCells : cells.entrySet()) {
+            writeHFiles(tableCells.getKey(), tableCells.getValue());
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Wrote " + bufferedBytes + " bytes of cells of " + cells.keySet() + " to HFiles");
+        }
+        cells.clear();
+        bufferedBytes = 0;
+        numFlushes++;
+        // The files of a flush may hold the same columns as those of the previous one, which
+        // HBase only orders by timestamp once loaded, so the cells of a later flush must be newer
+        flushTimestamp = Math.max(flushTimestamp + 1, EnvironmentEdgeManager.currentTimeMillis());
+        now = Bytes.toBytes(flushTimestamp);
+    }
+
+    private void writeHFiles(TableName tableName, NavigableSet<Cell> tableCells) throws IOException, SQLException {
+        byte[][] startKeys = getRegionStartKeys(tableName);
+        TableDescriptor descriptor = conn.getQueryServices().getTableDescriptor(tableName.getName());
+        // Table directories are nested by namespace, so that their names have no colon
+        Path tableDir = new Path(new Path(attemptDir, tableName.getNamespaceAsString()), tableName.getQualifierAsString());
+        Map<String, StoreFileWriter> writers = new HashMap<>();
+        byte[] regionEndKey = null;
+        int region = -1;
+        try {
+            for (Cell cell : tableCells) {
+                if (region < 0 || (regionEndKey != null && Bytes.compareTo(cell.getRowArray(), cell.getRowOffset(),
+                        cell.getRowLength(), regionEndKey, 0, regionEndKey.length) >= 0)) {
+                    closeWriters(writers);
+                    region = PhoenixWriteLayout.getRegionIndex(startKeys,
+                            Bytes.copy(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()));
+                    regionEndKey = region + 1 < startKeys.length ? startKeys[region + 1] : null;
+                }
+                String family = Bytes.toString(cell.getFamilyArray(), cell.getFamilyOffset(), cell.getFamilyLength());
+                StoreFileWriter writer = writers.get(family);
+                if (writer == null) {
+                    writer = createWriter(descriptor.getColumnFamily(Bytes.toBytes(family)),
+                            new Path(new Path(tableDir, family), numFlushes + "-" + region));
+                    writers.put(family, writer);
+                }
+                writer.append(cell);
+            }
+        } finally {
+            closeWriters(writers);
+        }
+    }
+
+    private StoreFileWriter createWriter(ColumnFamilyDescriptor family, Path path) throws IOException {
+        return new StoreFileWriter.Builder(conf, CacheConfig.DISABLED, fs)
+                .withFilePath(path)
+                .withBloomType(family.getBloomFilterType())
+                .withComparator(CellComparator.getInstance())
+                .withFileContext(new HFileContextBuilder()
+                        .withCompression(family.getCompressionType())
+                        .withDataBlockEncoding(family.getDataBlockEncoding())
+                        .withBlockSize(family.getBlocksize())
+                        .build())
+                .build();
+    }
+
+    private static void closeWriters(Map<String, StoreFileWriter> writers) throws IOException {
+        for (StoreFileWriter writer : writers.values()) {
+            writer.appendFileInfo(HStoreFile.BULKLOAD_TIME_KEY, Bytes.toBytes(EnvironmentEdgeManager.currentTimeMillis()));
+            writer.appendFileInfo(HStoreFile.MAJOR_COMPACTION_KEY, Bytes.toBytes(false));
+            writer.appendTrackedTimestampsToMetadata();
+            writer.close();
+        }
+        writers.clear();
+    }
+
+    private byte[][] getRegionStartKeys(TableName tableName) throws IOException, SQLException {
+        byte[][] startKeys = regionStartKeys.get(tableName);
+        if (startKeys == null) {
+            try (Admin admin = conn.getQueryServices().getAdmin();
+                 RegionLocator regionLocator = admin.getConnection().getRegionLocator(tableName)) {
+                startKeys = regionLocator.getStartKeys();
+            }
+            if (startKeys.length == 0) {
+                startKeys = new byte[][] { HConstants.EMPTY_START_ROW };
+            }
+            regionStartKeys.put(tableName, startKeys);
+        }
+        return startKeys;
+    }
+
+    @Override
+    public WriterCommitMessage commit() throws IOException {
+        try {
+            drainMutations();
+            flush();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return new PhoenixBulkLoadCommitMessage(attemptDir.toString());
+    }
+
+    @Override
+    public void abort() throws IOException {
+        cells.clear();
+        try {
+            conn.rollback();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } finally {
+            fs.delete(attemptDir, true);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            statement.close();
+            conn.close();
+        } catch (SQLException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
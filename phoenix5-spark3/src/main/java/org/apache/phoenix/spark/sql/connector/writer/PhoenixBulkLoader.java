@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.tool.LoadIncrementalHFiles;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.spark.sql.connector.write.WriterCommitMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Loads the HFiles written by the tasks of a bulk load into the table and its indexes. The files
+ * of the committed task attempts are first moved to a directory per table, then each table gets
+ * a single bulk load, the data table first, so each region takes all its files at once. Queries
+ * stop reading the global indexes until their own files are loaded, and an index whose load
+ * fails, or whose data table load fails, is disabled until it is rebuilt. The files of a failed
+ * load are kept, so it can be run again.
+ */
+class PhoenixBulkLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixBulkLoader.class);
+
+    private static final String LOAD_DIR = "load";
+    // Default of LoadIncrementalHFiles
+    private static final int DEFAULT_MAX_FILES_PER_REGION_PER_FAMILY = 32;
+
+    private PhoenixBulkLoader() {
+        // Not to be instantiated
+    }
+
+    static void load(PhoenixDataSourceWriteOptions options, WriterCommitMessage[] messages) {
+        boolean loaded = false;
+        try (PhoenixConnection conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR
+                + options.getZkUrl(), options.getEffectiveProps()).unwrap(PhoenixConnection.class)) {
+            PTable table = PhoenixRuntime.getTable(conn, options.getTableName());
+            TableName dataTable = TableName.valueOf(table.getPhysicalName().getBytes());
+            Configuration conf = conn.getQueryServices().getConfiguration();
+            Path loadDir = new Path(options.getBulkLoadDir(), LOAD_DIR);
+            FileSystem fs = loadDir.getFileSystem(conf);
+            List<TableName> tables = new ArrayList<>();
+            Map<String, Integer> filesPerRegion = new HashMap<>();
+            for (WriterCommitMessage message : messages) {
+                if (message instanceof PhoenixBulkLoadCommitMessage) {
+                    moveFiles(fs, new Path(((PhoenixBulkLoadCommitMessage) message).getAttemptDir()), loadDir,
+                            tables, filesPerRegion);
+                }
+            }
+            // Checked for every table before loading any, the bulk load would only refuse them one by one
+            checkFilesPerRegion(filesPerRegion, conf.getInt(LoadIncrementalHFiles.MAX_FILES_PER_REGION_PER_FAMILY,
+                    DEFAULT_MAX_FILES_PER_REGION_PER_FAMILY));
+            tables.sort((a, b) -> a.equals(dataTable) ? -1 : b.equals(dataTable) ? 1 : a.compareTo(b));
+            List<PTable> indexes = new ArrayList<>();
+            for (TableName tableName : tables) {
+                PTable index = tableName.equals(dataTable) ? null : getIndex(table, tableName);
+                if (index != null) {
+                    // Still maintained by other writes, but not read until its rows are loaded
+                    alterIndex(conn, table, index, "UNUSABLE");
+                    indexes.add(index);
+                }
+            }
+            List<String> disabledIndexes = new ArrayList<>();
+            try (Admin admin = conn.getQueryServices().getAdmin()) {
+                for (TableName tableName : tables) {
+                    PTable index = tableName.equals(dataTable) ? null : getIndex(table, tableName);
+                    try {
+                        bulkLoad(admin, conf, getTableDir(loadDir, tableName), tableName);
+                    } catch (IOException | RuntimeException e) {
+                        if (index == null) {
+                            // Some regions of the data table may be loaded already, the indexes would miss them
+                            for (PTable unusable : indexes) {
+                                alterIndex(conn, table, unusable, "DISABLE");
+                            }
+                            throw e;
+                        }
+                        logger.error("Bulk load of index " + index.getName() + " failed, disabling it", e);
+                        alterIndex(conn, table, index, "DISABLE");
+                        disabledIndexes.add(index.getName().getString());
+                        continue;
+                    }
+                    if (index != null) {
+                        alterIndex(conn, table, index, "USABLE");
+                    }
+                }
+            }
+            if (!disabledIndexes.isEmpty()) {
+                throw new RuntimeException("Bulk loaded " + table.getName() + " but not its indexes "
+                        + disabledIndexes + ", which are disabled until rebuilt with ALTER INDEX ... REBUILD");
+            }
+            loaded = true;
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (loaded) {
+                cleanUp(options);
+            } else {
+                logger.error("Keeping the HFiles of the bulk load of " + options.getTableName() + " under "
+                        + new Path(options.getBulkLoadDir(), LOAD_DIR) + " to load them again");
+            }
+        }
+    }
+
+    private static void bulkLoad(Admin admin, Configuration conf, Path tableDir, TableName tableName)
+            throws IOException {
+        logger.info("Bulk loading " + tableDir + " into " + tableName);
+        try (Table table = admin.getConnection().getTable(tableName);
+             RegionLocator regionLocator = admin.getConnection().getRegionLocator(tableName)) {
+            new LoadIncrementalHFiles(conf).doBulkLoad(tableDir, admin, table, regionLocator);
+        }
+    }
+
+    /**
+     * @return index of the table stored in the physical table, or null if there is none
+     */
+    private static PTable getIndex(PTable table, TableName physicalName) {
+        for (PTable index : table.getIndexes()) {
+            if (index.getIndexType() != PTable.IndexType.LOCAL
+                    && physicalName.equals(TableName.valueOf(index.getPhysicalName().getBytes()))) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private static void alterIndex(PhoenixConnection conn, PTable table, PTable index, String state)
+            throws SQLException {
+        String statement = "ALTER INDEX " + SchemaUtil.getEscapedArgument(index.getTableName().getString())
+                + " ON " + SchemaUtil.getEscapedFullTableName(table.getName().getString()) + " " + state;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(statement);
+        }
+    }
+
+    /**
+     * Moves the HFiles of a task attempt to the directories of their tables and column families
+     * @param filesPerRegion counts of the files moved, by table, column family and region
+     */
+    static void moveFiles(FileSystem fs, Path attemptDir, Path loadDir, List<TableName> tables,
+                          Map<String, Integer> filesPerRegion) throws IOException {
+        if (!fs.exists(attemptDir)) {
+            // The task wrote no rows
+            return;
+        }
+        for (FileStatus namespace : fs.listStatus(attemptDir)) {
+            for (FileStatus qualifier : fs.listStatus(namespace.getPath())) {
+                TableName tableName = TableName.valueOf(namespace.getPath().getName(), qualifier.getPath().getName());
+                if (!tables.contains(tableName)) {
+                    tables.add(tableName);
+                }
+                for (FileStatus family : fs.listStatus(qualifier.getPath())) {
+                    Path familyDir = new Path(getTableDir(loadDir, tableName), family.getPath().getName());
+                    fs.mkdirs(familyDir);
+                    for (FileStatus file : fs.listStatus(family.getPath())) {
+                        // Files are named after their flush and region, see PhoenixBulkLoadDataWriter
+                        String name = file.getPath().getName();
+                        filesPerRegion.merge(tableName + "/" + family.getPath().getName() + " region "
+                                + name.substring(name.lastIndexOf('-') + 1), 1, Integer::sum);
+                        Path target = new Path(familyDir, attemptDir.getName() + "-" + name);
+                        if (!fs.rename(file.getPath(), target)) {
+                            throw new IOException("Unable to move " + file.getPath() + " to " + target);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Fails the load if a region would take more files of a column family than the bulk load
+     * allows, instead of raising the limit, as every file is read by the scans of the region until
+     * it is compacted
+     */
+    static void checkFilesPerRegion(Map<String, Integer> filesPerRegion, int maxFiles) throws IOException {
+        for (Map.Entry<String, Integer> files : filesPerRegion.entrySet()) {
+            if (files.getValue() > maxFiles) {
+                throw new IOException(files.getValue() + " HFiles were written for " + files.getKey()
+                        + ", more than the " + maxFiles + " of " + LoadIncrementalHFiles.MAX_FILES_PER_REGION_PER_FAMILY
+                        + ". Enable the PhoenixSparkSessionExtensions to cluster the rows by region, write with"
+                        + " fewer partitions or a larger " + PhoenixDataSource.BULK_LOAD_BUFFER_MB);
+            }
+        }
+    }
+
+    private static Path getTableDir(Path dir, TableName tableName) {
+        return new Path(new Path(dir, tableName.getNamespaceAsString()), tableName.getQualifierAsString());
+    }
+
+    /**
+     * @return why the write cannot be a bulk load, or null if it can
+     */
+    static String getUnsupportedReason(PhoenixDataSourceWriteOptions options) {
+        try (PhoenixConnection conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR
+                + options.getZkUrl(), options.getEffectiveProps()).unwrap(PhoenixConnection.class)) {
+            PTable table = PhoenixRuntime.getTable(conn, options.getTableName());
+            if (table.isTransactional()) {
+                return "transactional tables are not supported";
+            }
+            if (!table.isImmutableRows()) {
+                for (PTable index : table.getIndexes()) {
+                    if (index.getIndexType() != PTable.IndexType.LOCAL) {
+                        // The index rows of the previous values of updated rows would be left behind
+                        return "mutable tables with global indexes are not supported";
+                    }
+                }
+            }
+            return null;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return temporary directory of HBase, where the HFiles are written when bulkLoadDir is not set
+     */
+    static String getDefaultDir(PhoenixDataSourceWriteOptions options) {
+        try {
+            return getConfiguration(options).get(HConstants.TEMPORARY_FS_DIRECTORY_KEY);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Deletes the HFiles written by the tasks
+     */
+    static void cleanUp(PhoenixDataSourceWriteOptions options) {
+        Path dir = new Path(options.getBulkLoadDir());
+        try {
+            dir.getFileSystem(getConfiguration(options)).delete(dir, true);
+        } catch (IOException | SQLException e) {
+            logger.warn("Unable to delete " + dir, e);
+        }
+    }
+
+    private static Configuration getConfiguration(PhoenixDataSourceWriteOptions options) throws SQLException {
+        try (PhoenixConnection conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR
+                + options.getZkUrl(), options.getEffectiveProps()).unwrap(PhoenixConnection.class)) {
+            return conn.getQueryServices().getConfiguration();
+        }
+    }
+}
@@ -17,6 +17,7 @@
  */
 package org.apache.phoenix.spark.sql.connector.writer;
 
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
 import org.apache.phoenix.util.PhoenixRuntime;
 import org.apache.spark.sql.types.StructType;
 
@@ -34,10 +35,19 @@ class PhoenixDataSourceWriteOptions implements Serializable {
     private final StructType schema;
     private final boolean skipNormalizingIdentifier;
     private final Properties overriddenProps;
+    private final String writeMode;
+    private final boolean asyncCommit;
+    private final long maxThrottleDelayMillis;
+    private final String bulkLoadDir;
+    private final long bulkLoadBufferBytes;
+    private final long batchSizeBytes;
+    private final long batchSize;
 
     private PhoenixDataSourceWriteOptions(String tableName, String zkUrl, String scn,
                                           String tenantId, StructType schema, boolean skipNormalizingIdentifier,
-                                          Properties overriddenProps) {
+                                          Properties overriddenProps, String writeMode, boolean asyncCommit,
+                                          long maxThrottleDelayMillis, String bulkLoadDir,
+                                          long bulkLoadBufferBytes, long batchSizeBytes, long batchSize) {
         if (tableName == null) {
             throw new NullPointerException();
         }
@@ -57,6 +67,13 @@ class PhoenixDataSourceWriteOptions implements Serializable {
         this.schema = schema;
         this.skipNormalizingIdentifier = skipNormalizingIdentifier;
         this.overriddenProps = overriddenProps;
+        this.writeMode = writeMode;
+        this.asyncCommit = asyncCommit;
+        this.maxThrottleDelayMillis = maxThrottleDelayMillis;
+        this.bulkLoadDir = bulkLoadDir;
+        this.bulkLoadBufferBytes = bulkLoadBufferBytes;
+        this.batchSizeBytes = batchSizeBytes;
+        this.batchSize = batchSize;
     }
 
     String getScn() {
@@ -83,6 +100,47 @@ class PhoenixDataSourceWriteOptions implements Serializable {
         return skipNormalizingIdentifier;
     }
 
+    String getWriteMode() {
+        return writeMode;
+    }
+
+    boolean isAsyncCommit() {
+        return asyncCommit;
+    }
+
+    /**
+     * @return maximum delay before a batch when writes are throttled, 0 if they are not
+     */
+    long getMaxThrottleDelayMillis() {
+        return maxThrottleDelayMillis;
+    }
+
+    /**
+     * @return directory of the HFiles of a bulk load, specific to the write
+     */
+    String getBulkLoadDir() {
+        return bulkLoadDir;
+    }
+
+    long getBulkLoadBufferBytes() {
+        return bulkLoadBufferBytes;
+    }
+
+    /**
+     * @return estimated size of the mutations of a batch that triggers its commit, 0 to only count rows
+     */
+    long getBatchSizeBytes() {
+        return batchSizeBytes;
+    }
+
+    /**
+     * @return number of rows of a batch that triggers its commit, 0 for no limit when batches are
+     * sized in bytes, 0 or negative to only commit at the end of the task otherwise
+     */
+    long getBatchSize() {
+        return batchSize;
+    }
+
     Properties getEffectiveProps() {
         String scn = getScn();
         String tenantId = getTenantId();
@@ -103,6 +161,13 @@ class PhoenixDataSourceWriteOptions implements Serializable {
         private StructType schema;
         private boolean skipNormalizingIdentifier;
         private Properties overriddenProps = new Properties();
+        private String writeMode = PhoenixDataSource.WRITE_MODE_UPSERT;
+        private boolean asyncCommit;
+        private long maxThrottleDelayMillis;
+        private String bulkLoadDir;
+        private long bulkLoadBufferBytes;
+        private long batchSizeBytes;
+        private long batchSize;
 
         Builder setTableName(String tableName) {
             this.tableName = tableName;
@@ -139,9 +204,45 @@ class PhoenixDataSourceWriteOptions implements Serializable {
             return this;
         }
 
+        Builder setWriteMode(String writeMode) {
+            this.writeMode = writeMode;
+            return this;
+        }
+
+        Builder setAsyncCommit(boolean asyncCommit) {
+            this.asyncCommit = asyncCommit;
+            return this;
+        }
+
+        Builder setMaxThrottleDelayMillis(long maxThrottleDelayMillis) {
+            this.maxThrottleDelayMillis = maxThrottleDelayMillis;
+            return this;
+        }
+
+        Builder setBulkLoadDir(String bulkLoadDir) {
+            this.bulkLoadDir = bulkLoadDir;
+            return this;
+        }
+
+        Builder setBulkLoadBufferBytes(long bulkLoadBufferBytes) {
+            this.bulkLoadBufferBytes = bulkLoadBufferBytes;
+            return this;
+        }
+
+        Builder setBatchSizeBytes(long batchSizeBytes) {
+            this.batchSizeBytes = batchSizeBytes;
+            return this;
+        }
+
+        Builder setBatchSize(long batchSize) {
+            this.batchSize = batchSize;
+            return this;
+        }
+
         PhoenixDataSourceWriteOptions build() {
             return new PhoenixDataSourceWriteOptions(tableName, zkUrl, scn, tenantId, schema,
-                    skipNormalizingIdentifier, overriddenProps);
+                    skipNormalizingIdentifier, overriddenProps, writeMode, asyncCommit, maxThrottleDelayMillis,
+                    bulkLoadDir, bulkLoadBufferBytes, batchSizeBytes, batchSize);
         }
     }
 }
\ No newline at end of file
@@ -26,53 +26,57 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.thirdparty.com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.phoenix.util.QueryUtil;
 import org.apache.phoenix.util.SchemaUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.apache.spark.sql.Row;
 import org.apache.spark.sql.catalyst.InternalRow;
-import org.apache.spark.sql.catalyst.encoders.ExpressionEncoder;
-import org.apache.spark.sql.catalyst.encoders.RowEncoder$;
-import org.apache.spark.sql.execution.datasources.SparkJdbcUtil;
-import org.apache.spark.sql.execution.datasources.jdbc.PhoenixJdbcDialect$;
 import org.apache.spark.sql.connector.write.DataWriter;
 import org.apache.spark.sql.connector.write.WriterCommitMessage;
-import org.apache.spark.sql.types.DataType;
-import org.apache.spark.sql.types.StructField;
 import org.apache.spark.sql.types.StructType;
-import org.apache.spark.sql.catalyst.analysis.SimpleAnalyzer$;
-import org.apache.spark.sql.catalyst.expressions.AttributeReference;
-import org.apache.spark.sql.catalyst.expressions.Attribute;
 
-import static org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil.DEFAULT_UPSERT_BATCH_SIZE;
-import static org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil.UPSERT_BATCH_SIZE;
 import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
 import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
 
 public class PhoenixDataWriter implements DataWriter<InternalRow> {
 
     private static final Logger logger = LoggerFactory.getLogger(PhoenixDataWriter.class);
+    // Times a throttled writer upserts again the rows of a batch refused by busy RegionServers
+    private static final int MAX_PUSHBACK_RETRIES = 10;
+    private final String tableName;
     private final StructType schema;
-    private final Connection conn;
-    private final PreparedStatement statement;
+    // Connection the rows are upserted with
+    private Connection conn;
+    private PreparedStatement statement;
+    // With asynchronous commits, connection of the batch being committed in the background
+    private Connection spareConn;
+    private PreparedStatement spareStatement;
+    private final ExecutorService committer;
+    private Future<?> pendingCommit;
     private final long batchSize;
-    private long numRecords = 0;
-    private ExpressionEncoder<Row> encoder;
+    private final long batchSizeBytes;
+    // Rows upserted since the last batch commit
+    private long batchRecords = 0;
+    // With throttled batch commits, copies of those rows, upserted again if the commit is refused
+    private List<InternalRow> batchRows;
+    private final PhoenixBatchStats stats = new PhoenixBatchStats();
+    private final PhoenixWriteThrottle throttle;
+    private final PhoenixRowBinder binder;
 
     PhoenixDataWriter(StructType schema, PhoenixDataSourceWriteOptions options) {
         String zkUrl = options.getZkUrl();
         Properties connectionProps = options.getEffectiveProps();
         this.schema = options.getSchema();
-
-        List<Attribute> attrs = new ArrayList<>();
-        for (AttributeReference ref : scala.collection.JavaConverters.seqAsJavaListConverter(schema.toAttributes()).asJava()) {
-            attrs.add(ref.toAttribute());
-        }
-        encoder = RowEncoder$.MODULE$.apply(schema).resolveAndBind( scala.collection.JavaConverters.asScalaIteratorConverter(attrs.iterator()).asScala().toSeq(), SimpleAnalyzer$.MODULE$);
+        this.tableName = options.getTableName();
         try {
             this.conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl,
                     connectionProps);
@@ -82,45 +86,165 @@ public class PhoenixDataWriter implements DataWriter<InternalRow> {
             }
             String upsertSql = QueryUtil.constructUpsertStatement(options.getTableName(), colNames, null);
             this.statement = this.conn.prepareStatement(upsertSql);
+            this.binder = new PhoenixRowBinder(conn, this.schema);
             // Configure batch size to 0 or negative value to disable intermediate or batch commits in task.
             // So that commit can be called only once at the end to task execution.
             // This helps ensure consistent state of database when failures occurred and retried
             // mainly when transactions enabled.
-            this.batchSize = Long.parseLong(connectionProps.getProperty(UPSERT_BATCH_SIZE,
-                    String.valueOf(DEFAULT_UPSERT_BATCH_SIZE)));
+            // Kept below the mutation limits of the connection, see PhoenixBatchWrite
+            this.batchSizeBytes = options.getBatchSizeBytes();
+            this.batchSize = options.getBatchSize();
+            this.throttle = options.getMaxThrottleDelayMillis() > 0 ? PhoenixWriteThrottle.get(zkUrl,
+                    options.getTableName(), options.getMaxThrottleDelayMillis()) : null;
+            if (throttle != null && (batchSize > 0 || batchSizeBytes > 0)) {
+                // A failed commit drops the mutations of the connection
+                this.batchRows = new ArrayList<>();
+            }
+            if (options.isAsyncCommit() && (batchSize > 0 || batchSizeBytes > 0)) {
+                // The next batch is upserted with a second connection while the previous one commits
+                this.spareConn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + zkUrl,
+                        connectionProps);
+                this.spareStatement = this.spareConn.prepareStatement(upsertSql);
+                this.committer = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                        .setNameFormat("phoenix-spark-committer-%d").setDaemon(true).build());
+            } else {
+                this.committer = null;
+            }
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
     }
 
-    void commitBatchUpdates() throws SQLException {
-        conn.commit();
+    void commitBatchUpdates(Connection batchConn) throws SQLException {
+        batchConn.commit();
+    }
+
+    /**
+     * Commits a batch, after the delay of the throttle and reporting to it when writes are throttled.
+     * A batch refused by busy RegionServers is upserted again and committed after a longer delay,
+     * if its rows were kept.
+     * @param rows copies of the rows of the batch, or null if they were not kept
+     */
+    private void commitBatch(Connection batchConn, PreparedStatement batchStatement, long records,
+                             List<InternalRow> rows, long bytes) throws SQLException {
+        if (throttle == null) {
+            commitBatchUpdates(batchConn);
+            stats.addBatch(records, bytes);
+            return;
+        }
+        long nanos;
+        for (int retries = 0; ; retries++) {
+            try {
+                stats.addThrottleDelay(throttle.acquire());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+            long start = System.nanoTime();
+            try {
+                commitBatchUpdates(batchConn);
+                nanos = System.nanoTime() - start;
+                break;
+            } catch (SQLException | RuntimeException e) {
+                if (!throttle.onFailure(e)) {
+                    throw e;
+                }
+                stats.addPushback();
+                if (rows == null || retries >= MAX_PUSHBACK_RETRIES) {
+                    throw e;
+                }
+            }
+            logger.info("Upserting again the " + rows.size() + " rows of a batch to " + tableName
+                    + " refused by busy RegionServers");
+            for (InternalRow row : rows) {
+                binder.bind(batchStatement, row);
+                batchStatement.execute();
+            }
+        }
+        if (throttle.onBatch(records, nanos)) {
+            stats.addSlowBatch();
+        }
+        stats.addBatch(records, bytes);
+    }
+
+    /**
+     * @return estimated size in bytes of the mutations not committed yet on the connection
+     */
+    private static long getMutationBytes(Connection batchConn) throws SQLException {
+        return batchConn.unwrap(PhoenixConnection.class).getMutationState().getEstimatedSize();
+    }
+
+    private boolean isBatchFull() throws SQLException {
+        if (batchSize > 0 && batchRecords >= (throttle == null ? batchSize : throttle.getBatchSize(batchSize))) {
+            return true;
+        }
+        return batchSizeBytes > 0 && getMutationBytes(conn)
+                >= (throttle == null ? batchSizeBytes : throttle.getBatchSize(batchSizeBytes));
+    }
+
+    /**
+     * Hands the batch of the current connection to the committer thread and switches to the
+     * spare connection, once the previous batch is committed. At most one batch is committing
+     * while the next one is buffered.
+     */
+    private void commitBatchAsync(long records, List<InternalRow> rows, long bytes) throws SQLException {
+        waitForPendingCommit();
+        final Connection batchConn = conn;
+        final PreparedStatement batchStatement = statement;
+        pendingCommit = committer.submit(() -> {
+            commitBatch(batchConn, batchStatement, records, rows, bytes);
+            return null;
+        });
+        conn = spareConn;
+        spareConn = batchConn;
+        statement = spareStatement;
+        spareStatement = batchStatement;
+    }
+
+    private void waitForPendingCommit() throws SQLException {
+        if (pendingCommit == null) {
+            return;
+        }
+        try {
+            pendingCommit.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pendingCommit = null;
+        }
     }
 
     @Override
     public void write(InternalRow internalRow) throws IOException {
         try {
-            int i=0;
-            Row row = SparkJdbcUtil.toRow(encoder, internalRow);
-            for (StructField field : schema.fields()) {
-                DataType dataType = field.dataType();
-                if (internalRow.isNullAt(i)) {
-                    statement.setNull(i + 1, SparkJdbcUtil.getJdbcType(dataType,
-                            PhoenixJdbcDialect$.MODULE$).jdbcNullType());
-                } else {
-                	SparkJdbcUtil.makeSetter(conn, PhoenixJdbcDialect$.MODULE$, dataType).apply(statement, row, i);
-                }
-                ++i;
-            }
-            numRecords++;
+            binder.bind(statement, internalRow);
+            batchRecords++;
             statement.execute();
+            if (batchRows != null) {
+                batchRows.add(internalRow.copy());
+            }
             // Run batch wise commits only when the batch size is positive value.
             // Otherwise commit gets called at the end of task
-            if (batchSize > 0 && numRecords % batchSize == 0) {
+            if (isBatchFull()) {
+                long bytes = getMutationBytes(conn);
                 if (logger.isDebugEnabled()) {
-                    logger.debug("commit called on a batch of size : " + batchSize);
+                    logger.debug("commit called on a batch of size : " + batchRecords + " rows, " + bytes + " bytes");
+                }
+                if (committer == null) {
+                    commitBatch(conn, statement, batchRecords, batchRows, bytes);
+                } else {
+                    commitBatchAsync(batchRecords, batchRows, bytes);
+                }
+                batchRecords = 0;
+                if (batchRows != null) {
+                    batchRows = new ArrayList<>();
                 }
-                commitBatchUpdates();
             }
         } catch (SQLException e) {
             throw new IOException("Exception while executing Phoenix prepared statement", e);
@@ -130,26 +254,56 @@ public class PhoenixDataWriter implements DataWriter<InternalRow> {
     @Override
     public WriterCommitMessage commit() {
         try {
-            conn.commit();
+            waitForPendingCommit();
+            long bytes = getMutationBytes(conn);
+            if (batchRows != null && batchRecords > 0) {
+                // The last batch is upserted again too if it is refused
+                commitBatch(conn, statement, batchRecords, batchRows, bytes);
+            } else {
+                try {
+                    conn.commit();
+                } catch (SQLException e) {
+                    if (throttle != null) {
+                        // Slows down the retries of the task
+                        throttle.onFailure(e);
+                    }
+                    throw e;
+                }
+                stats.addBatch(batchRecords, bytes);
+            }
+            logger.info("Task committed " + stats);
         } catch (SQLException e) {
             throw new RuntimeException(e);
         } finally {
             try {
                 statement.close();
                 conn.close();
+                if (spareConn != null) {
+                    spareStatement.close();
+                    spareConn.close();
+                }
             }
             catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
         }
-        return null;
+        return stats;
     }
 
     @Override
     public void abort() {
         try {
+            try {
+                waitForPendingCommit();
+            } catch (SQLException | RuntimeException e) {
+                // The task is failing already
+                logger.warn("Asynchronous commit failed while aborting", e);
+            }
             // To rollback any ongoing transactions
             conn.rollback();
+            if (spareConn != null) {
+                spareConn.rollback();
+            }
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         }
@@ -157,8 +311,14 @@ public class PhoenixDataWriter implements DataWriter<InternalRow> {
 
     @Override
     public void close() {
+        if (committer != null) {
+            committer.shutdownNow();
+        }
         try {
             conn.close();
+            if (spareConn != null) {
+                spareConn.close();
+            }
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         }
@@ -17,6 +17,7 @@
  */
 package org.apache.phoenix.spark.sql.connector.writer;
 
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.spark.sql.catalyst.InternalRow;
 import org.apache.spark.sql.connector.write.DataWriter;
@@ -35,6 +36,12 @@ public class PhoenixDataWriterFactory implements DataWriterFactory {
 
     @Override
     public DataWriter<InternalRow> createWriter(int partitionId, long taskId) {
+        if (PhoenixDataSource.WRITE_MODE_DIRECT.equals(options.getWriteMode())) {
+            return new PhoenixMutationDataWriter(options);
+        }
+        if (PhoenixDataSource.WRITE_MODE_BULKLOAD.equals(options.getWriteMode())) {
+            return new PhoenixBulkLoadDataWriter(options, partitionId, taskId);
+        }
         return new PhoenixDataWriter(schema, options);
     }
 
@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.phoenix.cache.ServerCacheClient.ServerCache;
+import org.apache.phoenix.index.IndexMetaDataCacheClient;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.connector.write.DataWriter;
+import org.apache.spark.sql.connector.write.WriterCommitMessage;
+import org.apache.spark.sql.types.StructField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Writer of the direct write mode, encoding rows into HBase mutations with
+ * {@link PhoenixMutationEncoder} and sending them to the table every UPSERT_BATCH_SIZE rows,
+ * bypassing the UPSERT compilation and the MutationState of Phoenix.
+ *
+ * As with the UPSERT writer, batches already sent are not rolled back on abort.
+ */
+class PhoenixMutationDataWriter implements DataWriter<InternalRow> {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixMutationDataWriter.class);
+    // Times a throttled writer resends the mutations of a batch refused by busy RegionServers
+    private static final int MAX_PUSHBACK_RETRIES = 10;
+    private final PhoenixConnection conn;
+    private final PTable table;
+    private final Table hTable;
+    private final PhoenixMutationEncoder encoder;
+    private final long batchSize;
+    private final long batchSizeBytes;
+    private final List<Mutation> mutations = new ArrayList<>();
+    private final ImmutableBytesWritable indexMetaDataPtr = new ImmutableBytesWritable();
+    private final boolean hasIndexes;
+    private final PhoenixWriteThrottle throttle;
+    // Rows encoded and heap size of their mutations since the last batch was sent
+    private long batchRecords = 0;
+    private long batchBytes = 0;
+    private final PhoenixBatchStats stats = new PhoenixBatchStats();
+
+    PhoenixMutationDataWriter(PhoenixDataSourceWriteOptions options) {
+        Properties connectionProps = options.getEffectiveProps();
+        try {
+            this.conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + options.getZkUrl(),
+                    connectionProps).unwrap(PhoenixConnection.class);
+            this.table = PhoenixRuntime.getTable(conn, options.getTableName());
+            long timestamp = options.getScn() != null ? Long.parseLong(options.getScn()) : HConstants.LATEST_TIMESTAMP;
+            this.encoder = new PhoenixMutationEncoder(conn, table,
+                    PhoenixMutationEncoder.resolveColumns(table, getColumnNames(options)), options.getSchema(), timestamp);
+            this.hasIndexes = table.getIndexMaintainers(indexMetaDataPtr, conn);
+            this.hTable = conn.getQueryServices().getTable(table.getPhysicalName().getBytes());
+            // Kept below the mutation limits of the connection, see PhoenixBatchWrite
+            this.batchSizeBytes = options.getBatchSizeBytes();
+            this.batchSize = options.getBatchSize();
+            this.throttle = options.getMaxThrottleDelayMillis() > 0 ? PhoenixWriteThrottle.get(options.getZkUrl(),
+                    options.getTableName(), options.getMaxThrottleDelayMillis()) : null;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param options options of a write
+     * @return why the write cannot use the direct write mode, or null if it can
+     */
+    static String getUnsupportedReason(PhoenixDataSourceWriteOptions options) {
+        StructField field = PhoenixMutationEncoder.getUnsupportedField(options.getSchema());
+        if (field != null) {
+            return "type " + field.dataType().catalogString() + " of " + field.name() + " is not supported";
+        }
+        try (PhoenixConnection conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR
+                + options.getZkUrl(), options.getEffectiveProps()).unwrap(PhoenixConnection.class)) {
+            PTable table = PhoenixRuntime.getTable(conn, options.getTableName());
+            return PhoenixMutationEncoder.getUnsupportedReason(conn, table,
+                    PhoenixMutationEncoder.resolveColumns(table, getColumnNames(options)));
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static List<String> getColumnNames(PhoenixDataSourceWriteOptions options) {
+        List<String> colNames = new ArrayList<>(Arrays.asList(options.getSchema().names()));
+        if (!options.skipNormalizingIdentifier()) {
+            colNames = colNames.stream().map(SchemaUtil::normalizeIdentifier).collect(Collectors.toList());
+        }
+        return colNames;
+    }
+
+    @Override
+    public void write(InternalRow internalRow) throws IOException {
+        try {
+            int first = mutations.size();
+            encoder.encode(internalRow, mutations);
+            for (int i = first; i < mutations.size(); i++) {
+                batchBytes += mutations.get(i).heapSize();
+            }
+            batchRecords++;
+            if (isBatchFull()) {
+                flush();
+            }
+        } catch (SQLException e) {
+            throw new IOException("Exception while encoding the mutations of a row", e);
+        }
+    }
+
+    private boolean isBatchFull() {
+        if (batchSize > 0 && batchRecords >= (throttle == null ? batchSize : throttle.getBatchSize(batchSize))) {
+            return true;
+        }
+        return batchSizeBytes > 0
+                && batchBytes >= (throttle == null ? batchSizeBytes : throttle.getBatchSize(batchSizeBytes));
+    }
+
+    private void flush() throws IOException, SQLException {
+        if (mutations.isEmpty()) {
+            return;
+        }
+        ServerCache cache = null;
+        try {
+            if (hasIndexes) {
+                // Lets the RegionServers maintain the indexes, as for mutations sent by MutationState
+                cache = IndexMetaDataCacheClient.setMetaDataOnMutations(conn, table, mutations, indexMetaDataPtr);
+            }
+            send();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            if (cache != null) {
+                cache.close();
+            }
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Sent " + mutations.size() + " mutations to " + table.getPhysicalName());
+        }
+        mutations.clear();
+        stats.addBatch(batchRecords, batchBytes);
+        batchRecords = 0;
+        batchBytes = 0;
+    }
+
+    /**
+     * Sends the mutations of the batch. When writes are throttled, waits for the delay of the
+     * throttle first, and resends the mutations refused by busy RegionServers after a longer delay.
+     */
+    private void send() throws IOException, InterruptedException {
+        List<Mutation> batch = mutations;
+        for (int retries = 0; ; retries++) {
+            Object[] results = new Object[batch.size()];
+            if (throttle == null) {
+                hTable.batch(batch, results);
+                return;
+            }
+            stats.addThrottleDelay(throttle.acquire());
+            long start = System.nanoTime();
+            try {
+                hTable.batch(batch, results);
+                if (throttle.onBatch(batchRecords, System.nanoTime() - start)) {
+                    stats.addSlowBatch();
+                }
+                return;
+            } catch (IOException e) {
+                if (!throttle.onFailure(e)) {
+                    throw e;
+                }
+                stats.addPushback();
+                if (retries >= MAX_PUSHBACK_RETRIES) {
+                    throw e;
+                }
+            }
+            List<Mutation> failed = new ArrayList<>();
+            for (int i = 0; i < results.length; i++) {
+                if (!(results[i] instanceof Result)) {
+                    failed.add(batch.get(i));
+                }
+            }
+            logger.info("Resending " + failed.size() + " of " + batch.size() + " mutations to "
+                    + table.getPhysicalName() + " refused by busy RegionServers");
+            batch = failed;
+        }
+    }
+
+    @Override
+    public WriterCommitMessage commit() throws IOException {
+        try {
+            flush();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        logger.info("Task committed " + stats);
+        return stats;
+    }
+
+    @Override
+    public void abort() {
+        mutations.clear();
+        batchRecords = 0;
+        batchBytes = 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            hTable.close();
+            conn.close();
+        } catch (IOException | SQLException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+}
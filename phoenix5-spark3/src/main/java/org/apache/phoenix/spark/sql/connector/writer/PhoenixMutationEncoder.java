@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.phoenix.exception.DataExceedsCapacityException;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.query.QueryConstants;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PRow;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableType;
+import org.apache.phoenix.schema.SortOrder;
+import org.apache.phoenix.schema.types.PBoolean;
+import org.apache.phoenix.schema.types.PDataType;
+import org.apache.phoenix.schema.types.PDate;
+import org.apache.phoenix.schema.types.PDecimal;
+import org.apache.phoenix.schema.types.PDouble;
+import org.apache.phoenix.schema.types.PFloat;
+import org.apache.phoenix.schema.types.PInteger;
+import org.apache.phoenix.schema.types.PLong;
+import org.apache.phoenix.schema.types.PSmallint;
+import org.apache.phoenix.schema.types.PTimestamp;
+import org.apache.phoenix.schema.types.PTinyint;
+import org.apache.phoenix.schema.types.PVarbinary;
+import org.apache.phoenix.schema.types.PVarchar;
+import org.apache.phoenix.util.ByteUtil;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.util.DateTimeUtils;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.DecimalType;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Encodes InternalRows straight into the HBase mutations of a Phoenix table, without compiling
+ * and executing an UPSERT per row. The row key and the cells are built by the PTable itself, so
+ * salting, column encoding and the storage scheme of the table are applied the same way as by
+ * UPSERT. Values are converted to the column types and checked against their length and scale
+ * as UPSERT does for bind parameters.
+ *
+ * Only plain tables whose writes need nothing else from the client are supported, see
+ * {@link #getUnsupportedReason(PhoenixConnection, PTable, List)}. Indexes of mutable tables are
+ * maintained by the RegionServers from the index metadata attached to the mutations.
+ */
+class PhoenixMutationEncoder {
+
+    private interface ValueReader {
+        Object read(InternalRow row, int ordinal);
+    }
+
+    private final PTable table;
+    private final PhoenixConnection conn;
+    private final long timestamp;
+    private final PColumn[] columns;
+    private final int[] pkPositions;
+    private final ValueReader[] readers;
+    private final PDataType[] sourceTypes;
+    private final int pkOffset;
+    private final int pkCount;
+    private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+    private final ImmutableBytesWritable key = new ImmutableBytesWritable();
+
+    /**
+     * @param conn connection the table was resolved with, only needed to encode whole rows
+     * @param table table to write to, must be supported
+     * @param columns columns of the table in the order of the row fields
+     * @param schema Spark schema of the rows
+     * @param timestamp timestamp of the cells, HConstants.LATEST_TIMESTAMP for the server time
+     */
+    PhoenixMutationEncoder(PhoenixConnection conn, PTable table, List<PColumn> columns, StructType schema,
+                           long timestamp) {
+        this.conn = conn;
+        this.table = table;
+        this.timestamp = timestamp;
+        this.columns = columns.toArray(new PColumn[0]);
+        this.pkOffset = table.getBucketNum() == null ? 0 : 1;
+        this.pkCount = table.getPKColumns().size() - pkOffset;
+        this.pkPositions = new int[this.columns.length];
+        this.readers = new ValueReader[this.columns.length];
+        this.sourceTypes = new PDataType[this.columns.length];
+        for (int i = 0; i < this.columns.length; i++) {
+            PColumn column = this.columns[i];
+            pkPositions[i] = SchemaUtil.isPKColumn(column) ? table.getPKColumns().indexOf(column) - pkOffset : -1;
+            DataType dataType = schema.fields()[i].dataType();
+            readers[i] = makeReader(dataType);
+            sourceTypes[i] = getSourceType(dataType);
+        }
+    }
+
+    /**
+     * @param conn connection to write with
+     * @param table table to write to
+     * @param columns columns written
+     * @return why the rows cannot be encoded directly for the table, or null if they can
+     */
+    static String getUnsupportedReason(PhoenixConnection conn, PTable table, List<PColumn> columns) {
+        if (table.getType() != PTableType.TABLE) {
+            return "only tables are supported, not " + table.getType();
+        }
+        if (conn.getTenantId() != null) {
+            return "tenant-specific connections are not supported";
+        }
+        if (table.isTransactional()) {
+            return "transactional tables are not supported";
+        }
+        if (table.getRowTimestampColPos() != -1) {
+            return "ROW_TIMESTAMP columns are not supported";
+        }
+        if (table.isImmutableRows() && !table.getIndexes().isEmpty()) {
+            // Indexes of immutable tables are written by the client
+            return "indexed immutable tables are not supported";
+        }
+        Set<PColumn> written = new HashSet<>(columns);
+        for (PColumn column : columns) {
+            if (column.getDataType().isArrayType()) {
+                return "array column " + column.getName() + " is not supported";
+            }
+        }
+        for (PColumn column : table.getColumns()) {
+            if (!written.contains(column) && column.getExpressionStr() != null) {
+                return "column " + column.getName() + " has a default value but is not written";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param table table written
+     * @param columnNames names of the written columns, with their family if not the default one
+     * @return the columns of the table in the same order
+     */
+    static List<PColumn> resolveColumns(PTable table, List<String> columnNames) throws SQLException {
+        List<PColumn> columns = new ArrayList<>(columnNames.size());
+        for (String columnName : columnNames) {
+            int separator = columnName.indexOf(QueryConstants.NAME_SEPARATOR);
+            if (separator < 0) {
+                columns.add(table.getColumnForColumnName(columnName));
+            } else {
+                columns.add(table.getColumnFamily(columnName.substring(0, separator))
+                        .getPColumnForColumnName(columnName.substring(separator + 1)));
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * @param schema Spark schema of the rows
+     * @return the first field whose type cannot be encoded directly, or null
+     */
+    static StructField getUnsupportedField(StructType schema) {
+        for (StructField field : schema.fields()) {
+            if (getSourceType(field.dataType()) == null) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds the mutations writing the row to the list
+     */
+    void encode(InternalRow row, List<Mutation> mutations) throws SQLException {
+        byte[][] values = new byte[columns.length][];
+        setKey(row, values);
+        PRow phoenixRow = table.newRow(conn.getKeyValueBuilder(), timestamp, key, false);
+        for (int i = 0; i < columns.length; i++) {
+            if (pkPositions[i] < 0) {
+                // Empty values of key value columns delete their cell, as UPSERT of a null does
+                phoenixRow.setValue(columns[i], values[i]);
+            }
+        }
+        mutations.addAll(phoenixRow.toRowMutations());
+    }
+
+    /**
+     * @return the row key of the row, the key columns missing from the row being null
+     */
+    byte[] encodeRowKey(InternalRow row) throws SQLException {
+        setKey(row, new byte[columns.length][]);
+        return ByteUtil.copyKeyBytesIfNecessary(key);
+    }
+
+    /**
+     * Encodes the values of the row into the values array and sets the row key from them
+     */
+    private void setKey(InternalRow row, byte[][] values) throws SQLException {
+        byte[][] pkValues = new byte[pkCount][];
+        for (int i = 0; i < pkCount; i++) {
+            pkValues[i] = ByteUtil.EMPTY_BYTE_ARRAY;
+        }
+        for (int i = 0; i < columns.length; i++) {
+            byte[] value = row.isNullAt(i) ? ByteUtil.EMPTY_BYTE_ARRAY : toBytes(i, readers[i].read(row, i));
+            if (pkPositions[i] >= 0) {
+                pkValues[pkPositions[i]] = value;
+            } else {
+                values[i] = value;
+            }
+        }
+        table.newKey(key, pkValues);
+    }
+
+    private byte[] toBytes(int i, Object sourceValue) throws SQLException {
+        PColumn column = columns[i];
+        PDataType type = column.getDataType();
+        Object value = type.toObject(sourceValue, sourceTypes[i]);
+        ptr.set(type.toBytes(value));
+        if (!type.isSizeCompatible(ptr, value, type, SortOrder.getDefault(), null, null,
+                column.getMaxLength(), column.getScale())) {
+            throw new DataExceedsCapacityException(type, column.getMaxLength(), column.getScale(),
+                    column.getName().getString());
+        }
+        type.coerceBytes(ptr, value, type, null, null, SortOrder.getDefault(), column.getMaxLength(),
+                column.getScale(), column.getSortOrder(), table.rowKeyOrderOptimizable());
+        return ByteUtil.copyKeyBytesIfNecessary(ptr);
+    }
+
+    private static PDataType getSourceType(DataType dataType) {
+        if (dataType.equals(DataTypes.IntegerType)) {
+            return PInteger.INSTANCE;
+        } else if (dataType.equals(DataTypes.LongType)) {
+            return PLong.INSTANCE;
+        } else if (dataType.equals(DataTypes.DoubleType)) {
+            return PDouble.INSTANCE;
+        } else if (dataType.equals(DataTypes.FloatType)) {
+            return PFloat.INSTANCE;
+        } else if (dataType.equals(DataTypes.ShortType)) {
+            return PSmallint.INSTANCE;
+        } else if (dataType.equals(DataTypes.ByteType)) {
+            return PTinyint.INSTANCE;
+        } else if (dataType.equals(DataTypes.BooleanType)) {
+            return PBoolean.INSTANCE;
+        } else if (dataType.equals(DataTypes.StringType)) {
+            return PVarchar.INSTANCE;
+        } else if (dataType.equals(DataTypes.BinaryType)) {
+            return PVarbinary.INSTANCE;
+        } else if (dataType.equals(DataTypes.TimestampType)) {
+            return PTimestamp.INSTANCE;
+        } else if (dataType.equals(DataTypes.DateType)) {
+            return PDate.INSTANCE;
+        } else if (dataType instanceof DecimalType) {
+            return PDecimal.INSTANCE;
+        }
+        return null;
+    }
+
+    private static ValueReader makeReader(DataType dataType) {
+        if (dataType.equals(DataTypes.IntegerType)) {
+            return InternalRow::getInt;
+        } else if (dataType.equals(DataTypes.LongType)) {
+            return InternalRow::getLong;
+        } else if (dataType.equals(DataTypes.DoubleType)) {
+            return InternalRow::getDouble;
+        } else if (dataType.equals(DataTypes.FloatType)) {
+            return InternalRow::getFloat;
+        } else if (dataType.equals(DataTypes.ShortType)) {
+            return InternalRow::getShort;
+        } else if (dataType.equals(DataTypes.ByteType)) {
+            return InternalRow::getByte;
+        } else if (dataType.equals(DataTypes.BooleanType)) {
+            return InternalRow::getBoolean;
+        } else if (dataType.equals(DataTypes.StringType)) {
+            return (row, i) -> row.getUTF8String(i).toString();
+        } else if (dataType.equals(DataTypes.BinaryType)) {
+            return InternalRow::getBinary;
+        } else if (dataType.equals(DataTypes.TimestampType)) {
+            return (row, i) -> DateTimeUtils.toJavaTimestamp(row.getLong(i));
+        } else if (dataType.equals(DataTypes.DateType)) {
+            return (row, i) -> DateTimeUtils.toJavaDate(row.getInt(i));
+        } else if (dataType instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) dataType;
+            int precision = decimalType.precision();
+            int scale = decimalType.scale();
+            return (row, i) -> row.getDecimal(i, precision, scale).toJavaBigDecimal();
+        }
+        return (row, i) -> {
+            throw new IllegalArgumentException("Can't translate non-null value for field " + i);
+        };
+    }
+}
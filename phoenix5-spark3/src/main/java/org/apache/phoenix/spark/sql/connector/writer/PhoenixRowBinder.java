@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.spark.sql.catalyst.CatalystTypeConverters;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.util.ArrayData;
+import org.apache.spark.sql.catalyst.util.DateTimeUtils;
+import org.apache.spark.sql.execution.datasources.SparkJdbcUtil;
+import org.apache.spark.sql.execution.datasources.jdbc.PhoenixJdbcDialect$;
+import org.apache.spark.sql.types.ArrayType;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.DecimalType;
+import org.apache.spark.sql.types.StructType;
+import scala.Function1;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Locale;
+
+/**
+ * Binds the columns of an InternalRow to the parameters of an UPSERT statement. The setter of
+ * every column is chosen once from the schema, and values are read straight from the row
+ * accessors, instead of converting each row to an external Row and looking up a setter per
+ * cell. Only the objects JDBC needs, such as the String of a VARCHAR, are created per row.
+ *
+ * Values are bound the same way as the JdbcUtils.makeSetter of Spark does.
+ */
+class PhoenixRowBinder {
+
+    private interface FieldBinder {
+        void bind(PreparedStatement statement, InternalRow row, int ordinal) throws SQLException;
+    }
+
+    private static final int NO_JDBC_TYPE = Integer.MIN_VALUE;
+
+    private final FieldBinder[] binders;
+    private final int[] nullTypes;
+    private final DataType[] dataTypes;
+
+    PhoenixRowBinder(Connection conn, StructType schema) {
+        int fieldCount = schema.fields().length;
+        binders = new FieldBinder[fieldCount];
+        nullTypes = new int[fieldCount];
+        dataTypes = new DataType[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            DataType dataType = schema.fields()[i].dataType();
+            binders[i] = makeBinder(conn, dataType);
+            dataTypes[i] = dataType;
+            nullTypes[i] = NO_JDBC_TYPE;
+            try {
+                nullTypes[i] = SparkJdbcUtil.getJdbcType(dataType, PhoenixJdbcDialect$.MODULE$).jdbcNullType();
+            } catch (IllegalArgumentException e) {
+                // Only fails the write if a null is actually written
+            }
+        }
+    }
+
+    /**
+     * Sets all the parameters of the statement from the row
+     */
+    void bind(PreparedStatement statement, InternalRow row) throws SQLException {
+        for (int i = 0; i < binders.length; i++) {
+            if (row.isNullAt(i)) {
+                if (nullTypes[i] == NO_JDBC_TYPE) {
+                    throw new IllegalArgumentException("Can't get JDBC type for " + dataTypes[i].catalogString());
+                }
+                statement.setNull(i + 1, nullTypes[i]);
+            } else {
+                binders[i].bind(statement, row, i);
+            }
+        }
+    }
+
+    private static FieldBinder makeBinder(Connection conn, DataType dataType) {
+        if (dataType.equals(DataTypes.IntegerType)) {
+            return (statement, row, i) -> statement.setInt(i + 1, row.getInt(i));
+        } else if (dataType.equals(DataTypes.LongType)) {
+            return (statement, row, i) -> statement.setLong(i + 1, row.getLong(i));
+        } else if (dataType.equals(DataTypes.DoubleType)) {
+            return (statement, row, i) -> statement.setDouble(i + 1, row.getDouble(i));
+        } else if (dataType.equals(DataTypes.FloatType)) {
+            return (statement, row, i) -> statement.setFloat(i + 1, row.getFloat(i));
+        } else if (dataType.equals(DataTypes.ShortType)) {
+            return (statement, row, i) -> statement.setInt(i + 1, row.getShort(i));
+        } else if (dataType.equals(DataTypes.ByteType)) {
+            return (statement, row, i) -> statement.setInt(i + 1, row.getByte(i));
+        } else if (dataType.equals(DataTypes.BooleanType)) {
+            return (statement, row, i) -> statement.setBoolean(i + 1, row.getBoolean(i));
+        } else if (dataType.equals(DataTypes.StringType)) {
+            return (statement, row, i) -> statement.setString(i + 1, row.getUTF8String(i).toString());
+        } else if (dataType.equals(DataTypes.BinaryType)) {
+            return (statement, row, i) -> statement.setBytes(i + 1, row.getBinary(i));
+        } else if (dataType.equals(DataTypes.TimestampType)) {
+            return (statement, row, i) -> statement.setTimestamp(i + 1,
+                    DateTimeUtils.toJavaTimestamp(row.getLong(i)));
+        } else if (dataType.equals(DataTypes.DateType)) {
+            return (statement, row, i) -> statement.setDate(i + 1, DateTimeUtils.toJavaDate(row.getInt(i)));
+        } else if (dataType instanceof DecimalType) {
+            DecimalType decimalType = (DecimalType) dataType;
+            int precision = decimalType.precision();
+            int scale = decimalType.scale();
+            return (statement, row, i) -> statement.setBigDecimal(i + 1,
+                    row.getDecimal(i, precision, scale).toJavaBigDecimal());
+        } else if (dataType instanceof ArrayType) {
+            DataType elementType = ((ArrayType) dataType).elementType();
+            String typeName;
+            try {
+                // remove type length parameters from end of type name
+                typeName = SparkJdbcUtil.getJdbcType(elementType, PhoenixJdbcDialect$.MODULE$)
+                        .databaseTypeDefinition().toLowerCase(Locale.ROOT).split("\\(")[0];
+            } catch (IllegalArgumentException e) {
+                return (statement, row, i) -> {
+                    throw e;
+                };
+            }
+            Function1<Object, Object> elementConverter = CatalystTypeConverters.createToScalaConverter(elementType);
+            return (statement, row, i) -> {
+                ArrayData array = row.getArray(i);
+                Object[] elements = new Object[array.numElements()];
+                for (int j = 0; j < elements.length; j++) {
+                    elements[j] = array.isNullAt(j) ? null : elementConverter.apply(array.get(j, elementType));
+                }
+                statement.setArray(i + 1, conn.createArrayOf(typeName, elements));
+            };
+        }
+        return (statement, row, i) -> {
+            throw new IllegalArgumentException("Can't translate non-null value for field " + i);
+        };
+    }
+}
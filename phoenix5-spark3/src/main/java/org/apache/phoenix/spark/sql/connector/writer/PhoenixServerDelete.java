@@ -0,0 +1,109 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.phoenix.spark.FilterExpressionCompiler;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.spark.sql.sources.AlwaysTrue;
+import org.apache.spark.sql.sources.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.extractPhoenixHBaseConfFromOptions;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Deletes the rows of a Phoenix table matching Spark filters with a single DELETE statement,
+ * for DELETE FROM and for writes overwriting the rows matching a condition. With auto commit,
+ * Phoenix runs the delete in parallel on the RegionServers when the table has no index to
+ * maintain on the client, so the keys of the rows never reach Spark.
+ */
+public class PhoenixServerDelete {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixServerDelete.class);
+
+    private PhoenixServerDelete() {
+        // Not to be instantiated
+    }
+
+    /**
+     * @param options options of the table
+     * @param filters conditions the deleted rows match, all of them
+     * @return DELETE statement deleting the rows matching the filters
+     * @throws IllegalArgumentException if the table or a filter cannot be deleted from in Phoenix
+     */
+    static String compileDelete(Map<String, String> options, Filter[] filters) {
+        String tableName = options.get("table");
+        if (tableName == null || options.get(PhoenixDataSource.TENANT_IDS) != null) {
+            throw new IllegalArgumentException("Only the rows of a table read with a single tenant id or none "
+                    + "can be deleted");
+        }
+        FilterExpressionCompiler compiler = new FilterExpressionCompiler();
+        List<Filter> conditions = new ArrayList<>();
+        for (Filter filter : filters) {
+            if (filter instanceof AlwaysTrue) {
+                continue;
+            }
+            if (!compiler.isSupported(filter)) {
+                throw new IllegalArgumentException("Cannot delete from " + tableName + " where " + filter
+                        + ", the condition cannot be translated to Phoenix");
+            }
+            conditions.add(filter);
+        }
+        String sql = "DELETE FROM " + tableName;
+        if (!conditions.isEmpty()) {
+            sql += " WHERE" + compiler.pushFilters(conditions.toArray(new Filter[0]))._1();
+        }
+        return sql;
+    }
+
+    /**
+     * Deletes the rows of the table matching all the filters
+     * @param options options of the table
+     * @param filters conditions the deleted rows match, none deleting all rows
+     * @return number of rows deleted
+     */
+    public static long delete(Map<String, String> options, Filter[] filters) {
+        String sql = compileDelete(options, filters);
+        Properties props = extractPhoenixHBaseConfFromOptions(options);
+        String tenantId = options.get(PhoenixRuntime.TENANT_ID_ATTRIB);
+        if (tenantId != null) {
+            props.put(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
+        }
+        try (Connection conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR
+                + options.get(PhoenixDataSource.ZOOKEEPER_URL), props)) {
+            conn.setAutoCommit(true);
+            logger.info("Executing " + sql);
+            long deleted = conn.createStatement().executeUpdate(sql);
+            logger.info("Deleted " + deleted + " rows with " + sql);
+            return deleted;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTable.IndexType;
+import org.apache.phoenix.schema.PTableType;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Disables the WAL of the table written for the duration of a write, as the disable.wal property
+ * of the Hive connector does, but once from the driver rather than from every task. The memstores
+ * of the table and its global indexes are flushed when the write commits, so the rows written
+ * without WAL are persisted before the WAL is enabled again. The WAL stays disabled if the driver
+ * dies during the write, the statement enabling it again is logged when it is disabled.
+ */
+class PhoenixWalToggle {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixWalToggle.class);
+
+    private PhoenixWalToggle() {
+        // Not to be instantiated
+    }
+
+    /**
+     * Disables the WAL of the table
+     * @return whether the WAL was enabled and has to be restored when the write ends
+     */
+    static boolean disable(PhoenixDataSourceWriteOptions options) {
+        try (PhoenixConnection conn = getConnection(options)) {
+            PTable table = PhoenixRuntime.getTableNoCache(conn, options.getTableName());
+            if (table.getType() != PTableType.TABLE) {
+                logger.warn("Not disabling the WAL of " + options.getTableName() + ", which is a "
+                        + table.getType());
+                return false;
+            }
+            if (table.isWALDisabled()) {
+                return false;
+            }
+            setWalDisabled(conn, options.getTableName(), true);
+            // Nothing enables it again if the driver dies before the write ends
+            logger.warn("The WAL of " + options.getTableName() + " stays disabled until the write ends. If the "
+                    + "driver dies before, enable it again with: " + getRestoreStatement(options.getTableName()));
+            return true;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Enables the WAL of the table again
+     * @param flush whether to flush the memstores of the table and its global indexes first
+     */
+    static void restore(PhoenixDataSourceWriteOptions options, boolean flush) {
+        try (PhoenixConnection conn = getConnection(options)) {
+            try {
+                if (flush) {
+                    flush(conn, PhoenixRuntime.getTable(conn, options.getTableName()));
+                }
+            } finally {
+                setWalDisabled(conn, options.getTableName(), false);
+            }
+        } catch (SQLException | IOException e) {
+            logger.error("Unable to enable the WAL of " + options.getTableName() + " again, enable it with: "
+                    + getRestoreStatement(options.getTableName()), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return statement enabling the WAL of the table again
+     */
+    static String getRestoreStatement(String tableName) {
+        return getWalStatement(tableName, false);
+    }
+
+    private static String getWalStatement(String tableName, boolean disabled) {
+        return "ALTER TABLE " + tableName + " SET DISABLE_WAL=" + disabled;
+    }
+
+    private static void flush(PhoenixConnection conn, PTable table) throws SQLException, IOException {
+        try (Admin admin = conn.getQueryServices().getAdmin()) {
+            admin.flush(TableName.valueOf(table.getPhysicalName().getBytes()));
+            for (PTable index : table.getIndexes()) {
+                // Local indexes live in the regions of the table
+                if (index.getIndexType() == IndexType.GLOBAL) {
+                    admin.flush(TableName.valueOf(index.getPhysicalName().getBytes()));
+                }
+            }
+        }
+        logger.info("Flushed the memstores of " + table.getName());
+    }
+
+    private static void setWalDisabled(PhoenixConnection conn, String tableName, boolean disabled)
+            throws SQLException {
+        conn.createStatement().execute(getWalStatement(tableName, disabled));
+        logger.info((disabled ? "Disabled" : "Enabled") + " the WAL of " + tableName);
+    }
+
+    // DDL cannot run at an SCN nor on behalf of a tenant
+    private static PhoenixConnection getConnection(PhoenixDataSourceWriteOptions options) throws SQLException {
+        Properties props = new Properties();
+        props.putAll(options.getEffectiveProps());
+        props.remove(PhoenixRuntime.CURRENT_SCN_ATTRIB);
+        props.remove(PhoenixRuntime.TENANT_ID_ATTRIB);
+        return DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + options.getZkUrl(), props)
+                .unwrap(PhoenixConnection.class);
+    }
+}
@@ -17,25 +17,56 @@
  */
 package org.apache.phoenix.spark.sql.connector.writer;
 
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
 import org.apache.phoenix.thirdparty.com.google.common.annotations.VisibleForTesting;
 import org.apache.spark.sql.connector.write.BatchWrite;
 import org.apache.spark.sql.connector.write.LogicalWriteInfo;
+import org.apache.spark.sql.connector.write.SupportsOverwrite;
 import org.apache.spark.sql.connector.write.WriteBuilder;
+import org.apache.spark.sql.sources.AlwaysTrue;
+import org.apache.spark.sql.sources.Filter;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
 
 import java.util.Map;
 
-public class PhoenixWriteBuilder implements WriteBuilder {
+public class PhoenixWriteBuilder implements WriteBuilder, SupportsOverwrite {
 
     private final LogicalWriteInfo writeInfo;
     private final Map<String,String> options;
+    // Conditions of the rows deleted before the write, null if it does not overwrite
+    private Filter[] overwriteFilters;
 
     public PhoenixWriteBuilder(LogicalWriteInfo writeInfo, Map<String,String> options) {
         this.writeInfo = writeInfo;
         this.options = options;
     }
 
+    /**
+     * @throws IllegalArgumentException if the write overwrites every row without the truncate option
+     */
+    @Override
+    public WriteBuilder overwrite(Filter[] filters) {
+        boolean truncate = true;
+        for (Filter filter : filters) {
+            truncate &= filter instanceof AlwaysTrue;
+        }
+        if (truncate && !new CaseInsensitiveStringMap(options).getBoolean(PhoenixDataSource.TRUNCATE, false)) {
+            throw new IllegalArgumentException("Overwriting " + options.get("table") + " would delete all its rows "
+                    + "first, set the " + PhoenixDataSource.TRUNCATE + " option to true to do so, or append to upsert "
+                    + "the rows");
+        }
+        this.overwriteFilters = filters;
+        return this;
+    }
+
+    /**
+     * Deletes the rows overwritten before the write, the delete is committed even if the write fails
+     */
     @Override
     public BatchWrite buildForBatch() {
+        if (overwriteFilters != null) {
+            PhoenixServerDelete.delete(options, overwriteFilters);
+        }
         return new PhoenixBatchWrite(writeInfo, options);
     }
 
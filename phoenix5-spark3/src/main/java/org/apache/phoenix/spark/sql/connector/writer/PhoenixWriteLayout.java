@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.coprocessor.generated.PTableProtos;
+import org.apache.phoenix.jdbc.PhoenixConnection;
+import org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil;
+import org.apache.phoenix.schema.PColumn;
+import org.apache.phoenix.schema.PTable;
+import org.apache.phoenix.schema.PTableImpl;
+import org.apache.phoenix.schema.PTableType;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.phoenix.util.PhoenixRuntime;
+import org.apache.phoenix.util.SchemaUtil;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.apache.phoenix.spark.sql.connector.PhoenixDataSource.extractPhoenixHBaseConfFromOptions;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL;
+import static org.apache.phoenix.util.PhoenixRuntime.JDBC_PROTOCOL_SEPARATOR;
+
+/**
+ * Row keys and regions of the rows written to a Phoenix table, as of the planning of the write.
+ * Lets the rows be clustered by the region they go to, and sorted by row key, before they reach
+ * the writers, so each task sends larger batches to fewer RegionServers. Regions split or merged
+ * since the planning only make the clustering less precise.
+ */
+public class PhoenixWriteLayout implements Serializable {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixWriteLayout.class);
+
+    private final byte[] pTableBytes;
+    private final String[] keyFields;
+    private final StructType keySchema;
+    private final byte[][] regionStartKeys;
+    private transient PhoenixMutationEncoder encoder;
+
+    private PhoenixWriteLayout(byte[] pTableBytes, String[] keyFields, StructType keySchema,
+                               byte[][] regionStartKeys) {
+        this.pTableBytes = pTableBytes;
+        this.keyFields = keyFields;
+        this.keySchema = keySchema;
+        this.regionStartKeys = regionStartKeys;
+    }
+
+    /**
+     * @param options options of the write
+     * @param schema schema of the rows written
+     * @return the layout of the table written, or null if the row keys cannot be computed from
+     * the rows or the table has a single region
+     */
+    public static PhoenixWriteLayout plan(Map<String, String> options, StructType schema) {
+        String tableName = options.get("table");
+        if (tableName == null || options.get(PhoenixRuntime.TENANT_ID_ATTRIB) != null) {
+            return null;
+        }
+        boolean skipNormalizingIdentifier = Boolean.parseBoolean(
+                options.getOrDefault(PhoenixDataSource.SKIP_NORMALIZING_IDENTIFIER, Boolean.toString(false)));
+        Properties props = extractPhoenixHBaseConfFromOptions(options);
+        String scn = options.get(PhoenixConfigurationUtil.CURRENT_SCN_VALUE);
+        if (scn != null) {
+            props.put(PhoenixRuntime.CURRENT_SCN_ATTRIB, scn);
+        }
+        try (PhoenixConnection conn = DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR
+                + options.get(PhoenixDataSource.ZOOKEEPER_URL), props).unwrap(PhoenixConnection.class)) {
+            PTable table = PhoenixRuntime.getTable(conn, tableName);
+            if (table.getType() != PTableType.TABLE) {
+                return null;
+            }
+            List<String> keyFields = new ArrayList<>();
+            StructType keySchema = new StructType();
+            for (StructField field : schema.fields()) {
+                String columnName = skipNormalizingIdentifier ? field.name()
+                        : SchemaUtil.normalizeIdentifier(field.name());
+                PColumn column = PhoenixMutationEncoder.resolveColumns(table,
+                        Collections.singletonList(columnName)).get(0);
+                if (SchemaUtil.isPKColumn(column)) {
+                    keyFields.add(field.name());
+                    keySchema = keySchema.add(columnName, field.dataType());
+                }
+            }
+            if (keyFields.isEmpty() || PhoenixMutationEncoder.getUnsupportedField(keySchema) != null) {
+                return null;
+            }
+            byte[][] startKeys;
+            try (Admin admin = conn.getQueryServices().getAdmin();
+                 RegionLocator regionLocator = admin.getConnection()
+                         .getRegionLocator(TableName.valueOf(table.getPhysicalName().getBytes()))) {
+                startKeys = regionLocator.getStartKeys();
+            }
+            if (startKeys.length <= 1) {
+                return null;
+            }
+            return new PhoenixWriteLayout(PTableImpl.toProto(table).toByteArray(),
+                    keyFields.toArray(new String[0]), keySchema, startKeys);
+        } catch (SQLException | IOException e) {
+            // The write itself reports the errors about the table and its columns
+            logger.warn("Unable to plan the write layout of " + tableName, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return names of the fields of the rows that are primary key columns
+     */
+    public String[] getKeyFields() {
+        return keyFields;
+    }
+
+    public int getRegionCount() {
+        return regionStartKeys.length;
+    }
+
+    /**
+     * @param keyValues values of the key fields, in the order of {@link #getKeyFields()}
+     * @return row key of the row, or null if it cannot be encoded, the writer then fails on it
+     */
+    public byte[] encodeRowKey(InternalRow keyValues) {
+        try {
+            if (encoder == null) {
+                PTable table = PTableImpl.createFromProto(PTableProtos.PTable.parseFrom(pTableBytes));
+                encoder = new PhoenixMutationEncoder(null, table, PhoenixMutationEncoder.resolveColumns(
+                        table, Arrays.asList(keySchema.names())), keySchema, 0);
+            }
+            return encoder.encodeRowKey(keyValues);
+        } catch (SQLException | RuntimeException e) {
+            return null;
+        } catch (InvalidProtocolBufferException e) {
+            throw new RuntimeException("Parsing the PTable Cache Bytes is failing ", e);
+        }
+    }
+
+    /**
+     * @return index of the region the row key belongs to as of the planning of the write
+     */
+    public int getRegionIndex(byte[] rowKey) {
+        return getRegionIndex(regionStartKeys, rowKey);
+    }
+
+    /**
+     * @param regionStartKeys start keys of the regions of a table, in order
+     * @return index of the region the row key belongs to
+     */
+    static int getRegionIndex(byte[][] regionStartKeys, byte[] rowKey) {
+        int low = 0;
+        int high = regionStartKeys.length - 1;
+        // Last region whose start key is at most the row key, the first one starts with the empty key
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (Bytes.compareTo(regionStartKeys[mid], rowKey) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
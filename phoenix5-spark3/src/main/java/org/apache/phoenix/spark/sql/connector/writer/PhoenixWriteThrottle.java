@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.hbase.CallQueueTooBigException;
+import org.apache.hadoop.hbase.RegionTooBusyException;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.ipc.ServerTooBusyException;
+import org.apache.hadoop.hbase.quotas.RpcThrottlingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Adapts the pace of the writers of a table to the backpressure of its RegionServers. Batches
+ * failing because a region or RegionServer is too busy, or whose latency rises well above the
+ * usual one, double the delay before the next batches and halve their size. Batches sent without
+ * trouble then shrink the delay and grow the size back gradually. The usual latency follows the
+ * recent batches, so a lasting slowdown ends up as the usual pace instead of throttling for good.
+ *
+ * A throttle is shared by the writers of the same table in an executor, so the retries of a
+ * failed task start slow too.
+ */
+class PhoenixWriteThrottle {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoenixWriteThrottle.class);
+
+    private static final Map<String, PhoenixWriteThrottle> THROTTLES = new ConcurrentHashMap<>();
+
+    private static final long MIN_DELAY_MILLIS = 50;
+    private static final double MIN_BATCH_FRACTION = 1.0 / 64;
+    // A batch is slow when both its latency and its latency per row exceed the usual ones this many times
+    private static final double SLOW_BATCH_FACTOR = 3.0;
+    private static final double LATENCY_SMOOTHING = 0.1;
+
+    private final String name;
+    private final long maxDelayMillis;
+    private long delayMillis = 0;
+    private double batchFraction = 1.0;
+    private double usualNanosPerRow = 0;
+    private double usualNanosPerBatch = 0;
+
+    private PhoenixWriteThrottle(String name, long maxDelayMillis) {
+        this.name = name;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    /**
+     * @return throttle of the writers of the table in this executor
+     */
+    static PhoenixWriteThrottle get(String zkUrl, String tableName, long maxDelayMillis) {
+        return THROTTLES.computeIfAbsent(zkUrl + "/" + tableName + "/" + maxDelayMillis,
+                k -> new PhoenixWriteThrottle(tableName, maxDelayMillis));
+    }
+
+    /**
+     * @param batchSize configured batch size, not throttled if 0 or negative
+     * @return number of rows of the next batch, at least 1
+     */
+    synchronized long getBatchSize(long batchSize) {
+        if (batchSize <= 0) {
+            return batchSize;
+        }
+        return Math.max(1, (long) (batchSize * batchFraction));
+    }
+
+    /**
+     * Waits for the current delay before sending a batch
+     * @return milliseconds waited
+     */
+    long acquire() throws InterruptedException {
+        long delay;
+        synchronized (this) {
+            delay = delayMillis;
+        }
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+        return delay;
+    }
+
+    /**
+     * Records a batch sent successfully
+     * @param rows rows of the batch
+     * @param nanos time taken to send it
+     * @return whether the batch was slow enough to slow down
+     */
+    synchronized boolean onBatch(long rows, long nanos) {
+        double nanosPerRow = (double) nanos / Math.max(1, rows);
+        // Smaller batches take longer per row, and larger ones longer per batch, so neither the
+        // halved batches of a slowdown nor the batches growing back after it count as slow
+        boolean slow = usualNanosPerRow > 0 && nanosPerRow > usualNanosPerRow * SLOW_BATCH_FACTOR
+                && nanos > usualNanosPerBatch * SLOW_BATCH_FACTOR;
+        usualNanosPerRow = smooth(usualNanosPerRow, nanosPerRow);
+        usualNanosPerBatch = smooth(usualNanosPerBatch, nanos);
+        if (slow) {
+            slowDown("batch of " + rows + " rows took " + nanos / 1000000 + " ms");
+            return true;
+        }
+        if (delayMillis > 0 || batchFraction < 1.0) {
+            delayMillis = delayMillis * 3 / 4 < MIN_DELAY_MILLIS ? 0 : delayMillis * 3 / 4;
+            batchFraction = Math.min(1.0, batchFraction * 1.25);
+        }
+        return false;
+    }
+
+    private static double smooth(double usual, double latest) {
+        return usual == 0 ? latest : usual + (latest - usual) * LATENCY_SMOOTHING;
+    }
+
+    /**
+     * Records a failed batch, slowing down if the RegionServers pushed back
+     * @return whether the failure is a pushback of the RegionServers
+     */
+    synchronized boolean onFailure(Throwable t) {
+        if (!isPushback(t)) {
+            return false;
+        }
+        slowDown(t.toString());
+        return true;
+    }
+
+    private void slowDown(String reason) {
+        delayMillis = Math.min(maxDelayMillis, Math.max(MIN_DELAY_MILLIS, delayMillis * 2));
+        batchFraction = Math.max(MIN_BATCH_FRACTION, batchFraction / 2);
+        logger.info("Throttling writes to " + name + " to a delay of " + delayMillis + " ms and "
+                + batchFraction + " of the batch size: " + reason);
+    }
+
+    /**
+     * @return whether the failure, or one of its causes, tells the client to back off
+     */
+    static boolean isPushback(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RegionTooBusyException || cause instanceof CallQueueTooBigException
+                    || cause instanceof ServerTooBusyException || cause instanceof RpcThrottlingException) {
+                return true;
+            }
+            if (cause instanceof RetriesExhaustedWithDetailsException) {
+                for (Throwable actionCause : ((RetriesExhaustedWithDetailsException) cause).getCauses()) {
+                    if (isPushback(actionCause)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -99,8 +99,21 @@ class FilterExpressionCompiler() {
     (filter.toString(), unsupportedFilters, filters diff unsupportedFilters)
   }
 
+  /**
+    * @return whether pushFilters translates the filter entirely, which statements that must not
+    *         lose a condition, such as deletes, check first
+    */
+  def isSupported(filter: Filter): Boolean = filter match {
+    case And(left, right) => isSupported(left) && isSupported(right)
+    case Or(left, right) => isSupported(left) && isSupported(right)
+    case Not(child) => isSupported(child)
+    case _: EqualTo | _: GreaterThan | _: GreaterThanOrEqual | _: LessThan | _: LessThanOrEqual |
+         _: IsNull | _: IsNotNull | _: In | _: StringStartsWith | _: StringEndsWith | _: StringContains => true
+    case _ => false
+  }
+
   // Helper function to escape string values in SQL queries
-  private def compileValue(value: Any): Any = value match {
+  private[spark] def compileValue(value: Any): Any = value match {
     case stringValue: String => s"'${escapeStringConstant(stringValue)}'"
 
     case timestampValue: Timestamp => getTimestampString(timestampValue)
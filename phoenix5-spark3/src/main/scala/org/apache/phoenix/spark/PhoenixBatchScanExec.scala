@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import org.apache.phoenix.spark.sql.connector.reader.PhoenixScan
+import org.apache.spark.rdd.RDD
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.{Ascending, AttributeReference, Descending, SortOrder}
+import org.apache.spark.sql.catalyst.plans.QueryPlan
+import org.apache.spark.sql.connector.read.{Batch, InputPartition, PartitionReaderFactory}
+import org.apache.spark.sql.execution.datasources.v2.{DataSourceRDD, DataSourceV2ScanExecBase}
+
+/**
+  * Physical scan of a Phoenix table reporting the primary key order of the rows within each
+  * partition, which the BatchScanExec of Spark 3.0 has no way to tell. Sorts on the key
+  * columns, such as the ones before window functions, are then left out of the plan.
+  */
+case class PhoenixBatchScanExec(output: Seq[AttributeReference], @transient scan: PhoenixScan)
+  extends DataSourceV2ScanExecBase {
+
+  @transient lazy val batch: Batch = scan.toBatch
+
+  // Same as BatchScanExec, the output is not part of the identity of the scan
+  override def equals(other: Any): Boolean = other match {
+    case other: PhoenixBatchScanExec => this.batch == other.batch
+    case _ => false
+  }
+
+  override def hashCode(): Int = batch.hashCode()
+
+  override lazy val partitions: Seq[InputPartition] = batch.planInputPartitions()
+
+  override lazy val readerFactory: PartitionReaderFactory = batch.createReaderFactory()
+
+  override lazy val inputRDD: RDD[InternalRow] =
+    new DataSourceRDD(sparkContext, partitions, readerFactory, supportsColumnar)
+
+  override def outputOrdering: Seq[SortOrder] = {
+    // The ordering depends on the planned scans
+    partitions
+    val attributes = output.map(a => a.name -> a).toMap
+    scan.getOrderingColumns.zip(scan.getOrderingDescending).toSeq
+      .takeWhile { case (name, _) => attributes.contains(name) }
+      .map { case (name, descending) => SortOrder(attributes(name), if (descending) Descending else Ascending) }
+  }
+
+  override def doCanonicalize(): PhoenixBatchScanExec =
+    this.copy(output = output.map(QueryPlan.normalizeExpressions(_, output)))
+}
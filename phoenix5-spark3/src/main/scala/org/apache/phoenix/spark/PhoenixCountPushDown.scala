@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import scala.collection.JavaConverters._
+
+import org.apache.phoenix.spark.PhoenixSqlTranslator._
+import org.apache.phoenix.spark.sql.connector.{PhoenixApproximateCount, PhoenixDataSource, PhoenixTable}
+import org.apache.phoenix.util.SchemaUtil
+import org.apache.spark.rdd.RDD
+import org.apache.spark.sql.Strategy
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.{Alias, Attribute, Expression, Literal, UnsafeProjection}
+import org.apache.spark.sql.catalyst.expressions.aggregate.{AggregateExpression, Count}
+import org.apache.spark.sql.catalyst.plans.logical.{Aggregate, Filter, LeafNode, LogicalPlan, Project, Statistics}
+import org.apache.spark.sql.catalyst.rules.Rule
+import org.apache.spark.sql.execution.{LeafExecNode, SQLExecution, SparkPlan}
+import org.apache.spark.sql.execution.datasources.v2.DataSourceV2Relation
+import org.apache.spark.sql.execution.metric.{SQLMetric, SQLMetrics}
+import org.apache.spark.sql.util.CaseInsensitiveStringMap
+
+/**
+  * Optimizer rule answering the global row counts of Phoenix tables read with the
+  * approximateCount option, such as df.count(), with [[PhoenixApproximateCount]] on the driver.
+  * The count is returned as a single row, rather than as one empty row per counted row for
+  * Spark to count. Filters under the count must translate to Phoenix, see
+  * [[PhoenixSqlTranslator]], otherwise the rows are read and counted by Spark.
+  */
+object PhoenixCountPushDown extends Rule[LogicalPlan] {
+
+  override def apply(plan: LogicalPlan): LogicalPlan = plan transformUp {
+    case aggregate @ Aggregate(Nil, Seq(count @ Alias(AggregateExpression(Count(Seq(Literal(value, _))), _,
+      false, None, _), _)), child) if value != null =>
+      countedTable(child, Nil).map { case (options, where) =>
+        PhoenixCount(options, where, count.toAttribute)
+      }.getOrElse(aggregate)
+  }
+
+  /**
+    * @return options of the Phoenix table counted by the plan and the WHERE clause of the count
+    */
+  private def countedTable(plan: LogicalPlan, conditions: Seq[Expression]): Option[(Map[String, String], String)] =
+    plan match {
+      // Projections do not change the number of rows
+      case Project(_, child) => countedTable(child, conditions)
+      case Filter(condition, child) => countedTable(child, conditions :+ condition)
+      case relation: DataSourceV2Relation if relation.table.isInstanceOf[PhoenixTable] =>
+        val options = relation.table.asInstanceOf[PhoenixTable].getOptions.asScala.toMap
+        val caseInsensitiveOptions = new CaseInsensitiveStringMap(options.asJava)
+        val names = relation.output.map(a => a.exprId -> SchemaUtil.getEscapedFullColumnName(a.name)).toMap
+        val where = conditions.map(compile(_, names))
+        if (caseInsensitiveOptions.getBoolean(PhoenixDataSource.APPROXIMATE_COUNT, false)
+          && options.contains("table") && !caseInsensitiveOptions.containsKey(PhoenixDataSource.TENANT_IDS)
+          && !caseInsensitiveOptions.containsKey(PhoenixDataSource.QUERY) && where.forall(_.isDefined)) {
+          Some((options, where.map(_.get).mkString(" AND ")))
+        } else {
+          None
+        }
+      case _ => None
+    }
+}
+
+/**
+  * Row count of a Phoenix table, answered on the driver
+  */
+case class PhoenixCount(options: Map[String, String], where: String, count: Attribute) extends LeafNode {
+  override def output: Seq[Attribute] = Seq(count)
+
+  override def computeStats(): Statistics = Statistics(sizeInBytes = 8, rowCount = Some(1))
+}
+
+/**
+  * Plans the row counts answered on the driver
+  */
+object PhoenixCountStrategy extends Strategy {
+
+  override def apply(plan: LogicalPlan): Seq[SparkPlan] = plan match {
+    case PhoenixCount(options, where, count) => PhoenixCountExec(options, where, Seq(count)) :: Nil
+    case _ => Nil
+  }
+}
+
+/**
+  * Counts the rows of a Phoenix table on the driver, from statistics when possible. The error
+  * bound of an estimate is reported as a metric of the node, and exact counts are counted.
+  */
+case class PhoenixCountExec(options: Map[String, String], where: String, output: Seq[Attribute])
+  extends LeafExecNode {
+
+  override lazy val metrics: Map[String, SQLMetric] = Map(
+    "numOutputRows" -> SQLMetrics.createMetric(sparkContext, "number of output rows"),
+    "errorBound" -> SQLMetrics.createMetric(sparkContext, "count error bound"),
+    "exactCounts" -> SQLMetrics.createMetric(sparkContext, "number of exact counts"))
+
+  override protected def doExecute(): RDD[InternalRow] = {
+    val count = PhoenixApproximateCount.count(options.asJava, where)
+    logInfo(s"Answering count of ${options("table")} with $count")
+    longMetric("numOutputRows") += 1
+    longMetric("errorBound") += count.getErrorBound
+    if (count.isExact) {
+      longMetric("exactCounts") += 1
+    }
+    SQLMetrics.postDriverMetricUpdates(sparkContext,
+      sparkContext.getLocalProperty(SQLExecution.EXECUTION_ID_KEY), metrics.values.toSeq)
+    val row = UnsafeProjection.create(schema).apply(InternalRow(count.getCount)).copy()
+    sparkContext.parallelize(Seq[InternalRow](row), 1)
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import java.util.Locale
+
+import org.apache.spark.sql.catalyst.{FunctionIdentifier, InternalRow}
+import org.apache.spark.sql.catalyst.analysis.TypeCheckResult
+import org.apache.spark.sql.catalyst.expressions.{Cast, DateFormatClass, Expression, ExpressionInfo, FormatNumber,
+Length, Literal, Lower, RegExpExtract, RegExpReplace, StringInstr, StringTrim, StringTrimLeft, StringTrimRight, Substring, Upper}
+import org.apache.spark.sql.catalyst.expressions.codegen.CodegenFallback
+import org.apache.spark.sql.internal.SQLConf
+import org.apache.spark.sql.types.{DataType, DateType, IntegerType, NumericType, StringType, TimestampType}
+
+/**
+  * Call of a Phoenix built-in function from Spark SQL, such as phoenix_substr(col, 1, 4).
+  * [[PhoenixFunctionPushDown]] compiles filters and projections using it into the Phoenix
+  * statement of the scan below them, so Phoenix evaluates them server-side. Anywhere else the
+  * call is evaluated by Spark with the equivalent Spark expression.
+  */
+case class PhoenixFunction(phoenixName: String, children: Seq[Expression], timeZoneId: String)
+  extends Expression with CodegenFallback {
+
+  @transient private lazy val fallback: Expression =
+    PhoenixFunction.definitions(phoenixName).fallback(children, timeZoneId)
+
+  override def dataType: DataType = fallback.dataType
+
+  override def nullable: Boolean = fallback.nullable
+
+  override def checkInputDataTypes(): TypeCheckResult = fallback.checkInputDataTypes()
+
+  override def eval(input: InternalRow): Any = fallback.eval(input)
+
+  override def prettyName: String = PhoenixFunction.SPARK_PREFIX + phoenixName.toLowerCase(Locale.ROOT)
+}
+
+object PhoenixFunction {
+
+  val SPARK_PREFIX = "phoenix_"
+  // Formats Phoenix uses for TO_CHAR without a format, it formats dates in GMT
+  private val DEFAULT_DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS"
+  private val DEFAULT_NUMBER_FORMAT = "#,##0.###"
+  private val PHOENIX_TIME_ZONE = "UTC"
+
+  private[spark] case class Definition(minArgs: Int, maxArgs: Int,
+                                       fallback: (Seq[Expression], String) => Expression)
+
+  private def str(e: Expression, tz: String): Expression = Cast(e, StringType, Some(tz))
+
+  private def int(e: Expression, tz: String): Expression = Cast(e, IntegerType, Some(tz))
+
+  private def toChar(a: Seq[Expression], tz: String): Expression = a.head.dataType match {
+    case DateType | TimestampType =>
+      DateFormatClass(Cast(a.head, TimestampType, Some(PHOENIX_TIME_ZONE)),
+        if (a.size > 1) str(a(1), tz) else Literal(DEFAULT_DATE_FORMAT), Some(PHOENIX_TIME_ZONE))
+    case _: NumericType =>
+      FormatNumber(a.head, if (a.size > 1) str(a(1), tz) else Literal(DEFAULT_NUMBER_FORMAT))
+    // Phoenix only formats dates and numbers, the type check of the date format rejects the rest
+    case _ => DateFormatClass(a.head, Literal(DEFAULT_DATE_FORMAT), Some(PHOENIX_TIME_ZONE))
+  }
+
+  private[spark] val definitions: Map[String, Definition] = Map(
+    "SUBSTR" -> Definition(2, 3, (a, tz) => Substring(str(a(0), tz), int(a(1), tz),
+      if (a.size > 2) int(a(2), tz) else Literal(Integer.MAX_VALUE))),
+    "UPPER" -> Definition(1, 1, (a, tz) => Upper(str(a(0), tz))),
+    "LOWER" -> Definition(1, 1, (a, tz) => Lower(str(a(0), tz))),
+    "TRIM" -> Definition(1, 1, (a, tz) => StringTrim(str(a(0), tz))),
+    "LTRIM" -> Definition(1, 1, (a, tz) => StringTrimLeft(str(a(0), tz))),
+    "RTRIM" -> Definition(1, 1, (a, tz) => StringTrimRight(str(a(0), tz))),
+    "LENGTH" -> Definition(1, 1, (a, tz) => Length(str(a(0), tz))),
+    "INSTR" -> Definition(2, 2, (a, tz) => StringInstr(str(a(0), tz), str(a(1), tz))),
+    // Spark returns an empty string where Phoenix returns null when nothing matches
+    "REGEXP_SUBSTR" -> Definition(2, 2, (a, tz) => RegExpExtract(str(a(0), tz), str(a(1), tz), Literal(0))),
+    "REGEXP_REPLACE" -> Definition(2, 3, (a, tz) => RegExpReplace(str(a(0), tz), str(a(1), tz),
+      if (a.size > 2) str(a(2), tz) else Literal(""))),
+    "TO_CHAR" -> Definition(1, 2, toChar)
+  )
+
+  /**
+    * @return the functions to register in a Spark session, named phoenix_ and the Phoenix name
+    */
+  def functionDescriptions: Seq[(FunctionIdentifier, ExpressionInfo, Seq[Expression] => Expression)] = {
+    definitions.toSeq.map { case (name, definition) =>
+      val sparkName = SPARK_PREFIX + name.toLowerCase(Locale.ROOT)
+      val builder = (args: Seq[Expression]) => {
+        if (args.size < definition.minArgs || args.size > definition.maxArgs) {
+          throw new IllegalArgumentException(s"$sparkName takes ${definition.minArgs} to " +
+            s"${definition.maxArgs} arguments, got ${args.size}")
+        }
+        PhoenixFunction(name, args, SQLConf.get.sessionLocalTimeZone)
+      }
+      (FunctionIdentifier(sparkName), new ExpressionInfo(classOf[PhoenixFunction].getCanonicalName, sparkName),
+        builder)
+    }
+  }
+}
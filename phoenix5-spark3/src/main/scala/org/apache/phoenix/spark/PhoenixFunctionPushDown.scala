@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import org.apache.phoenix.spark.PhoenixSqlTranslator._
+import org.apache.spark.sql.catalyst.expressions.{Alias, And, Attribute, AttributeReference, ExprId, Expression,
+PredicateHelper}
+import org.apache.spark.sql.catalyst.plans.logical.{Filter, LogicalPlan, Project}
+import org.apache.spark.sql.catalyst.rules.Rule
+
+/**
+  * Optimizer rule compiling [[PhoenixFunction]] calls into the Phoenix statement of the scan
+  * they apply to. Spark only pushes simple comparisons of columns to data sources, so filters
+  * such as phoenix_substr(KEY, 1, 4) = 'ABCD' would otherwise be evaluated after reading every
+  * row. Conjuncts of a filter using Phoenix functions, and projections computing them, over a
+  * Phoenix scan are replaced by a read of a Phoenix query evaluating them server-side.
+  */
+object PhoenixFunctionPushDown extends Rule[LogicalPlan] with PredicateHelper {
+
+  override def apply(plan: LogicalPlan): LogicalPlan = plan transformUp {
+    case filter @ Filter(condition, child) if hasPhoenixFunction(condition) =>
+      toSide(child, 0).map { side =>
+        val names = sideColumnNames(side)
+        val (pushed, remaining) = splitConjunctivePredicates(condition)
+          .partition(c => hasPhoenixFunction(c) && compile(c, names).isDefined)
+        if (pushed.isEmpty) {
+          filter
+        } else {
+          val where = pushed.map(compile(_, names).get)
+          val columns = side.output.map(a => s"${names(a.exprId)} AS ${alias(a)}")
+          val pushedRelation = relation(select(side, columns, where),
+            side.output.map(_.asInstanceOf[AttributeReference]), side.options)
+          remaining.reduceOption(And).map(Filter(_, pushedRelation)).getOrElse(pushedRelation)
+        }
+      }.getOrElse(filter)
+    case project @ Project(projectList, child) if projectList.exists(hasPhoenixFunction) =>
+      toSide(child, 0).flatMap { side =>
+        val names = sideColumnNames(side)
+        val columns = projectList.map {
+          case a: Attribute => names.get(a.exprId).map(name => s"$name AS ${alias(a)}")
+          case a: Alias => compile(a.child, names).map(sql => s"$sql AS ${alias(a.toAttribute)}")
+          case _ => None
+        }
+        if (columns.forall(_.isDefined)) {
+          Some(relation(select(side, columns.map(_.get), Nil),
+            projectList.map(_.toAttribute.asInstanceOf[AttributeReference]), side.options))
+        } else {
+          None
+        }
+      }.getOrElse(project)
+  }
+
+  private def hasPhoenixFunction(expression: Expression): Boolean =
+    expression.find(_.isInstanceOf[PhoenixFunction]).isDefined
+
+  // A plain table scan is queried directly, so Phoenix can still split the query into scans
+  private def sideColumnNames(side: Side): Map[ExprId, String] =
+    if (side.table.isDefined) tableColumnNames(side) else columnNames(side, "L0")
+
+  private def select(side: Side, columns: Seq[String], conditions: Seq[String]): String = side.table match {
+    case Some((tableName, pushedWhere)) =>
+      val where = (if (pushedWhere.isEmpty) Nil else Seq(pushedWhere)) ++ conditions
+      s"SELECT ${columns.mkString(", ")} FROM $tableName" +
+        (if (where.isEmpty) "" else where.mkString(" WHERE (", ") AND (", ")"))
+    case None =>
+      s"SELECT ${columns.mkString(", ")} FROM ${side.sql} AS L0" +
+        (if (conditions.isEmpty) "" else conditions.mkString(" WHERE ", " AND ", ""))
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import java.sql.DriverManager
+
+import scala.collection.JavaConverters._
+
+import org.apache.phoenix.iterate.MapReduceParallelScanGrouper
+import org.apache.phoenix.jdbc.{PhoenixConnection, PhoenixStatement}
+import org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil
+import org.apache.phoenix.query.{QueryServices, QueryServicesOptions}
+import org.apache.phoenix.spark.PhoenixSqlTranslator._
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource
+import org.apache.phoenix.util.PhoenixRuntime
+import org.apache.phoenix.util.PhoenixRuntime.{JDBC_PROTOCOL, JDBC_PROTOCOL_SEPARATOR}
+import org.apache.spark.sql.catalyst.expressions.{AttributeReference, ExprId}
+import org.apache.spark.sql.catalyst.plans.{FullOuter, Inner, JoinType, LeftOuter, RightOuter}
+import org.apache.spark.sql.catalyst.plans.logical.{Join, LogicalPlan}
+import org.apache.spark.sql.catalyst.rules.Rule
+
+/**
+  * Optimizer rule running joins of Phoenix tables in Phoenix. A join whose sides only consist
+  * of Phoenix scans of the same cluster, tenant and SCN, optionally under filters and column
+  * projections, is replaced by a single read of a Phoenix query joining the tables, so Phoenix
+  * runs the join with its hash or sort-merge join instead of Spark reading both tables.
+  *
+  * Each side becomes a derived table, see [[PhoenixSqlTranslator]], so joins of already
+  * collapsed joins compose. The subtree is left to Spark if any join type, condition or filter
+  * cannot be expressed in Phoenix.
+  *
+  * The join result is read by a single partition and Phoenix sends the side it hashes to every
+  * RegionServer, failing the query when that side exceeds phoenix.query.maxServerCacheBytes. The
+  * rewrite is therefore only done when both reads set pushDownJoins, and the statistics of the
+  * hashed side estimate it at most joinMaxBuildBytes.
+  */
+object PhoenixJoinPushDown extends Rule[LogicalPlan] {
+
+  override def apply(plan: LogicalPlan): LogicalPlan = plan transformUp {
+    case join @ Join(left, right, joinType, Some(condition), _) =>
+      (toSide(left, 0), toSide(right, 1), joinKeyword(joinType)) match {
+        case (Some(l), Some(r), Some(keyword)) if connectionKey(l.options) == connectionKey(r.options)
+            && isEnabled(l.options) && isEnabled(r.options) =>
+          val names = columnNames(l, "L0") ++ columnNames(r, "L1")
+          compile(condition, names) match {
+            case Some(on) if buildSideFits(joinType, l, r) => collapse(join, l, r, keyword, on, names)
+            case _ => join
+          }
+        case _ => join
+      }
+  }
+
+  private def collapse(join: Join, left: Side, right: Side, keyword: String, on: String,
+                       names: Map[ExprId, String]): LogicalPlan = {
+    val output = join.output.map(_.asInstanceOf[AttributeReference])
+    val query = output.map(a => s"${names(a.exprId)} AS ${alias(a)}").mkString("SELECT ", ", ", "") +
+      s" FROM ${left.sql} AS L0 $keyword ${right.sql} AS L1 ON $on"
+    logDebug(s"Running join in Phoenix: $query")
+    relation(query, output, left.options)
+  }
+
+  private def isEnabled(options: Map[String, String]): Boolean =
+    options.find(_._1.equalsIgnoreCase(PhoenixDataSource.PUSH_DOWN_JOINS)).exists(_._2.toBoolean)
+
+  /**
+    * Phoenix hashes the right side of inner and left outer joins and the left side of right
+    * outer joins, full outer joins run as sort-merge joins and cache nothing
+    */
+  private def buildSideFits(joinType: JoinType, left: Side, right: Side): Boolean = {
+    val buildSide = joinType match {
+      case RightOuter => Some(left)
+      case FullOuter => None
+      case _ => Some(right)
+    }
+    buildSide.forall { side =>
+      val fits = estimateBytes(side) match {
+        case Some((bytes, maxBytes)) => bytes <= maxBytes
+        // Only plain table reads are estimated, without running anything
+        case None => false
+      }
+      if (!fits) {
+        logDebug(s"Leaving join to Spark, the side Phoenix would hash may not fit its cache: ${side.sql}")
+      }
+      fits
+    }
+  }
+
+  /**
+    * @return bytes Phoenix would scan for a table side according to its statistics, and the
+    *         largest size allowed for it, None when there is no estimate
+    */
+  private def estimateBytes(side: Side): Option[(Long, Long)] = side.table.flatMap { _ =>
+    val options = side.options.map { case (k, v) => k.toLowerCase -> v }
+    val props = PhoenixDataSource.extractPhoenixHBaseConfFromOptions(side.options.asJava)
+    options.get(PhoenixConfigurationUtil.CURRENT_SCN_VALUE.toLowerCase)
+      .foreach(props.put(PhoenixRuntime.CURRENT_SCN_ATTRIB, _))
+    options.get(PhoenixRuntime.TENANT_ID_ATTRIB.toLowerCase)
+      .orElse(options.get(PhoenixConfigurationUtil.MAPREDUCE_TENANT_ID.toLowerCase))
+      .foreach(props.put(PhoenixRuntime.TENANT_ID_ATTRIB, _))
+    val conn = DriverManager.getConnection(
+      JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + options(PhoenixDataSource.ZOOKEEPER_URL.toLowerCase), props)
+    try {
+      val maxBytes = options.get(PhoenixDataSource.JOIN_MAX_BUILD_BYTES.toLowerCase).map(_.toLong)
+        .orElse(Option(props.getProperty(QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB)).map(_.toLong))
+        .getOrElse(conn.unwrap(classOf[PhoenixConnection]).getQueryServices.getProps.getLong(
+          QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_SIZE))
+      // A table side is a parenthesized SELECT of the table
+      val queryPlan = conn.createStatement().unwrap(classOf[PhoenixStatement])
+        .optimizeQuery(side.sql.substring(1, side.sql.length - 1))
+      // Sets up the parallel scans and the estimates without running them
+      queryPlan.iterator(MapReduceParallelScanGrouper.getInstance())
+      Option(queryPlan.getEstimatedBytesToScan).map(bytes => (bytes.longValue, maxBytes))
+    } finally {
+      conn.close()
+    }
+  }
+
+  private def joinKeyword(joinType: JoinType): Option[String] = joinType match {
+    case Inner => Some("INNER JOIN")
+    case LeftOuter => Some("LEFT OUTER JOIN")
+    case RightOuter => Some("RIGHT OUTER JOIN")
+    case FullOuter => Some("FULL OUTER JOIN")
+    case _ => None
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import org.apache.phoenix.spark.sql.connector.reader.PhoenixScan
+import org.apache.spark.sql.Strategy
+import org.apache.spark.sql.catalyst.expressions.And
+import org.apache.spark.sql.catalyst.planning.PhysicalOperation
+import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan
+import org.apache.spark.sql.execution.{FilterExec, ProjectExec, SparkPlan}
+import org.apache.spark.sql.execution.datasources.v2.DataSourceV2ScanRelation
+
+/**
+  * Plans the reads of Phoenix tables with the reportOrdering option as [[PhoenixBatchScanExec]],
+  * the rest is left to the DataSourceV2Strategy of Spark. Filters and projections above the
+  * scan are planned the same way as that strategy does.
+  */
+object PhoenixScanStrategy extends Strategy {
+
+  override def apply(plan: LogicalPlan): Seq[SparkPlan] = plan match {
+    case PhysicalOperation(project, filters, DataSourceV2ScanRelation(_, scan: PhoenixScan, output))
+      if scan.isOrderingReported =>
+      val scanExec = PhoenixBatchScanExec(output, scan)
+      val withFilter = filters.reduceLeftOption(And).map(FilterExec(_, scanExec)).getOrElse(scanExec)
+      val withProjection = if (withFilter.output != project) ProjectExec(project, withFilter) else withFilter
+      withProjection :: Nil
+    case _ => Nil
+  }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import org.apache.spark.sql.SparkSessionExtensions
+
+/**
+  * Registers the Phoenix functions, optimizer rules and planner strategies with a Spark session,
+  * enable with spark.sql.extensions=org.apache.phoenix.spark.PhoenixSparkSessionExtensions
+  */
+class PhoenixSparkSessionExtensions extends (SparkSessionExtensions => Unit) {
+
+  override def apply(extensions: SparkSessionExtensions): Unit = {
+    PhoenixFunction.functionDescriptions.foreach(extensions.injectFunction)
+    extensions.injectOptimizerRule(_ => PhoenixCountPushDown)
+    // Functions are pushed into the scans first so the joins see the resulting queries
+    extensions.injectOptimizerRule(_ => PhoenixFunctionPushDown)
+    extensions.injectOptimizerRule(_ => PhoenixJoinPushDown)
+    // Writes run by Phoenix need no distribution
+    extensions.injectOptimizerRule(_ => PhoenixUpsertSelectPushDown)
+    extensions.injectOptimizerRule(_ => PhoenixWriteDistribution)
+    extensions.injectPlannerStrategy(_ => PhoenixScanStrategy)
+    extensions.injectPlannerStrategy(_ => PhoenixUpsertSelectStrategy)
+    extensions.injectPlannerStrategy(_ => PhoenixCountStrategy)
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import java.util.Locale
+
+import scala.collection.JavaConverters._
+
+import org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil
+import org.apache.phoenix.spark.sql.connector.{PhoenixDataSource, PhoenixTable}
+import org.apache.phoenix.spark.sql.connector.reader.{PhoenixScan, PhoenixScanBuilder}
+import org.apache.phoenix.util.{PhoenixRuntime, SchemaUtil}
+import org.apache.spark.sql.catalyst.expressions.{And, Attribute, AttributeReference, EqualTo, ExprId,
+Expression, GreaterThan, GreaterThanOrEqual, In, IsNotNull, IsNull, LessThan, LessThanOrEqual, Literal, Not, Or}
+import org.apache.spark.sql.catalyst.plans.logical.{Filter, LogicalPlan, Project}
+import org.apache.spark.sql.catalyst.util.DateTimeUtils
+import org.apache.spark.sql.execution.datasources.v2.{DataSourceV2Relation, DataSourceV2ScanRelation}
+import org.apache.spark.sql.types.{BinaryType, DateType, Decimal, StructField, StructType, TimestampType}
+import org.apache.spark.sql.util.CaseInsensitiveStringMap
+
+/**
+  * Translates the parts of a logical plan reading Phoenix back into Phoenix SQL, for the
+  * optimizer rules that hand work over to Phoenix.
+  *
+  * A plan over Phoenix scans becomes a derived table whose columns are aliased after the
+  * expression ids of the Spark attributes, so the relations built from it keep the output
+  * attributes of the plan they replace, and can themselves be translated again.
+  */
+private[spark] object PhoenixSqlTranslator {
+
+  // Marks the relations built here, their columns are named after the attribute ids
+  val TRANSLATED = "phoenix.translated"
+
+  // Options that must be equal for Phoenix to run plans over several scans with one connection
+  private val CONNECTION_OPTIONS = Seq(PhoenixDataSource.ZOOKEEPER_URL, PhoenixRuntime.TENANT_ID_ATTRIB,
+    PhoenixConfigurationUtil.MAPREDUCE_TENANT_ID, PhoenixConfigurationUtil.CURRENT_SCN_VALUE,
+    PhoenixDataSource.PHOENIX_CONFIGS, "dateAsTimestamp")
+
+  private val filterCompiler = new FilterExpressionCompiler()
+
+  /**
+    * A plan translated to Phoenix: a derived table, the connection options and, for a plain
+    * scan of a table, the table and its pushed WHERE clause so it can be queried directly
+    */
+  case class Side(sql: String, output: Seq[Attribute], options: Map[String, String],
+                  table: Option[(String, String)] = None)
+
+  /**
+    * Translates a Phoenix scan under filters and attribute projections. Rules injected into the
+    * optimizer of Spark 3.0 run before the filters and columns of the reads are pushed into their
+    * scans, so reads are still plain relations of Phoenix tables. The relations built by
+    * [[relation]] already carry their scan.
+    */
+  def toSide(plan: LogicalPlan, index: Int): Option[Side] = plan match {
+    case read: DataSourceV2Relation if read.table.isInstanceOf[PhoenixTable] =>
+      scanSide(read.table.asInstanceOf[PhoenixTable], read.output, "")
+    case DataSourceV2ScanRelation(table: PhoenixTable, scan: PhoenixScan, output) =>
+      scanSide(table, output, Option(scan.getWhereClause).getOrElse(""))
+    case Project(projectList, child) if projectList.forall(_.isInstanceOf[Attribute]) =>
+      toSide(child, index).map(_.copy(output = projectList.map(_.asInstanceOf[Attribute])))
+    case Filter(condition, child) =>
+      toSide(child, index).flatMap { side =>
+        side.table match {
+          // Conditions on a table are added to its WHERE clause, as Spark would push them into the scan
+          case Some((tableName, where)) =>
+            compile(condition, tableColumnNames(side)).map { c =>
+              tableSide(tableName, side.output, side.options, if (where.isEmpty) c else s"($where) AND $c")
+            }
+          case None =>
+            val alias = s"L$index"
+            compile(condition, columnNames(side, alias)).map { where =>
+              Side(s"(SELECT * FROM ${side.sql} AS $alias WHERE $where)", side.output, side.options)
+            }
+        }
+      }
+    case _ => None
+  }
+
+  private def scanSide(table: PhoenixTable, output: Seq[Attribute], pushedWhere: String): Option[Side] = {
+    val options = table.getOptions.asScala.toMap
+    if (options.contains(PhoenixDataSource.TENANT_IDS)) {
+      None
+    } else if (options.contains(PhoenixDataSource.QUERY)) {
+      // Only translated relations have known column names
+      if (options.contains(TRANSLATED)) {
+        Some(Side(s"(${options(PhoenixDataSource.QUERY)})", output, options))
+      } else {
+        None
+      }
+    } else if (output.exists(_.dataType == BinaryType)) {
+      None
+    } else {
+      Some(tableSide(options("table"), output, options, pushedWhere.trim))
+    }
+  }
+
+  private def tableSide(tableName: String, output: Seq[Attribute], options: Map[String, String],
+                        where: String): Side = {
+    val columns = if (output.isEmpty) {
+      "1 AS DUMMY"
+    } else {
+      output.map(a => s"${SchemaUtil.getEscapedFullColumnName(a.name)} AS ${alias(a)}").mkString(", ")
+    }
+    val whereSql = if (where.isEmpty) "" else " WHERE " + where
+    Side(s"(SELECT $columns FROM $tableName$whereSql)", output, options, Some((tableName, where)))
+  }
+
+  /**
+    * @return Phoenix names of the output columns of a side used as the derived table tableAlias
+    */
+  def columnNames(side: Side, tableAlias: String): Map[ExprId, String] = {
+    side.output.map(a => a.exprId -> s"$tableAlias.${alias(a)}").toMap
+  }
+
+  /**
+    * @return Phoenix names of the columns of a table scanned directly
+    */
+  def tableColumnNames(side: Side): Map[ExprId, String] = {
+    side.output.map(a => a.exprId -> SchemaUtil.getEscapedFullColumnName(a.name)).toMap
+  }
+
+  def alias(attribute: Attribute): String = s"A${attribute.exprId.id}"
+
+  def connectionKey(options: Map[String, String]): Seq[Option[String]] = {
+    val caseInsensitive = options.map { case (k, v) => k.toLowerCase(Locale.ROOT) -> v }
+    CONNECTION_OPTIONS.map(key => caseInsensitive.get(key.toLowerCase(Locale.ROOT)))
+  }
+
+  /**
+    * Builds a relation reading a translated query, whose columns are aliased after the output
+    */
+  def relation(query: String, output: Seq[AttributeReference], baseOptions: Map[String, String]): LogicalPlan = {
+    val options = baseOptions - "table" - PhoenixDataSource.QUERY +
+      (PhoenixDataSource.QUERY -> query) + (TRANSLATED -> "true")
+    val schema = StructType(output.map(a => StructField(a.name, a.dataType, a.nullable, a.metadata)))
+    val table = new PhoenixTable(schema, options.asJava)
+    val scan = new PhoenixScanBuilder(schema, new CaseInsensitiveStringMap(options.asJava)).build()
+    DataSourceV2ScanRelation(table, scan, output)
+  }
+
+  /**
+    * Translates an expression to Phoenix SQL, None if any part of it has no Phoenix equivalent
+    */
+  def compile(expression: Expression, names: Map[ExprId, String]): Option[String] = {
+    def binary(left: Expression, op: String, right: Expression): Option[String] =
+      for (l <- compile(left, names); r <- compile(right, names)) yield s"($l $op $r)"
+
+    expression match {
+      case a: Attribute => names.get(a.exprId)
+      case Literal(null, _) => Some("NULL")
+      case Literal(value, DateType) =>
+        Some(filterCompiler.compileValue(DateTimeUtils.toJavaDate(value.asInstanceOf[Int])).toString)
+      case Literal(value, TimestampType) =>
+        Some(filterCompiler.compileValue(DateTimeUtils.toJavaTimestamp(value.asInstanceOf[Long])).toString)
+      case Literal(value: Decimal, _) => Some(value.toJavaBigDecimal.toPlainString)
+      case Literal(_, BinaryType) => None
+      case Literal(value, _) => Some(filterCompiler.compileValue(value).toString)
+      case EqualTo(l, r) => binary(l, "=", r)
+      case GreaterThan(l, r) => binary(l, ">", r)
+      case GreaterThanOrEqual(l, r) => binary(l, ">=", r)
+      case LessThan(l, r) => binary(l, "<", r)
+      case LessThanOrEqual(l, r) => binary(l, "<=", r)
+      case And(l, r) => binary(l, "AND", r)
+      case Or(l, r) => binary(l, "OR", r)
+      case Not(child) => compile(child, names).map(c => s"(NOT $c)")
+      case IsNull(child) => compile(child, names).map(c => s"($c IS NULL)")
+      case IsNotNull(child) => compile(child, names).map(c => s"($c IS NOT NULL)")
+      case In(value, list) =>
+        val compiled = (value +: list).map(compile(_, names))
+        if (compiled.forall(_.isDefined)) {
+          Some(s"(${compiled.head.get} IN ${compiled.tail.map(_.get).mkString("(", ", ", ")")})")
+        } else {
+          None
+        }
+      case f: PhoenixFunction =>
+        val args = f.children.map(compile(_, names))
+        if (args.forall(_.isDefined)) {
+          Some(s"${f.phoenixName}(${args.map(_.get).mkString(", ")})")
+        } else {
+          None
+        }
+      case _ => None
+    }
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import java.sql.{Connection, DriverManager}
+
+import scala.collection.JavaConverters._
+
+import org.apache.phoenix.mapreduce.util.PhoenixConfigurationUtil
+import org.apache.phoenix.spark.PhoenixSqlTranslator._
+import org.apache.phoenix.spark.sql.connector.{PhoenixDataSource, PhoenixTable}
+import org.apache.phoenix.util.{PhoenixRuntime, SchemaUtil}
+import org.apache.phoenix.util.PhoenixRuntime.{JDBC_PROTOCOL, JDBC_PROTOCOL_SEPARATOR}
+import org.apache.spark.rdd.RDD
+import org.apache.spark.sql.Strategy
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.{Alias, Attribute}
+import org.apache.spark.sql.catalyst.plans.logical.{AppendData, LeafNode, LogicalPlan, Project}
+import org.apache.spark.sql.catalyst.rules.Rule
+import org.apache.spark.sql.execution.{LeafExecNode, SQLExecution, SparkPlan}
+import org.apache.spark.sql.execution.datasources.v2.DataSourceV2Relation
+import org.apache.spark.sql.execution.metric.{SQLMetric, SQLMetrics}
+import org.apache.spark.sql.util.CaseInsensitiveStringMap
+
+/**
+  * Optimizer rule running appends to a Phoenix table whose input only reads Phoenix tables of the
+  * same cluster, tenant and SCN, as translated by [[PhoenixSqlTranslator]], as a single
+  * UPSERT INTO ... SELECT executed by Phoenix, so the rows never go through the executors.
+  * Enabled by the upsertSelect option of the write.
+  *
+  * Only statements Phoenix runs on the RegionServers, typically when the source and target are
+  * the same table, are pushed down. Phoenix would run the others from the driver, scanning the
+  * source and upserting every row from there, so they are left to the executors.
+  */
+object PhoenixUpsertSelectPushDown extends Rule[LogicalPlan] {
+
+  override def apply(plan: LogicalPlan): LogicalPlan = plan transformDown {
+    case append @ AppendData(relation: DataSourceV2Relation, query, _, _)
+      if relation.table.isInstanceOf[PhoenixTable] =>
+      val options = relation.table.asInstanceOf[PhoenixTable].getOptions.asScala.toMap
+      val caseInsensitiveOptions = new CaseInsensitiveStringMap(options.asJava)
+      if (!caseInsensitiveOptions.getBoolean(PhoenixDataSource.UPSERT_SELECT, false)
+        || !options.contains("table") || options.contains(PhoenixDataSource.TENANT_IDS)) {
+        append
+      } else {
+        toUpsertSelect(options, relation.output, query).getOrElse(append)
+      }
+  }
+
+  private def toUpsertSelect(options: Map[String, String], targetOutput: Seq[Attribute],
+                             query: LogicalPlan): Option[LogicalPlan] = {
+    val (input, child) = unalias(query)
+    toSide(child, 0).filter { side =>
+      input.nonEmpty && input.size == targetOutput.size && connectionKey(side.options) == connectionKey(options)
+    }.map { side =>
+      val skipNormalizing = new CaseInsensitiveStringMap(options.asJava)
+        .getBoolean(PhoenixDataSource.SKIP_NORMALIZING_IDENTIFIER, false)
+      val targetColumns = targetOutput.map { a =>
+        SchemaUtil.getEscapedFullColumnName(if (skipNormalizing) a.name else SchemaUtil.normalizeIdentifier(a.name))
+      }
+      val select = side.table match {
+        // A plain scan of a table is selected from directly, for Phoenix to recognise copies within a table
+        case Some((tableName, where)) =>
+          val names = tableColumnNames(side)
+          s"SELECT ${input.map(a => names(a.exprId)).mkString(", ")} FROM $tableName" +
+            (if (where.trim.isEmpty) "" else s" WHERE $where")
+        case _ =>
+          val names = columnNames(side, "L0")
+          s"SELECT ${input.map(a => names(a.exprId)).mkString(", ")} FROM ${side.sql} AS L0"
+      }
+      s"UPSERT INTO ${options("table")} ${targetColumns.mkString("(", ", ", ")")} $select"
+    }.filter(runsOnServer(_, options)).map { sql =>
+      logDebug(s"Running write in Phoenix: $sql")
+      PhoenixUpsertSelect(sql, options)
+    }
+  }
+
+  /**
+    * @return whether Phoenix runs the statement with auto commit on the RegionServers, as its
+    *         plan then upserts the rows where they are read instead of selecting them
+    */
+  private def runsOnServer(sql: String, options: Map[String, String]): Boolean = {
+    val conn = PhoenixUpsertSelect.connect(options)
+    try {
+      conn.setAutoCommit(true)
+      val rs = conn.createStatement().executeQuery(s"EXPLAIN $sql")
+      val runsOnServer = rs.next() && rs.getString(1).startsWith("UPSERT ROWS")
+      if (!runsOnServer) {
+        logInfo(s"Not running write in Phoenix, which would not run it on the RegionServers: $sql")
+      }
+      runsOnServer
+    } finally {
+      conn.close()
+    }
+  }
+
+  /**
+    * @return attributes of the input written to each column of the target, and the plan below
+    *         the renames added when the input was matched to the target
+    */
+  private def unalias(query: LogicalPlan): (Seq[Attribute], LogicalPlan) = query match {
+    case Project(projectList, child) if projectList.forall {
+      case _: Attribute | Alias(_: Attribute, _) => true
+      case _ => false
+    } =>
+      (projectList.map {
+        case a: Attribute => a
+        case Alias(a: Attribute, _) => a
+      }, child)
+    case _ => (query.output, query)
+  }
+}
+
+/**
+  * Write run by Phoenix as a single UPSERT SELECT statement
+  */
+case class PhoenixUpsertSelect(sql: String, options: Map[String, String]) extends LeafNode {
+  override def output: Seq[Attribute] = Nil
+}
+
+object PhoenixUpsertSelect {
+
+  /**
+    * @return connection with the tenant and SCN of the write
+    */
+  def connect(options: Map[String, String]): Connection = {
+    val props = PhoenixDataSource.extractPhoenixHBaseConfFromOptions(options.asJava)
+    options.get(PhoenixRuntime.TENANT_ID_ATTRIB).foreach(props.put(PhoenixRuntime.TENANT_ID_ATTRIB, _))
+    options.get(PhoenixConfigurationUtil.CURRENT_SCN_VALUE).foreach(props.put(PhoenixRuntime.CURRENT_SCN_ATTRIB, _))
+    DriverManager.getConnection(JDBC_PROTOCOL + JDBC_PROTOCOL_SEPARATOR + options(PhoenixDataSource.ZOOKEEPER_URL),
+      props)
+  }
+}
+
+/**
+  * Plans the writes run by Phoenix
+  */
+object PhoenixUpsertSelectStrategy extends Strategy {
+
+  override def apply(plan: LogicalPlan): Seq[SparkPlan] = plan match {
+    case PhoenixUpsertSelect(sql, options) => PhoenixUpsertSelectExec(sql, options) :: Nil
+    case _ => Nil
+  }
+}
+
+/**
+  * Executes an UPSERT SELECT statement with auto commit from the driver, which the RegionServers
+  * run, reporting the number of rows upserted as the output rows of the node
+  */
+case class PhoenixUpsertSelectExec(sql: String, options: Map[String, String]) extends LeafExecNode {
+
+  override def output: Seq[Attribute] = Nil
+
+  override lazy val metrics: Map[String, SQLMetric] = Map(
+    "numOutputRows" -> SQLMetrics.createMetric(sparkContext, "number of output rows"))
+
+  override protected def doExecute(): RDD[InternalRow] = {
+    val conn = PhoenixUpsertSelect.connect(options)
+    try {
+      conn.setAutoCommit(true)
+      val rows = conn.createStatement().executeUpdate(sql)
+      logInfo(s"Upserted $rows rows with $sql")
+      longMetric("numOutputRows") += rows
+    } finally {
+      conn.close()
+    }
+    SQLMetrics.postDriverMetricUpdates(sparkContext,
+      sparkContext.getLocalProperty(SQLExecution.EXECUTION_ID_KEY), metrics.values.toSeq)
+    sparkContext.emptyRDD[InternalRow]
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark
+
+import org.apache.phoenix.spark.sql.connector.{PhoenixDataSource, PhoenixTable}
+import org.apache.phoenix.spark.sql.connector.writer.PhoenixWriteLayout
+import org.apache.spark.sql.catalyst.InternalRow
+import org.apache.spark.sql.catalyst.expressions.{Ascending, Expression, SortOrder, UnaryExpression}
+import org.apache.spark.sql.catalyst.expressions.codegen.CodegenFallback
+import org.apache.spark.sql.catalyst.plans.logical.{AppendData, LogicalPlan, RepartitionByExpression, Sort}
+import org.apache.spark.sql.catalyst.rules.Rule
+import org.apache.spark.sql.execution.datasources.v2.DataSourceV2Relation
+import org.apache.spark.sql.internal.SQLConf
+import org.apache.spark.sql.types.{BinaryType, DataType, IntegerType, StructType}
+import org.apache.spark.sql.util.CaseInsensitiveStringMap
+
+/**
+  * Row key of a row written to a Phoenix table, computed from its primary key columns
+  */
+case class PhoenixRowKey(children: Seq[Expression], layout: PhoenixWriteLayout)
+  extends Expression with CodegenFallback {
+
+  override def nullable: Boolean = true
+
+  override def dataType: DataType = BinaryType
+
+  override def eval(input: InternalRow): Any =
+    layout.encodeRowKey(InternalRow.fromSeq(children.map(_.eval(input))))
+
+  override def prettyName: String = "phoenix_row_key"
+}
+
+/**
+  * Index of the region of a Phoenix table a row key belongs to, as of the planning of the write
+  */
+case class PhoenixRegionIndex(child: Expression, layout: PhoenixWriteLayout)
+  extends UnaryExpression with CodegenFallback {
+
+  override def dataType: DataType = IntegerType
+
+  override protected def nullSafeEval(rowKey: Any): Any = layout.getRegionIndex(rowKey.asInstanceOf[Array[Byte]])
+
+  override def prettyName: String = "phoenix_region_index"
+}
+
+/**
+  * Optimizer rule clustering the rows appended to a Phoenix table by the region they go to, and
+  * optionally sorting them by row key within each task, which the DataSourceV2 API of Spark 3.0
+  * cannot ask for. The rows are range partitioned on their region index, so each region is written
+  * by a single task and each task writes a contiguous range of regions, in larger batches. The
+  * regions are the ones of the table when the write is planned, see [[PhoenixWriteLayout]].
+  */
+object PhoenixWriteDistribution extends Rule[LogicalPlan] {
+
+  /**
+    * Layouts planned for the tables written, by table and schema of the rows written. The optimizer
+    * runs the rule several times on the same plan, each write reads a new [[PhoenixTable]], so a
+    * layout is planned once per write and dropped with its plan.
+    */
+  private val layouts = new java.util.WeakHashMap[PhoenixTable, Map[StructType, Option[PhoenixWriteLayout]]]()
+
+  override def apply(plan: LogicalPlan): LogicalPlan = plan transformDown {
+    case append @ AppendData(relation: DataSourceV2Relation, query, _, _)
+      if relation.table.isInstanceOf[PhoenixTable] && !isDistributed(query) =>
+      val table = relation.table.asInstanceOf[PhoenixTable]
+      val options = new CaseInsensitiveStringMap(table.getOptions)
+      if (!options.getBoolean(PhoenixDataSource.DISTRIBUTE_WRITES, true)) {
+        append
+      } else {
+        layout(table, query.schema).map { layout =>
+          val keyColumns = layout.getKeyFields.map(name => query.output.find(_.name == name).get)
+          val rowKey = PhoenixRowKey(keyColumns, layout)
+          val numPartitions = math.min(layout.getRegionCount, SQLConf.get.numShufflePartitions)
+          val distributed = RepartitionByExpression(
+            Seq(SortOrder(PhoenixRegionIndex(rowKey, layout), Ascending)), query, numPartitions)
+          val ordered = if (options.getBoolean(PhoenixDataSource.SORT_WRITES, false)) {
+            Sort(Seq(SortOrder(rowKey, Ascending)), global = false, distributed)
+          } else {
+            distributed
+          }
+          append.copy(query = ordered)
+        }.getOrElse(append)
+      }
+  }
+
+  private def layout(table: PhoenixTable, schema: StructType): Option[PhoenixWriteLayout] = layouts.synchronized {
+    val planned = Option(layouts.get(table)).getOrElse(Map.empty)
+    planned.getOrElse(schema, {
+      val layout = Option(PhoenixWriteLayout.plan(table.getOptions, schema))
+      layouts.put(table, planned + (schema -> layout))
+      layout
+    })
+  }
+
+  /**
+    * @return whether the rows appended are already clustered by this rule, which the optimizer
+    * may run again on the same plan
+    */
+  private def isDistributed(query: LogicalPlan): Boolean = query match {
+    case Sort(_, false, child) => isDistributed(child)
+    case RepartitionByExpression(Seq(SortOrder(_: PhoenixRegionIndex, _, _, _)), _, _) => true
+    case _ => false
+  }
+}
@@ -18,13 +18,10 @@
 
 package org.apache.spark.sql.execution.datasources
 
-import java.sql.{Connection, PreparedStatement, ResultSet}
-import java.util.Locale
+import java.sql.ResultSet
 
 import org.apache.spark.executor.InputMetrics
-import org.apache.spark.sql.Row
 import org.apache.spark.sql.catalyst.InternalRow
-import org.apache.spark.sql.catalyst.encoders.RowEncoder
 import org.apache.spark.sql.catalyst.expressions.SpecificInternalRow
 import org.apache.spark.sql.catalyst.util.{DateTimeUtils, GenericArrayData}
 import org.apache.spark.sql.execution.datasources.jdbc.JdbcUtils._
@@ -34,14 +31,9 @@ Decimal, DecimalType, DoubleType, FloatType, IntegerType, LongType, Metadata, Sh
 StructType, TimestampType}
 import org.apache.spark.unsafe.types.UTF8String
 import org.apache.spark.util.NextIterator
-import org.apache.spark.sql.catalyst.encoders.ExpressionEncoder
 
 object SparkJdbcUtil {
 
-  def toRow(encoder: ExpressionEncoder[Row], internalRow: InternalRow) : Row = {
-    encoder.createDeserializer().apply(internalRow)
-  }
-
   // A `JDBCValueGetter` is responsible for getting a value from `ResultSet` into a field
   // for `MutableRow`. The last argument `Int` means the index for the value to be set in
   // the row and also used for the value in `ResultSet`.
@@ -227,80 +219,6 @@ object SparkJdbcUtil {
     }
   }
 
-  // A `JDBCValueSetter` is responsible for setting a value from `Row` into a field for
-  // `PreparedStatement`. The last argument `Int` means the index for the value to be set
-  // in the SQL statement and also used for the value in `Row`.
-  private type JDBCValueSetter = (PreparedStatement, Row, Int) => Unit
-
-  // take from Spark JdbcUtils.scala, cannot be used directly because the method is private
-  def makeSetter(
-                  conn: Connection,
-                  dialect: JdbcDialect,
-                  dataType: DataType): JDBCValueSetter = dataType match {
-    case IntegerType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setInt(pos + 1, row.getInt(pos))
-
-    case LongType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setLong(pos + 1, row.getLong(pos))
-
-    case DoubleType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setDouble(pos + 1, row.getDouble(pos))
-
-    case FloatType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setFloat(pos + 1, row.getFloat(pos))
-
-    case ShortType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setInt(pos + 1, row.getShort(pos))
-
-    case ByteType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setInt(pos + 1, row.getByte(pos))
-
-    case BooleanType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setBoolean(pos + 1, row.getBoolean(pos))
-
-    case StringType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setString(pos + 1, row.getString(pos))
-
-    case BinaryType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setBytes(pos + 1, row.getAs[Array[Byte]](pos))
-
-    case TimestampType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setTimestamp(pos + 1, row.getAs[java.sql.Timestamp](pos))
-
-    case DateType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setDate(pos + 1, row.getAs[java.sql.Date](pos))
-
-    case t: DecimalType =>
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        stmt.setBigDecimal(pos + 1, row.getDecimal(pos))
-
-    case ArrayType(et, _) =>
-      // remove type length parameters from end of type name
-      val typeName = getJdbcType(et, dialect).databaseTypeDefinition
-        .toLowerCase(Locale.ROOT).split("\\(")(0)
-      (stmt: PreparedStatement, row: Row, pos: Int) =>
-        val array = conn.createArrayOf(
-          typeName,
-          row.getSeq[AnyRef](pos).toArray)
-        stmt.setArray(pos + 1, array)
-
-    case _ =>
-      (_: PreparedStatement, _: Row, pos: Int) =>
-        throw new IllegalArgumentException(
-          s"Can't translate non-null value for field $pos")
-  }
-
   // taken from Spark JdbcUtils
   def getJdbcType(dt: DataType, dialect: JdbcDialect): JdbcType = {
     dialect.getJDBCType(dt).orElse(getCommonJDBCType(dt)).getOrElse(
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.plugin.PluginContext;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+public class PhoenixSparkPluginTest {
+
+    private static PluginContext context(final SparkConf conf) {
+        return (PluginContext) Proxy.newProxyInstance(PhoenixSparkPluginTest.class.getClassLoader(),
+                new Class<?>[] { PluginContext.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("conf")) {
+                        return conf;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    public void testMalformedConfigsDoNotFailTheExecutor() {
+        SparkConf conf = new SparkConf(false)
+                .set(PhoenixSparkPlugin.ZOOKEEPER_URL_CONF, "localhost:2181")
+                .set(PhoenixSparkPlugin.PHOENIX_CONFIGS_CONF, "p1=v1,p2");
+        PhoenixSparkPlugin.PhoenixExecutorPlugin plugin = new PhoenixSparkPlugin.PhoenixExecutorPlugin();
+        plugin.init(context(conf), Collections.emptyMap());
+        plugin.shutdown();
+    }
+
+    @Test
+    public void testNothingIsWarmedUpWithoutZookeeperUrl() {
+        PhoenixSparkPlugin.PhoenixExecutorPlugin plugin = new PhoenixSparkPlugin.PhoenixExecutorPlugin();
+        plugin.init(context(new SparkConf(false)), Collections.emptyMap());
+        plugin.shutdown();
+    }
+}
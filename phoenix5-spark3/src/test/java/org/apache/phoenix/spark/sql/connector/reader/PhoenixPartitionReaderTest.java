@@ -0,0 +1,224 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValueUtil;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.exception.PhoenixIOException;
+import org.apache.phoenix.mapreduce.PhoenixInputSplit;
+import org.apache.phoenix.schema.tuple.MultiKeyValueTuple;
+import org.apache.phoenix.schema.tuple.Tuple;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.apache.spark.util.LongAccumulator;
+import org.junit.Test;
+import scala.collection.AbstractIterator;
+import scala.collection.Iterator;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PhoenixPartitionReaderTest {
+
+    private static final byte[] FAMILY = Bytes.toBytes("0");
+
+    private static Tuple row(byte[] rowKey, int... valueSizes) {
+        Cell[] cells = new Cell[valueSizes.length];
+        for (int i = 0; i < valueSizes.length; i++) {
+            cells[i] = new KeyValue(rowKey, FAMILY, Bytes.toBytes("C" + i), new byte[valueSizes[i]]);
+        }
+        return new MultiKeyValueTuple(Arrays.asList(cells));
+    }
+
+    @Test
+    public void testRowWithinMemoryLimit() {
+        Tuple tuple = row(new byte[] {'a', 0}, 10, 20);
+        long expected = KeyValueUtil.length(tuple.getValue(0)) + KeyValueUtil.length(tuple.getValue(1));
+        assertEquals(expected, PhoenixPartitionReader.checkRowSize(tuple, expected));
+    }
+
+    @Test
+    public void testRowOverMemoryLimitNamesTheRowKey() {
+        Tuple tuple = row(new byte[] {'a', 0}, 1000, 1000);
+        try {
+            PhoenixPartitionReader.checkRowSize(tuple, 1024);
+            fail("Expected the row to exceed the memory limit");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Row a\\x00 of "));
+            assertTrue(e.getMessage(), e.getMessage().contains(
+                    PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES + " of 1024 bytes"));
+        }
+    }
+
+    private static final StructType KEY_SCHEMA = new StructType().add("K", DataTypes.StringType);
+
+    /**
+     * Reads rows made of their keys, "a" to "z", throwing the given failures after the given
+     * numbers of rows as the result set of a scanner would
+     */
+    private static class FailingScansReader extends PhoenixPartitionReader {
+        private final List<Integer> failAfter;
+        private final List<Exception> failures;
+        private final List<List<Scan>> opened = new ArrayList<>();
+        private final PhoenixReadMetrics metrics;
+        private int rowsRead;
+        private byte[] currentKey;
+
+        FailingScansReader(int scanRetries, List<Scan> scans, List<Integer> failAfter, List<Exception> failures) {
+            this(scanRetries, scans, failAfter, failures, new PhoenixReadMetrics(new LongAccumulator(), new LongAccumulator()));
+        }
+
+        private FailingScansReader(int scanRetries, List<Scan> scans, List<Integer> failAfter,
+                                   List<Exception> failures, PhoenixReadMetrics metrics) {
+            super(new PhoenixDataSourceReadOptions("localhost", null, null, "SELECT K FROM T", new Properties(),
+                    null, null, 0, scanRetries, 0, false), KEY_SCHEMA,
+                    new PhoenixInputPartition(new PhoenixInputSplit(scans, 0, null), null, null)
+                            .withMetrics(metrics), scans);
+            this.metrics = metrics;
+            this.failAfter = new ArrayList<>(failAfter);
+            this.failures = new ArrayList<>(failures);
+        }
+
+        @Override
+        Iterator<InternalRow> openScans(List<Scan> scans) {
+            opened.add(scans);
+            List<byte[]> keys = new ArrayList<>();
+            for (Scan scan : scans) {
+                for (char c = 'a'; c <= 'z'; c++) {
+                    byte[] key = { (byte) c };
+                    int start = Bytes.compareTo(key, scan.getStartRow());
+                    if ((start > 0 || (start == 0 && scan.includeStartRow()))
+                            && (scan.getStopRow().length == 0 || Bytes.compareTo(key, scan.getStopRow()) < 0)) {
+                        keys.add(key);
+                    }
+                }
+            }
+            final java.util.Iterator<byte[]> rows = keys.iterator();
+            return new AbstractIterator<InternalRow>() {
+                @Override
+                public boolean hasNext() {
+                    if (!failAfter.isEmpty() && rowsRead == failAfter.get(0)) {
+                        failAfter.remove(0);
+                        throw PhoenixPartitionReaderTest.<RuntimeException>sneakyThrow(failures.remove(0));
+                    }
+                    return rows.hasNext();
+                }
+
+                @Override
+                public InternalRow next() {
+                    rowsRead++;
+                    currentKey = rows.next();
+                    return new GenericInternalRow(new Object[] { UTF8String.fromBytes(currentKey) });
+                }
+            };
+        }
+
+        @Override
+        byte[] getCurrentRowKey() {
+            return currentKey;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> T sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
+
+    private static List<Scan> scans() {
+        return Arrays.asList(new Scan().withStopRow(Bytes.toBytes("m")),
+                new Scan().withStartRow(Bytes.toBytes("m")));
+    }
+
+    private static String readAll(PhoenixPartitionReader reader) throws IOException {
+        StringBuilder keys = new StringBuilder();
+        while (reader.next()) {
+            keys.append(reader.get().getString(0));
+        }
+        reader.close();
+        return keys.toString();
+    }
+
+    @Test
+    public void testReaderResumesAfterTheLastRowRead() throws Exception {
+        // The Scala iterator over the result set rethrows the checked PhoenixIOException
+        FailingScansReader reader = new FailingScansReader(2, scans(), Arrays.asList(5, 15),
+                Arrays.<Exception>asList(new PhoenixIOException(new IOException("lease expired")),
+                        new PhoenixIOException(new IOException("server restarted"))));
+        reader.open(scans());
+        assertEquals("abcdefghijklmnopqrstuvwxyz", readAll(reader));
+
+        assertEquals(3, reader.opened.size());
+        assertEquals(2, reader.metrics.getScanRetries());
+        // Resumed within the first scan, after "e"
+        List<Scan> firstResume = reader.opened.get(1);
+        assertEquals(2, firstResume.size());
+        assertTrue(Bytes.equals(Bytes.toBytes("e"), firstResume.get(0).getStartRow()));
+        assertFalse(firstResume.get(0).includeStartRow());
+        // Resumed within the second scan, after "o", the first scan is not read again
+        List<Scan> secondResume = reader.opened.get(2);
+        assertEquals(1, secondResume.size());
+        assertTrue(Bytes.equals(Bytes.toBytes("o"), secondResume.get(0).getStartRow()));
+    }
+
+    @Test
+    public void testFailuresNotFromHBaseAreRethrownUnchanged() throws Exception {
+        SQLException failure = new SQLException("Illegal data");
+        FailingScansReader reader = new FailingScansReader(2, scans(), Arrays.asList(3),
+                Arrays.<Exception>asList(failure));
+        reader.open(scans());
+        try {
+            readAll(reader);
+            fail("Expected the read to fail");
+        } catch (Exception e) {
+            assertSame(failure, e);
+        }
+        assertEquals(1, reader.opened.size());
+        assertEquals(0, reader.metrics.getScanRetries());
+    }
+
+    @Test
+    public void testScannerFailuresAreRethrownOnceRetriesAreExhausted() throws Exception {
+        PhoenixIOException failure = new PhoenixIOException(new IOException("lease expired"));
+        FailingScansReader reader = new FailingScansReader(0, scans(), Arrays.asList(3),
+                Arrays.<Exception>asList(failure));
+        reader.open(scans());
+        try {
+            readAll(reader);
+            fail("Expected the read to fail");
+        } catch (Exception e) {
+            assertSame(failure, e);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.phoenix.mapreduce.PhoenixInputSplit;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PhoenixPlanningCacheTest {
+
+    private static PhoenixPlanningCache.Entry entry(long maxTimestamp) throws IOException {
+        Scan scan = new Scan();
+        scan.setTimeRange(10, maxTimestamp);
+        PhoenixInputPartition partition = new PhoenixInputPartition(
+                new PhoenixInputSplit(Collections.singletonList(scan), 100, "host1"), "tenant1", null);
+        return new PhoenixPlanningCache.Entry(Collections.singletonList(partition), null, "T", 1L, "T",
+                new byte[0][]);
+    }
+
+    @Test
+    public void testHitAndInvalidation() throws IOException {
+        PhoenixPlanningCache cache = new PhoenixPlanningCache();
+        PhoenixPlanningCache.Entry entry = entry(20);
+        cache.put("key", entry);
+        assertSame(entry, cache.get("key"));
+        assertNull(cache.get("other"));
+        cache.invalidate("key");
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEntriesAreEvicted() throws IOException {
+        PhoenixPlanningCache cache = new PhoenixPlanningCache();
+        PhoenixPlanningCache.Entry entry = entry(20);
+        for (int i = 0; i <= PhoenixPlanningCache.MAX_ENTRIES; i++) {
+            cache.put("key" + i, entry);
+            // Keep the first entry recently used
+            cache.get("key0");
+        }
+        assertEquals(PhoenixPlanningCache.MAX_ENTRIES, cache.size());
+        assertSame(entry, cache.get("key0"));
+        assertNull(cache.get("key1"));
+    }
+
+    @Test
+    public void testCopiesAreRestampedWithoutScn() throws IOException {
+        PhoenixPlanningCache.Entry entry = entry(20);
+        long before = EnvironmentEdgeManager.currentTimeMillis();
+        List<PhoenixInputPartition> copies = entry.copyPartitions(true);
+        assertEquals(1, copies.size());
+        PhoenixInputPartition copy = copies.get(0);
+        assertEquals("tenant1", copy.getTenantId());
+        Scan scan = copy.getPhoenixInputSplit().value().getScans().get(0);
+        assertEquals(10, scan.getTimeRange().getMin());
+        assertTrue(scan.getTimeRange().getMax() >= before);
+    }
+
+    @Test
+    public void testCopiesKeepTheScnTimeRange() throws IOException {
+        PhoenixPlanningCache.Entry entry = entry(20);
+        List<PhoenixInputPartition> first = entry.copyPartitions(false);
+        List<PhoenixInputPartition> second = entry.copyPartitions(false);
+        Scan scan = first.get(0).getPhoenixInputSplit().value().getScans().get(0);
+        assertEquals(10, scan.getTimeRange().getMin());
+        assertEquals(20, scan.getTimeRange().getMax());
+        // Concurrent reads never share scans
+        assertNotSame(scan, second.get(0).getPhoenixInputSplit().value().getScans().get(0));
+    }
+}
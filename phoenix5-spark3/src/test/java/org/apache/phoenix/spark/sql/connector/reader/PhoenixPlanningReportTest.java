@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.phoenix.mapreduce.PhoenixInputSplit;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PhoenixPlanningReportTest {
+
+    private static PhoenixInputPartition partition(byte[] startKey, byte[] stopKey, long bytes, String host,
+                                                   String tenantId) {
+        Scan scan = new Scan().withStartRow(startKey).withStopRow(stopKey);
+        return new PhoenixInputPartition(new PhoenixInputSplit(Collections.singletonList(scan), bytes, host),
+                tenantId, null);
+    }
+
+    @Test
+    public void testJsonHasPartitionsAndHosts() throws IOException {
+        // Quotes and backslashes of the table name must be escaped
+        PhoenixPlanningReport report = new PhoenixPlanningReport("\"MY_SCHEMA\".\"TA\\BLE\"");
+        report.addPartitions(Arrays.asList(
+                partition(new byte[0], new byte[] {0, 'b'}, 100, "host1", null),
+                partition(new byte[] {0, 'b'}, new byte[0], 300, "host2", "tenant\"1")));
+        report.addEstimates(400L, 40L, 1234L);
+        report.setTotalMillis(7);
+
+        JsonNode json = new ObjectMapper().readTree(report.toJson());
+        assertEquals("\"MY_SCHEMA\".\"TA\\BLE\"", json.get("source").asText());
+        assertFalse(json.get("fromCache").asBoolean());
+        assertEquals(7, json.get("timings").get("totalMillis").asLong());
+        assertEquals(40, json.get("statistics").get("estimatedRows").asLong());
+        assertEquals(1234, json.get("statistics").get("statsTimestamp").asLong());
+
+        JsonNode summary = json.get("partitionSummary");
+        assertEquals(2, summary.get("count").asInt());
+        assertEquals(100, summary.get("minBytes").asLong());
+        assertEquals(300, summary.get("maxBytes").asLong());
+        assertEquals(200, summary.get("avgBytes").asLong());
+        assertEquals(1, summary.get("perHost").get("host1").asInt());
+        assertEquals(1, summary.get("perHost").get("host2").asInt());
+
+        JsonNode partitions = json.get("partitions");
+        assertEquals(2, partitions.size());
+        assertTrue(partitions.get(0).get("tenantId").isNull());
+        assertEquals("", partitions.get(0).get("startKey").asText());
+        assertEquals("\\x00b", partitions.get(0).get("endKey").asText());
+        assertEquals("host1", partitions.get(0).get("host").asText());
+        assertEquals(1, partitions.get(0).get("scanCount").asInt());
+        assertEquals("tenant\"1", partitions.get(1).get("tenantId").asText());
+        assertEquals("\\x00b", partitions.get(1).get("startKey").asText());
+        assertEquals(300, partitions.get(1).get("estimatedBytes").asLong());
+        assertEquals("host2", partitions.get(1).get("host").asText());
+    }
+
+    @Test
+    public void testJsonWithoutPartitionsOrStatistics() throws IOException {
+        PhoenixPlanningReport report = new PhoenixPlanningReport("T");
+        report.setFromCache();
+        JsonNode json = new ObjectMapper().readTree(report.toJson());
+        assertTrue(json.get("fromCache").asBoolean());
+        assertTrue(json.get("statistics").get("estimatedBytes").isNull());
+        assertEquals(0, json.get("partitionSummary").get("count").asInt());
+        assertEquals(0, json.get("partitionSummary").get("minBytes").asLong());
+        assertEquals(0, json.get("partitions").size());
+    }
+
+    @Test
+    public void testPartitionBytesFromGuideposts() {
+        // Chunks end at the guideposts: up to c holds 10 bytes, up to f 20 and up to k 40
+        List<byte[]> guidePosts = Arrays.asList(new byte[] {'c'}, new byte[] {'f'}, new byte[] {'k'});
+        long[] byteCounts = {10, 20, 40};
+        assertEquals(10, PhoenixScan.estimateBytes(guidePosts, byteCounts,
+                new Scan().withStopRow(new byte[] {'c'})));
+        assertEquals(20, PhoenixScan.estimateBytes(guidePosts, byteCounts,
+                new Scan().withStartRow(new byte[] {'c'}).withStopRow(new byte[] {'f'})));
+        assertEquals(40, PhoenixScan.estimateBytes(guidePosts, byteCounts,
+                new Scan().withStartRow(new byte[] {'f'})));
+        // A scan crossing a guidepost counts both chunks
+        assertEquals(60, PhoenixScan.estimateBytes(guidePosts, byteCounts,
+                new Scan().withStartRow(new byte[] {'d'}).withStopRow(new byte[] {'h'})));
+        assertEquals(0, PhoenixScan.estimateBytes(guidePosts, byteCounts,
+                new Scan().withStartRow(new byte[] {'m'})));
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.apache.phoenix.spark.sql.connector.reader.PrimaryKeyOrdering.isSingleBucket;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PrimaryKeyOrderingTest {
+
+    private static Scan scan(byte[] startRow, byte[] stopRow) {
+        return new Scan().withStartRow(startRow).withStopRow(stopRow);
+    }
+
+    @Test
+    public void testScansEndingAtNextBucketAreSingleBucket() {
+        assertTrue(isSingleBucket(Arrays.asList(
+                scan(new byte[] { 1 }, new byte[] { 1, 'm' }),
+                scan(new byte[] { 1, 'm' }, new byte[] { 2 })), 4));
+        assertTrue(isSingleBucket(Collections.singletonList(
+                scan(new byte[0], new byte[] { 1, 0, 0 })), 4));
+        assertTrue(isSingleBucket(Collections.singletonList(
+                scan(new byte[] { 3 }, new byte[0])), 4));
+    }
+
+    @Test
+    public void testScansAcrossBucketsAreNotSingleBucket() {
+        assertFalse(isSingleBucket(Collections.singletonList(
+                scan(new byte[] { 1, 'm' }, new byte[] { 2, 'a' })), 4));
+        assertFalse(isSingleBucket(Arrays.asList(
+                scan(new byte[] { 1 }, new byte[] { 2 }),
+                scan(new byte[] { 2 }, new byte[] { 3 })), 4));
+        assertFalse(isSingleBucket(Collections.singletonList(
+                scan(new byte[] { 2 }, new byte[0])), 4));
+    }
+}
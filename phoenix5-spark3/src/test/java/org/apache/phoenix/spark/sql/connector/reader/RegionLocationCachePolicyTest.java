@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.NotServingRegionException;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.phoenix.exception.PhoenixIOException;
+import org.apache.phoenix.query.ConnectionQueryServices;
+import org.apache.phoenix.schema.StaleRegionBoundaryCacheException;
+import org.apache.phoenix.util.EnvironmentEdge;
+import org.apache.phoenix.util.EnvironmentEdgeManager;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RegionLocationCachePolicyTest {
+
+    private long now = 1000000;
+
+    @After
+    public void resetEdge() {
+        EnvironmentEdgeManager.reset();
+    }
+
+    /**
+     * @return query services recording the tables whose region cache is cleared
+     */
+    private static ConnectionQueryServices services(final List<TableName> cleared) {
+        return (ConnectionQueryServices) Proxy.newProxyInstance(
+                RegionLocationCachePolicyTest.class.getClassLoader(),
+                new Class<?>[] { ConnectionQueryServices.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("clearTableRegionCache")) {
+                        cleared.add((TableName) args[0]);
+                        return null;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    @Test
+    public void testStaleLocationsAreFoundInTheCauses() {
+        assertTrue(RegionLocationCachePolicy.isStaleLocation(new NotServingRegionException()));
+        // As thrown by the result set of a partition reader
+        assertTrue(RegionLocationCachePolicy.isStaleLocation(
+                new PhoenixIOException(new NotServingRegionException("region moved"))));
+        assertTrue(RegionLocationCachePolicy.isStaleLocation(
+                new RuntimeException(new StaleRegionBoundaryCacheException())));
+        assertFalse(RegionLocationCachePolicy.isStaleLocation(new PhoenixIOException(new IOException())));
+        assertFalse(RegionLocationCachePolicy.isStaleLocation(new SQLException("bad data")));
+    }
+
+    @Test
+    public void testInvalidationIsRateLimitedPerTable() throws SQLException {
+        EnvironmentEdgeManager.injectEdge(new EnvironmentEdge() {
+            @Override
+            public long currentTime() {
+                return now;
+            }
+        });
+        List<TableName> cleared = new ArrayList<>();
+        ConnectionQueryServices services = services(cleared);
+        byte[] table = Bytes.toBytes("RATE_LIMITED_TABLE");
+        byte[] otherTable = Bytes.toBytes("OTHER_RATE_LIMITED_TABLE");
+
+        RegionLocationCachePolicy.invalidate(services, table);
+        assertEquals(1, cleared.size());
+        now += RegionLocationCachePolicy.MIN_CLEAR_INTERVAL_MS - 1;
+        RegionLocationCachePolicy.invalidate(services, table);
+        assertEquals(1, cleared.size());
+        // Other tables have their own interval
+        RegionLocationCachePolicy.invalidate(services, otherTable);
+        assertEquals(2, cleared.size());
+        now += 1;
+        RegionLocationCachePolicy.invalidate(services, table);
+        assertEquals(3, cleared.size());
+        assertEquals(TableName.valueOf(table), cleared.get(2));
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.sql.util.CaseInsensitiveStringMap;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.apache.phoenix.spark.sql.connector.reader.ScanCachingTuner.CELL_OVERHEAD_BYTES;
+import static org.apache.phoenix.spark.sql.connector.reader.ScanCachingTuner.MAX_CACHING;
+import static org.apache.phoenix.spark.sql.connector.reader.ScanCachingTuner.MIN_CACHING;
+import static org.apache.phoenix.spark.sql.connector.reader.ScanCachingTuner.computeCaching;
+import static org.apache.phoenix.spark.sql.connector.reader.ScanCachingTuner.estimateRowWidth;
+import static org.apache.phoenix.spark.sql.connector.reader.ScanCachingTuner.tune;
+import static org.junit.Assert.assertEquals;
+
+public class ScanCachingTunerTest {
+
+    private static final StructType NARROW_SCHEMA = new StructType()
+            .add("ID", DataTypes.LongType)
+            .add("COL1", DataTypes.IntegerType);
+
+    @Test
+    public void testRowWidthFromSchemaWithoutStats() {
+        assertEquals(8 + 4 + 2 * CELL_OVERHEAD_BYTES, estimateRowWidth(NARROW_SCHEMA, null, null, 10));
+    }
+
+    @Test
+    public void testRowWidthFromStatsIsScaledToProjection() {
+        // 1000 bytes per stored row, 2 of the 10 columns projected
+        assertEquals(200, estimateRowWidth(NARROW_SCHEMA, 1000000L, 1000L, 10));
+    }
+
+    @Test
+    public void testEmptyStatsFallBackToSchema() {
+        assertEquals(8 + 4 + 2 * CELL_OVERHEAD_BYTES, estimateRowWidth(NARROW_SCHEMA, 0L, 0L, 10));
+    }
+
+    @Test
+    public void testCachingIsBounded() {
+        assertEquals(1024, computeCaching(1024 * 1024, 1024));
+        assertEquals(MAX_CACHING, computeCaching(1024 * 1024, 1));
+        assertEquals(MIN_CACHING, computeCaching(1024, 1024 * 1024));
+    }
+
+    private static Scan tuned(long rowWidth, String... options) {
+        Map<String, String> optionMap = new HashMap<>();
+        for (int i = 0; i < options.length; i += 2) {
+            optionMap.put(options[i], options[i + 1]);
+        }
+        Scan scan = new Scan();
+        List<List<Scan>> scans = Collections.singletonList(Collections.singletonList(scan));
+        tune(scans, rowWidth, new CaseInsensitiveStringMap(optionMap));
+        return scan;
+    }
+
+    @Test
+    public void testMemoryLimitCapsMaxResultSizeAndCaching() {
+        Scan scan = tuned(100, PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES, "1048576",
+                PhoenixDataSource.SCAN_AUTO_TUNE, "true");
+        // Half the limit is left to the row being converted for Spark
+        assertEquals(524288, scan.getMaxResultSize());
+        assertEquals(524288 / 100, scan.getCaching());
+    }
+
+    @Test
+    public void testMemoryLimitCapsExplicitMaxResultSize() {
+        Scan scan = tuned(100, PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES, "1048576",
+                PhoenixDataSource.SCAN_MAX_RESULT_SIZE, "10485760");
+        assertEquals(524288, scan.getMaxResultSize());
+        scan = tuned(100, PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES, "1048576",
+                PhoenixDataSource.SCAN_MAX_RESULT_SIZE, "1024");
+        assertEquals(1024, scan.getMaxResultSize());
+    }
+
+    @Test
+    public void testMemoryLimitAppliesWithoutAutoTuning() {
+        Scan scan = tuned(100, PhoenixDataSource.PARTITION_MEMORY_LIMIT_BYTES, "1048576");
+        assertEquals(524288, scan.getMaxResultSize());
+        assertEquals(new Scan().getCaching(), scan.getCaching());
+    }
+
+    @Test
+    public void testTargetRpcBytesWithoutMemoryLimit() {
+        Scan scan = tuned(100, PhoenixDataSource.SCAN_AUTO_TUNE, "true");
+        assertEquals(PhoenixDataSource.DEFAULT_SCAN_TARGET_RPC_BYTES, scan.getMaxResultSize());
+        assertEquals(computeCaching(PhoenixDataSource.DEFAULT_SCAN_TARGET_RPC_BYTES, 100), scan.getCaching());
+    }
+
+    @Test
+    public void testAutoTuningIsOffByDefault() {
+        Scan scan = tuned(100);
+        assertEquals(new Scan().getCaching(), scan.getCaching());
+        assertEquals(new Scan().getMaxResultSize(), scan.getMaxResultSize());
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.reader;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.phoenix.mapreduce.PhoenixInputSplit;
+import org.apache.spark.SparkConf;
+import org.apache.spark.sql.connector.read.InputPartition;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ServerConcurrencyLimiterTest {
+
+    @Test
+    public void testCapIsSplitBetweenExecutors() {
+        assertEquals(3, ServerConcurrencyLimiter.getPermitsPerExecutor(8, 3));
+        assertEquals(8, ServerConcurrencyLimiter.getPermitsPerExecutor(8, 1));
+        // Every executor needs a permit to read at all, so the cap is exceeded
+        assertEquals(1, ServerConcurrencyLimiter.getPermitsPerExecutor(2, 5));
+    }
+
+    @Test
+    public void testExecutorsAreCountedForDynamicAllocation() {
+        SparkConf conf = new SparkConf(false);
+        assertEquals(1, ServerConcurrencyLimiter.countExecutors(conf, true, 0));
+        assertEquals(4, ServerConcurrencyLimiter.countExecutors(conf, false, 4));
+        assertEquals(1, ServerConcurrencyLimiter.countExecutors(conf, false, 0));
+        conf.set("spark.dynamicAllocation.enabled", "true");
+        // Without a maximum only the registered executors are known
+        assertEquals(4, ServerConcurrencyLimiter.countExecutors(conf, false, 4));
+        conf.set("spark.dynamicAllocation.maxExecutors", "20");
+        assertEquals(20, ServerConcurrencyLimiter.countExecutors(conf, false, 4));
+    }
+
+    @Test
+    public void testReadersWaitForAPermitOfTheirHost() throws InterruptedException {
+        String host = "permits-test-host";
+        assertEquals(0, ServerConcurrencyLimiter.acquire(host, 1));
+        // Another host, or a read with another cap, has its own permits
+        assertEquals(0, ServerConcurrencyLimiter.acquire("other-" + host, 1));
+        assertEquals(0, ServerConcurrencyLimiter.acquire(host, 2));
+
+        CountDownLatch acquired = new CountDownLatch(1);
+        AtomicLong waited = new AtomicLong();
+        Thread waiting = new Thread(() -> {
+            try {
+                waited.set(ServerConcurrencyLimiter.acquire(host, 1));
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        ServerConcurrencyLimiter.release(host, 1);
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        waiting.join();
+        ServerConcurrencyLimiter.release(host, 1);
+        ServerConcurrencyLimiter.release("other-" + host, 1);
+        ServerConcurrencyLimiter.release(host, 2);
+        assertTrue(waited.get() > 0);
+    }
+
+    private static InputPartition partition(String host) throws IOException {
+        return new PhoenixInputPartition(new PhoenixInputSplit(Collections.singletonList(new Scan()), 0, host),
+                null, null);
+    }
+
+    @Test
+    public void testPartitionsAreInterleavedByHost() throws IOException {
+        InputPartition a1 = partition("a");
+        InputPartition a2 = partition("a");
+        InputPartition a3 = partition("a");
+        InputPartition b1 = partition("b");
+        InputPartition c1 = partition("c");
+        List<InputPartition> interleaved = ServerConcurrencyLimiter.interleaveByHost(
+                new ArrayList<>(Arrays.asList(a1, a2, a3, b1, c1)));
+        assertEquals(Arrays.asList(a1, b1, c1, a2, a3), interleaved);
+    }
+}
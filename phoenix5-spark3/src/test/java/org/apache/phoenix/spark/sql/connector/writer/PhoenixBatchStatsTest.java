@@ -0,0 +1,77 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class PhoenixBatchStatsTest {
+
+    @Test
+    public void testBatchesAreSummed() {
+        PhoenixBatchStats stats = new PhoenixBatchStats();
+        stats.addBatch(10, 1000);
+        stats.addBatch(30, 2000);
+        // The empty last batch of a task is not a batch
+        stats.addBatch(0, 0);
+        assertEquals(2, stats.getBatches());
+        assertEquals(40, stats.getRows());
+        assertEquals(3000, stats.getBytes());
+        assertEquals("2 batches, 40 rows and 3000 bytes, rows per batch min/avg/max 10/20/30, "
+                + "bytes per batch min/avg/max 1000/1500/2000", stats.toString());
+    }
+
+    @Test
+    public void testMergeKeepsExtremes() {
+        PhoenixBatchStats first = new PhoenixBatchStats();
+        first.addBatch(10, 1000);
+        PhoenixBatchStats second = new PhoenixBatchStats();
+        second.addBatch(5, 4000);
+        second.addBatch(15, 500);
+        PhoenixBatchStats total = new PhoenixBatchStats();
+        total.merge(first);
+        total.merge(second);
+        // Tasks without batches leave the minimums alone
+        total.merge(new PhoenixBatchStats());
+        assertEquals(3, total.getBatches());
+        assertEquals(30, total.getRows());
+        assertEquals(5500, total.getBytes());
+        assertEquals("3 batches, 30 rows and 5500 bytes, rows per batch min/avg/max 5/10/15, "
+                + "bytes per batch min/avg/max 500/1833/4000", total.toString());
+    }
+
+    @Test
+    public void testThrottlingIsReported() {
+        PhoenixBatchStats stats = new PhoenixBatchStats();
+        assertEquals("0 batches", stats.toString());
+        stats.addThrottleDelay(50);
+        stats.addPushback();
+        PhoenixBatchStats other = new PhoenixBatchStats();
+        other.addBatch(1, 100);
+        other.addThrottleDelay(100);
+        other.addSlowBatch();
+        stats.merge(other);
+        assertEquals(150, stats.getThrottleDelayMillis());
+        assertEquals(1, stats.getPushbacks());
+        assertEquals(1, stats.getSlowBatches());
+        assertEquals("1 batches, 1 rows and 100 bytes, rows per batch min/avg/max 1/1/1, "
+                + "bytes per batch min/avg/max 100/100/100, throttled for 150 ms after 1 pushbacks and "
+                + "1 slow batches", stats.toString());
+    }
+}
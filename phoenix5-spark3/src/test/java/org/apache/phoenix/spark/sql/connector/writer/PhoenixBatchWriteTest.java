@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.junit.Test;
+
+import static org.apache.phoenix.spark.sql.connector.writer.PhoenixBatchWrite.clampBatchSizeBytes;
+import static org.apache.phoenix.spark.sql.connector.writer.PhoenixBatchWrite.getBatchSize;
+import static org.junit.Assert.assertEquals;
+
+public class PhoenixBatchWriteTest {
+
+    @Test
+    public void testBatchSizeBytesIsClampedToHalfTheMutationLimit() {
+        assertEquals(1000, clampBatchSizeBytes("T", 1000, 4000));
+        assertEquals(2000, clampBatchSizeBytes("T", 2000, 4000));
+        assertEquals(2000, clampBatchSizeBytes("T", 2001, 4000));
+    }
+
+    @Test
+    public void testBatchesOfNarrowRowsStayBelowTheRowLimit() {
+        // Batches of a megabyte of rows of a few bytes would exceed phoenix.mutate.maxSize
+        assertEquals(250000, getBatchSize("T", null, 1 << 20, 500000));
+        assertEquals(1000, getBatchSize("T", 1000L, 1 << 20, 500000));
+        assertEquals(250000, getBatchSize("T", 1000000L, 1 << 20, 500000));
+    }
+
+    @Test
+    public void testBatchSizeInRows() {
+        assertEquals(1000, getBatchSize("T", null, 0, 500000));
+        assertEquals(5, getBatchSize("T", 5L, 0, 500000));
+        assertEquals(50, getBatchSize("T", 200L, 0, 100));
+        // Commits at the end of the task only
+        assertEquals(0, getBatchSize("T", 0L, 0, 500000));
+        assertEquals(-1, getBatchSize("T", -1L, 1 << 20, 500000));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import static org.apache.phoenix.spark.sql.connector.writer.PhoenixBulkLoadDataWriter.COLUMN_COMPARATOR;
+import static org.apache.phoenix.spark.sql.connector.writer.PhoenixBulkLoadDataWriter.addLatest;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class PhoenixBulkLoadDataWriterTest {
+
+    private static final byte[] FAMILY = Bytes.toBytes("0");
+    private static final long TS = 1000;
+
+    private static KeyValue cell(String row, String qualifier, KeyValue.Type type, String value) {
+        return new KeyValue(Bytes.toBytes(row), FAMILY, Bytes.toBytes(qualifier), TS, type,
+                value == null ? null : Bytes.toBytes(value));
+    }
+
+    @Test
+    public void testLatestCellOfAColumnWinsWhateverItsType() {
+        NavigableSet<Cell> buffer = new TreeSet<>(COLUMN_COMPARATOR);
+        addLatest(buffer, cell("r1", "A", KeyValue.Type.Put, "1"));
+        KeyValue nulled = cell("r1", "A", KeyValue.Type.DeleteColumn, null);
+        addLatest(buffer, nulled);
+        assertEquals(1, buffer.size());
+        assertSame(nulled, buffer.first());
+
+        KeyValue upserted = cell("r1", "A", KeyValue.Type.Put, "2");
+        addLatest(buffer, upserted);
+        assertEquals(1, buffer.size());
+        assertSame(upserted, buffer.first());
+    }
+
+    @Test
+    public void testCellsAreSortedByRowAndColumn() {
+        NavigableSet<Cell> buffer = new TreeSet<>(COLUMN_COMPARATOR);
+        KeyValue r2a = cell("r2", "A", KeyValue.Type.Put, "1");
+        KeyValue r1b = cell("r1", "B", KeyValue.Type.DeleteColumn, null);
+        KeyValue r1a = cell("r1", "A", KeyValue.Type.Put, "1");
+        for (KeyValue kv : Arrays.asList(r2a, r1b, r1a)) {
+            addLatest(buffer, kv);
+        }
+        assertEquals(Arrays.asList(r1a, r1b, r2a), new ArrayList<>(buffer));
+    }
+}
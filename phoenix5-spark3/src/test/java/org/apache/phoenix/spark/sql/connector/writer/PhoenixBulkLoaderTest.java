@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.TableName;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PhoenixBulkLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void touch(FileSystem fs, Path attemptDir, String table, String family, String file)
+            throws IOException {
+        fs.create(new Path(new Path(new Path(new Path(attemptDir, "default"), table), family), file)).close();
+    }
+
+    @Test
+    public void testFilesAreMovedAndCountedByRegion() throws IOException {
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Path dir = new Path(folder.getRoot().getAbsolutePath());
+        Path loadDir = new Path(dir, "load");
+        Path firstAttempt = new Path(dir, "0-1");
+        Path secondAttempt = new Path(dir, "1-2");
+        // Two flushes of the first task wrote to region 0 of the table
+        touch(fs, firstAttempt, "T", "0", "0-0");
+        touch(fs, firstAttempt, "T", "0", "1-0");
+        touch(fs, firstAttempt, "T", "0", "1-1");
+        touch(fs, secondAttempt, "T", "0", "0-0");
+        touch(fs, secondAttempt, "IDX", "0", "0-0");
+
+        List<TableName> tables = new ArrayList<>();
+        Map<String, Integer> filesPerRegion = new HashMap<>();
+        PhoenixBulkLoader.moveFiles(fs, firstAttempt, loadDir, tables, filesPerRegion);
+        PhoenixBulkLoader.moveFiles(fs, secondAttempt, loadDir, tables, filesPerRegion);
+        PhoenixBulkLoader.moveFiles(fs, new Path(dir, "2-3"), loadDir, tables, filesPerRegion);
+
+        assertEquals(Arrays.asList(TableName.valueOf("T"), TableName.valueOf("IDX")), tables);
+        assertEquals(3, (int) filesPerRegion.get("T/0 region 0"));
+        assertEquals(1, (int) filesPerRegion.get("T/0 region 1"));
+        assertEquals(1, (int) filesPerRegion.get("IDX/0 region 0"));
+        assertEquals(4, fs.listStatus(new Path(loadDir, "default/T/0")).length);
+        assertTrue(fs.exists(new Path(loadDir, "default/T/0/1-2-0-0")));
+
+        PhoenixBulkLoader.checkFilesPerRegion(filesPerRegion, 3);
+        try {
+            PhoenixBulkLoader.checkFilesPerRegion(filesPerRegion, 2);
+            fail("Expected too many files for region 0 of T");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("3 HFiles were written for T/0 region 0"));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.spark.sql.catalyst.InternalRow;
+import org.apache.spark.sql.catalyst.expressions.GenericInternalRow;
+import org.apache.spark.sql.catalyst.util.DateTimeUtils;
+import org.apache.spark.sql.catalyst.util.GenericArrayData;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.Decimal;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.unsafe.types.UTF8String;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class PhoenixRowBinderTest {
+
+    /**
+     * Parameters set on a statement, as the name of the setter and the value, by parameter index
+     */
+    private final Map<Integer, Object[]> parameters = new HashMap<>();
+
+    private final PreparedStatement statement = (PreparedStatement) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class }, (proxy, method, args) -> {
+                if (method.getName().startsWith("set") && args.length == 2) {
+                    parameters.put((Integer) args[0], new Object[] { method.getName(), args[1] });
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    // Arrays are created as their type name followed by their elements
+    private final Connection conn = (Connection) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                if (method.getName().equals("createArrayOf")) {
+                    final String typeName = (String) args[0];
+                    final Object[] elements = (Object[]) args[1];
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Array.class },
+                            (arrayProxy, arrayMethod, arrayArgs) -> {
+                                if (arrayMethod.getName().equals("getBaseTypeName")) {
+                                    return typeName;
+                                } else if (arrayMethod.getName().equals("getArray")) {
+                                    return elements;
+                                }
+                                throw new UnsupportedOperationException(arrayMethod.getName());
+                            });
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+
+    private void assertParameter(int index, String setter, Object value) {
+        Object[] parameter = parameters.get(index);
+        assertEquals(setter, parameter[0]);
+        assertEquals(value, parameter[1]);
+    }
+
+    @Test
+    public void testValuesAreBoundPerType() throws SQLException {
+        StructType schema = new StructType()
+                .add("I", DataTypes.IntegerType)
+                .add("L", DataTypes.LongType)
+                .add("D", DataTypes.DoubleType)
+                .add("F", DataTypes.FloatType)
+                .add("S", DataTypes.ShortType)
+                .add("B", DataTypes.ByteType)
+                .add("BOOL", DataTypes.BooleanType)
+                .add("STR", DataTypes.StringType)
+                .add("BIN", DataTypes.BinaryType)
+                .add("TS", DataTypes.TimestampType)
+                .add("DT", DataTypes.DateType)
+                .add("DEC", DataTypes.createDecimalType(10, 2));
+        Timestamp timestamp = Timestamp.valueOf("2020-01-02 03:04:05.123");
+        Date date = Date.valueOf("2020-01-02");
+        InternalRow row = new GenericInternalRow(new Object[] { 1, 2L, 3.5d, 4.5f, (short) 5, (byte) 6, true,
+                UTF8String.fromString("abc"), new byte[] { 7, 8 }, DateTimeUtils.fromJavaTimestamp(timestamp),
+                DateTimeUtils.fromJavaDate(date), Decimal.apply(new BigDecimal("12.34"), 10, 2) });
+
+        new PhoenixRowBinder(conn, schema).bind(statement, row);
+        assertParameter(1, "setInt", 1);
+        assertParameter(2, "setLong", 2L);
+        assertParameter(3, "setDouble", 3.5d);
+        assertParameter(4, "setFloat", 4.5f);
+        // Phoenix binds SMALLINT and TINYINT parameters from ints
+        assertParameter(5, "setInt", 5);
+        assertParameter(6, "setInt", 6);
+        assertParameter(7, "setBoolean", true);
+        assertParameter(8, "setString", "abc");
+        assertEquals("setBytes", parameters.get(9)[0]);
+        assertArrayEquals(new byte[] { 7, 8 }, (byte[]) parameters.get(9)[1]);
+        assertParameter(10, "setTimestamp", timestamp);
+        assertParameter(11, "setDate", date);
+        assertParameter(12, "setBigDecimal", new BigDecimal("12.34"));
+    }
+
+    @Test
+    public void testNullsAreBoundWithTheirJdbcType() throws SQLException {
+        StructType schema = new StructType()
+                .add("I", DataTypes.IntegerType)
+                .add("STR", DataTypes.StringType)
+                .add("BIN", DataTypes.BinaryType)
+                .add("S", DataTypes.ShortType)
+                .add("TS", DataTypes.TimestampType);
+        new PhoenixRowBinder(conn, schema).bind(statement, new GenericInternalRow(new Object[5]));
+        assertParameter(1, "setNull", Types.INTEGER);
+        assertParameter(2, "setNull", Types.VARCHAR);
+        assertParameter(3, "setNull", Types.BINARY);
+        assertParameter(4, "setNull", Types.SMALLINT);
+        assertParameter(5, "setNull", Types.TIMESTAMP);
+    }
+
+    @Test
+    public void testNullOfTypeWithoutJdbcTypeFails() throws SQLException {
+        StructType schema = new StructType().add("M", DataTypes.createMapType(DataTypes.StringType,
+                DataTypes.StringType));
+        try {
+            new PhoenixRowBinder(conn, schema).bind(statement, new GenericInternalRow(new Object[1]));
+            fail("Expected no JDBC type for maps");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Can't get JDBC type for map<string,string>", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testArraysAreBoundWithTheirElementType() throws SQLException {
+        StructType schema = new StructType()
+                .add("INTS", DataTypes.createArrayType(DataTypes.IntegerType))
+                .add("STRS", DataTypes.createArrayType(DataTypes.StringType));
+        InternalRow row = new GenericInternalRow(new Object[] {
+                new GenericArrayData(new Object[] { 1, null, 3 }),
+                new GenericArrayData(new Object[] { UTF8String.fromString("a"), null }) });
+
+        new PhoenixRowBinder(conn, schema).bind(statement, row);
+        assertEquals("setArray", parameters.get(1)[0]);
+        Array ints = (Array) parameters.get(1)[1];
+        assertEquals("integer", ints.getBaseTypeName());
+        assertEquals(Arrays.asList(1, null, 3), Arrays.asList((Object[]) ints.getArray()));
+        // Elements are converted to the external Java types
+        Array strings = (Array) parameters.get(2)[1];
+        assertEquals("varchar", strings.getBaseTypeName());
+        assertEquals(Arrays.asList("a", null), Arrays.asList((Object[]) strings.getArray()));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.spark.sql.sources.AlwaysTrue$;
+import org.apache.spark.sql.sources.EqualNullSafe;
+import org.apache.spark.sql.sources.EqualTo;
+import org.apache.spark.sql.sources.Filter;
+import org.apache.spark.sql.sources.GreaterThan;
+import org.apache.spark.sql.sources.Or;
+import org.apache.spark.sql.sources.StringStartsWith;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.apache.phoenix.spark.sql.connector.writer.PhoenixServerDelete.compileDelete;
+import static org.junit.Assert.assertEquals;
+
+public class PhoenixServerDeleteTest {
+
+    private static Map<String, String> tableOptions() {
+        Map<String, String> options = new HashMap<>();
+        options.put("table", "T");
+        options.put(PhoenixDataSource.ZOOKEEPER_URL, "localhost:2181");
+        return options;
+    }
+
+    @Test
+    public void testFiltersAreConjunctions() {
+        assertEquals("DELETE FROM T WHERE \"ID\" > 10 AND \"COL1\" = 'a'", compileDelete(tableOptions(),
+                new Filter[] { new GreaterThan("ID", 10), new EqualTo("COL1", "a") }).replaceAll(" +", " "));
+    }
+
+    @Test
+    public void testTruncateDeletesAllRows() {
+        assertEquals("DELETE FROM T", compileDelete(tableOptions(), new Filter[] { AlwaysTrue$.MODULE$ }));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUntranslatableFilterIsRejected() {
+        compileDelete(tableOptions(), new Filter[] {
+                new StringStartsWith("COL1", "a"),
+                new Or(new EqualTo("ID", 1), new EqualNullSafe("COL2", 2))
+        });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testQueryIsRejected() {
+        Map<String, String> options = tableOptions();
+        options.remove("table");
+        options.put(PhoenixDataSource.QUERY, "SELECT * FROM T");
+        compileDelete(options, new Filter[0]);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.phoenix.spark.sql.connector.PhoenixDataSource;
+import org.apache.spark.sql.sources.AlwaysTrue$;
+import org.apache.spark.sql.sources.EqualTo;
+import org.apache.spark.sql.sources.Filter;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertSame;
+
+public class PhoenixWriteBuilderTest {
+
+    private static Map<String, String> tableOptions() {
+        Map<String, String> options = new HashMap<>();
+        options.put("table", "T");
+        options.put(PhoenixDataSource.ZOOKEEPER_URL, "localhost:2181");
+        return options;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverwritingAllRowsNeedsTruncate() {
+        new PhoenixWriteBuilder(null, tableOptions()).overwrite(new Filter[] { AlwaysTrue$.MODULE$ });
+    }
+
+    @Test
+    public void testOverwritingAllRowsWithTruncate() {
+        Map<String, String> options = tableOptions();
+        options.put("TRUNCATE", "true");
+        PhoenixWriteBuilder builder = new PhoenixWriteBuilder(null, options);
+        assertSame(builder, builder.overwrite(new Filter[] { AlwaysTrue$.MODULE$ }));
+    }
+
+    @Test
+    public void testOverwritingRowsMatchingACondition() {
+        PhoenixWriteBuilder builder = new PhoenixWriteBuilder(null, tableOptions());
+        assertSame(builder, builder.overwrite(new Filter[] { new EqualTo("ID", 1) }));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import static org.apache.phoenix.spark.sql.connector.writer.PhoenixWriteLayout.getRegionIndex;
+import static org.junit.Assert.assertEquals;
+
+public class PhoenixWriteLayoutTest {
+
+    private static final byte[][] START_KEYS = {
+            new byte[0], Bytes.toBytes("c"), Bytes.toBytes("f"), Bytes.toBytes("m") };
+
+    @Test
+    public void testRowKeyBelongsToLastRegionStartingAtOrBeforeIt() {
+        assertEquals(0, getRegionIndex(START_KEYS, new byte[0]));
+        assertEquals(0, getRegionIndex(START_KEYS, Bytes.toBytes("a")));
+        assertEquals(0, getRegionIndex(START_KEYS, Bytes.toBytes("bzzz")));
+        assertEquals(1, getRegionIndex(START_KEYS, Bytes.toBytes("c")));
+        assertEquals(1, getRegionIndex(START_KEYS, Bytes.toBytes("c\u0000")));
+        assertEquals(2, getRegionIndex(START_KEYS, Bytes.toBytes("f")));
+        assertEquals(2, getRegionIndex(START_KEYS, Bytes.toBytes("lzz")));
+        assertEquals(3, getRegionIndex(START_KEYS, Bytes.toBytes("m")));
+        assertEquals(3, getRegionIndex(START_KEYS, Bytes.toBytes("zzzz")));
+    }
+
+    @Test
+    public void testKeysAreComparedAsUnsignedBytes() {
+        byte[][] startKeys = { new byte[0], new byte[] { 0x10 }, new byte[] { (byte) 0x80 } };
+        assertEquals(1, getRegionIndex(startKeys, new byte[] { 0x7f }));
+        assertEquals(2, getRegionIndex(startKeys, new byte[] { (byte) 0x80 }));
+        assertEquals(2, getRegionIndex(startKeys, new byte[] { (byte) 0xff, 0x01 }));
+    }
+
+    @Test
+    public void testSingleRegion() {
+        assertEquals(0, getRegionIndex(new byte[][] { new byte[0] }, Bytes.toBytes("any")));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.phoenix.spark.sql.connector.writer;
+
+import org.apache.hadoop.hbase.CallQueueTooBigException;
+import org.apache.hadoop.hbase.DoNotRetryIOException;
+import org.apache.hadoop.hbase.RegionTooBusyException;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PhoenixWriteThrottleTest {
+
+    private static final String ZK_URL = "localhost:2181";
+
+    private static RetriesExhaustedWithDetailsException retriesExhausted(Throwable... causes) {
+        List<Row> actions = Collections.nCopies(causes.length, new Put(Bytes.toBytes("row")));
+        return new RetriesExhaustedWithDetailsException(Arrays.asList(causes), actions,
+                Collections.nCopies(causes.length, "host:16020"));
+    }
+
+    @Test
+    public void testPushbackHalvesBatchesAndDoublesDelay() throws InterruptedException {
+        PhoenixWriteThrottle throttle = PhoenixWriteThrottle.get(ZK_URL, "PUSHBACK_TABLE", 150);
+        assertEquals(100, throttle.getBatchSize(100));
+        assertEquals(0, throttle.acquire());
+
+        assertTrue(throttle.onFailure(new RegionTooBusyException("busy")));
+        assertEquals(50, throttle.getBatchSize(100));
+        assertEquals(50, throttle.acquire());
+        assertTrue(throttle.onFailure(new CallQueueTooBigException()));
+        assertEquals(25, throttle.getBatchSize(100));
+        assertEquals(100, throttle.acquire());
+        // The delay is capped
+        assertTrue(throttle.onFailure(new RegionTooBusyException("busy")));
+        assertEquals(150, throttle.acquire());
+    }
+
+    @Test
+    public void testBatchesShrinkToAFractionOfAtLeastOneRow() {
+        PhoenixWriteThrottle throttle = PhoenixWriteThrottle.get(ZK_URL, "SHRUNK_TABLE", 1000);
+        for (int i = 0; i < 10; i++) {
+            throttle.onFailure(new RegionTooBusyException("busy"));
+        }
+        assertEquals(100, throttle.getBatchSize(6400));
+        assertEquals(1, throttle.getBatchSize(10));
+        // Batches without a size are not throttled
+        assertEquals(0, throttle.getBatchSize(0));
+    }
+
+    @Test
+    public void testOtherFailuresDoNotSlowDown() throws InterruptedException {
+        PhoenixWriteThrottle throttle = PhoenixWriteThrottle.get(ZK_URL, "FAILING_TABLE", 1000);
+        assertFalse(throttle.onFailure(new IOException("failed")));
+        assertFalse(throttle.onFailure(new SQLException("failed")));
+        assertEquals(100, throttle.getBatchSize(100));
+        assertEquals(0, throttle.acquire());
+    }
+
+    @Test
+    public void testSuccessfulBatchesRecoverGradually() throws InterruptedException {
+        PhoenixWriteThrottle throttle = PhoenixWriteThrottle.get(ZK_URL, "RECOVERING_TABLE", 1000);
+        throttle.onFailure(new RegionTooBusyException("busy"));
+        throttle.onFailure(new RegionTooBusyException("busy"));
+        assertEquals(100, throttle.acquire());
+        assertEquals(25, throttle.getBatchSize(100));
+
+        assertFalse(throttle.onBatch(10, 1000));
+        assertEquals(75, throttle.acquire());
+        assertEquals(31, throttle.getBatchSize(100));
+        assertFalse(throttle.onBatch(10, 1000));
+        assertEquals(56, throttle.acquire());
+        // A delay shrinking below the minimum is dropped
+        assertFalse(throttle.onBatch(10, 1000));
+        assertEquals(0, throttle.acquire());
+        for (int i = 0; i < 10; i++) {
+            assertFalse(throttle.onBatch(10, 1000));
+        }
+        assertEquals(100, throttle.getBatchSize(100));
+    }
+
+    @Test
+    public void testSlowBatchSlowsDown() throws InterruptedException {
+        PhoenixWriteThrottle throttle = PhoenixWriteThrottle.get(ZK_URL, "SLOW_TABLE", 1000);
+        // The first batch only sets the usual latency of 100 ns per row
+        assertFalse(throttle.onBatch(10, 1000));
+        assertFalse(throttle.onBatch(10, 2500));
+        assertEquals(100, throttle.getBatchSize(100));
+
+        assertTrue(throttle.onBatch(10, 10000));
+        assertEquals(50, throttle.getBatchSize(100));
+        assertEquals(50, throttle.acquire());
+    }
+
+    @Test
+    public void testSmallerBatchesAreNotSlow() {
+        PhoenixWriteThrottle throttle = PhoenixWriteThrottle.get(ZK_URL, "SMALLER_BATCHES_TABLE", 1000);
+        // Mostly the fixed cost of a batch, 90 ns per row for 100 rows
+        assertFalse(throttle.onBatch(100, 9000));
+        assertFalse(throttle.onBatch(100, 9000));
+        // Halved batches take about as long, so four times longer per row
+        throttle.onFailure(new RegionTooBusyException("busy"));
+        throttle.onFailure(new RegionTooBusyException("busy"));
+        assertEquals(25, throttle.getBatchSize(100));
+        assertFalse(throttle.onBatch(25, 8500));
+        assertEquals(31, throttle.getBatchSize(100));
+    }
+
+    @Test
+    public void testLastingSlownessBecomesTheUsualLatency() {
+        PhoenixWriteThrottle throttle = PhoenixWriteThrottle.get(ZK_URL, "LASTING_SLOW_TABLE", 1000);
+        assertFalse(throttle.onBatch(10, 1000));
+        // Ten times slower from now on, which the usual latency catches up with
+        assertTrue(throttle.onBatch(10, 10000));
+        assertTrue(throttle.onBatch(10, 10000));
+        assertTrue(throttle.onBatch(10, 10000));
+        assertFalse(throttle.onBatch(10, 10000));
+        // Back to growing batches, from an eighth of the batch size
+        assertEquals(15, throttle.getBatchSize(100));
+    }
+
+    @Test
+    public void testThrottlesAreSharedByTable() {
+        assertTrue(PhoenixWriteThrottle.get(ZK_URL, "SHARED_TABLE", 1000)
+                == PhoenixWriteThrottle.get(ZK_URL, "SHARED_TABLE", 1000));
+        assertFalse(PhoenixWriteThrottle.get(ZK_URL, "SHARED_TABLE", 1000)
+                == PhoenixWriteThrottle.get(ZK_URL, "OTHER_TABLE", 1000));
+    }
+
+    @Test
+    public void testPushbacksAreFoundInCauses() {
+        assertTrue(PhoenixWriteThrottle.isPushback(new SQLException(new IOException(
+                new RegionTooBusyException("busy")))));
+        assertTrue(PhoenixWriteThrottle.isPushback(retriesExhausted(
+                new DoNotRetryIOException("failed"), new RegionTooBusyException("busy"))));
+        assertTrue(PhoenixWriteThrottle.isPushback(new SQLException(retriesExhausted(
+                new IOException(new CallQueueTooBigException())))));
+        assertFalse(PhoenixWriteThrottle.isPushback(retriesExhausted(new DoNotRetryIOException("failed"))));
+        assertFalse(PhoenixWriteThrottle.isPushback(new SQLException("failed")));
+    }
+}